@@ -15,6 +15,7 @@ import ratismal.drivebackup.config.ConfigParser;
 import ratismal.drivebackup.config.Permissions;
 import ratismal.drivebackup.config.ConfigParser.Config;
 import ratismal.drivebackup.config.configSections.BackupList.BackupListEntry;
+import ratismal.drivebackup.config.configSections.BackupList.BackupListEntry.ArchiveMode;
 import ratismal.drivebackup.config.configSections.BackupList.BackupListEntry.PathBackupLocation;
 import ratismal.drivebackup.config.configSections.ExternalBackups.ExternalBackupSource;
 import ratismal.drivebackup.config.configSections.ExternalBackups.ExternalFTPSource;
@@ -35,6 +36,10 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.api.client.util.Strings;
 
@@ -57,6 +62,11 @@ public class UploadThread implements Runnable {
          */
         NOT_RUNNING,
 
+        /**
+         * The backup thread is staging a snapshot of the files to be backed up
+         */
+        STAGING,
+
         /**
          * The backup thread is compressing the files to be backed up
          */
@@ -83,12 +93,32 @@ public class UploadThread implements Runnable {
     /**
      * The {@code BackupStatus} of the backup thread
      */
-    private static BackupStatus backupStatus = BackupStatus.NOT_RUNNING;
+    private static volatile BackupStatus backupStatus = BackupStatus.NOT_RUNNING;
 
     /**
      * The backup currently being backed up by the 
      */
-    private static int backupBackingUp = 0;
+    private static volatile int backupBackingUp = 0;
+
+    /**
+     * The backup currently being uploaded by the upload queue, or -1 if none
+     */
+    private static volatile int backupUploading = -1;
+
+    /**
+     * The governor limiting how fast the files of the backup set being backed up are read, or {@code null} if none
+     */
+    private static volatile DiskGovernor diskGovernor = null;
+
+    /**
+     * How far along the backup being uploaded is, or {@code null} if its uploader hasn't said
+     */
+    private static volatile String uploadProgress = null;
+
+    /**
+     * The queue of backups waiting to be uploaded while the next backups are created
+     */
+    private UploadQueue uploadQueue;
 
     /**
      * Creates an instance of the {@code UploadThread} object
@@ -169,6 +199,15 @@ public class UploadThread implements Runnable {
 
         MessageUtil.Builder().text(intl("backup-start")).all().send();
 
+        // The players online are counted by the tick monitor
+        if (config.backupStorage.throttleCompression || config.bandwidthLimits.playersOnlineLimit != 0) {
+            TickMonitor.start();
+        }
+
+        if (config.backupStorage.snapshotStaging) {
+            stageBackups();
+        }
+
 
         uploaders = new ArrayList<Uploader>();
 
@@ -187,6 +226,12 @@ public class UploadThread implements Runnable {
 
         ensureMethodsLinked();
 
+        for (Uploader uploader : uploaders) {
+            uploader.setProgressListener(UploadThread::updateUploadProgress);
+        }
+
+        resumeInterruptedUploads();
+
         backupList = Arrays.asList(config.backupList.list);
 
         List<ExternalBackupSource> externalBackupList = Arrays.asList(config.externalBackups.sources);
@@ -198,18 +243,30 @@ public class UploadThread implements Runnable {
             }
         }
 
+        uploadQueue = new UploadQueue(config.backupStorage.pipelineDiskBudget, config.backupStorage.threadPriority);
+
         backupBackingUp = 0;
         for (BackupListEntry set : backupList) {
-            for(Path folder : set.location.getPaths()) {
-                doSingleBackup(folder.toString(), set.formatter, set.create, Arrays.asList(set.blacklist), uploaders);
-            }
+            backUpSet(set, uploaders);
 
             backupBackingUp++;
         }
 
+        backupStatus = BackupStatus.UPLOADING;
+
+        try {
+            uploadQueue.finish();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
         FileUtil.deleteFolder(new File("external-backups"));
+        FileUtil.deleteStagedBackups();
+
+        TickMonitor.stop();
 
         backupStatus = BackupStatus.NOT_RUNNING;
+        uploadProgress = null;
 
         for(int i = 0; i < uploaders.size(); i++) {
             uploaders.get(i).close();
@@ -238,7 +295,9 @@ public class UploadThread implements Runnable {
             PlayerListener.setAutoBackupsActive(false);
         }
 
-        ServerUtil.setAutoSave(true);
+        if (!config.backupStorage.snapshotStaging) {
+            ServerUtil.setAutoSave(true);
+        }
 
         if (errorOccurred) {
             DriveBackupApi.backupError();
@@ -247,6 +306,38 @@ public class UploadThread implements Runnable {
         }
     }
 
+    /**
+     * Saves the server, then stages a snapshot of each backup set that is created locally, and turns auto save back on
+     * <p>
+     * The backups are created and uploaded from the snapshots, so the server only stops saving while they are staged
+     */
+    private void stageBackups() {
+        Config config = ConfigParser.getConfig();
+
+        backupStatus = BackupStatus.STAGING;
+        ServerUtil.saveAll();
+
+        backupBackingUp = 0;
+        for (BackupListEntry set : config.backupList.list) {
+            if (set.create) {
+                for (Path folder : set.location.getPaths()) {
+                    try {
+                        FileUtil.stageBackup(folder.toString(), Arrays.asList(set.blacklist));
+                    } catch (IllegalArgumentException exception) {
+                        // Reported when the backup set is backed up
+                    } catch (Exception exception) {
+                        // The backup set is created from the files being backed up instead
+                        MessageUtil.sendConsoleException(exception);
+                    }
+                }
+            }
+
+            backupBackingUp++;
+        }
+
+        ServerUtil.setAutoSave(true);
+    }
+
     private void ensureMethodsLinked() {
         for (Uploader uploader : uploaders) {
             AuthenticationProvider provider = uploader.getAuthProvider();
@@ -266,41 +357,400 @@ public class UploadThread implements Runnable {
         }
     }
 
+    /**
+     * Finishes uploading the backups whose uploads were interrupted, by a restart or a network failure, before the
+     * backups are made
+     * <p>
+     * Each upload carries on from where the backup method's saved upload session left off. The oldest files aren't
+     * deleted, as the backup being made next does that.
+     */
+    private void resumeInterruptedUploads() {
+        for (Uploader uploader : uploaders) {
+            for (UploadSessionStore.InterruptedUpload upload : UploadSessionStore.getInterrupted(uploader.getName())) {
+                MessageUtil.Builder().text("Resuming the interrupted upload of " + upload.getFile().getName() + " to " + uploader.getName()).toConsole(true).send();
+
+                try {
+                    uploader.uploadFile(upload.getFile(), upload.getType(), false);
+                } catch (Exception exception) {
+                    MessageUtil.sendConsoleException(exception);
+                }
+            }
+        }
+    }
+
+    /**
+     * Backs up each folder of a backup set
+     * <p>
+     * If the set matches several folders, they are compressed at once by up to the configured number of folder threads,
+     * which share the compression threads between them. The backups are still uploaded one at a time, in order, as a
+     * backup method only uploads one backup at a time.
+     * @param set the backup list entry
+     * @param uploaders All services to upload to
+     */
+    private void backUpSet(BackupListEntry set, List<Uploader> uploaders) {
+        Config config = ConfigParser.getConfig();
+
+        List<Path> folders = set.location.getPaths();
+        int folderThreads = Math.min(config.backupStorage.folderThreads, folders.size());
+
+        // Shared by the folders of the set, so their limits apply to the set as a whole
+        DiskGovernor setDiskGovernor = new DiskGovernor(set.readLimit, set.fileOpenLimit);
+        diskGovernor = setDiskGovernor;
+
+        // Connected to while the set is compressed, so uploading it doesn't wait for the connections to be set up
+        for (Uploader uploader : uploaders) {
+            uploader.prewarmConnections();
+        }
+
+        // Streamed backups are uploaded while they are created
+        if (folderThreads < 2 || isStreamed(set, uploaders)) {
+            for (Path folder : folders) {
+                PendingUpload upload = doSingleBackup(folder.toString(), set, uploaders, config.backupStorage.compressionThreads, setDiskGovernor);
+
+                if (upload != null) {
+                    queueUpload(upload);
+                }
+            }
+
+            return;
+        }
+
+        int compressionThreads = Math.max(1, config.backupStorage.compressionThreads / folderThreads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(folderThreads, runnable -> {
+            Thread thread = new Thread(runnable, "DriveBackup-Compress");
+            thread.setDaemon(true);
+            thread.setPriority(config.backupStorage.threadPriority);
+
+            return thread;
+        });
+
+        List<Future<PendingUpload>> backups = new ArrayList<>();
+        for (Path folder : folders) {
+            backups.add(executor.submit(() -> doSingleBackup(folder.toString(), set, uploaders, compressionThreads, setDiskGovernor)));
+        }
+
+        executor.shutdown();
+
+        for (Future<PendingUpload> backup : backups) {
+            try {
+                PendingUpload upload = backup.get();
+
+                if (upload != null) {
+                    queueUpload(upload);
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+
+                return;
+            } catch (ExecutionException exception) {
+                MessageUtil.sendConsoleException(exception);
+            }
+        }
+    }
+
+    /**
+     * Gets whether backups of the specified backup set are streamed to any backup method while they are created
+     * @param set the backup list entry
+     * @param uploaders All services to upload to
+     * @return whether backups are streamed
+     */
+    private static boolean isStreamed(BackupListEntry set, List<Uploader> uploaders) {
+        if (!ConfigParser.getConfig().backupStorage.streamUploads || !set.create || set.mode == ArchiveMode.DEDUPLICATED) {
+            return false;
+        }
+
+        for (Uploader uploader : uploaders) {
+            if (uploader.supportsStreaming()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Backs up a single folder
+     * <p>
+     * The backup is only uploaded while it is created if it is streamed, otherwise the returned upload needs to be queued
      * @param location Path to the folder
-     * @param formatter Save format configuration
-     * @param create Create the zip file or just upload it? ("True" / "False")
-     * @param blackList configured blacklist (with globs)
+     * @param set the backup list entry the folder belongs to, containing the save format, whether to create the zip file or just upload it, 
+     * the configured blacklist (with globs) and the incremental backup settings
      * @param uploaders All services to upload to
-     * @return True if any error occurred
+     * @param compressionThreads the number of threads to compress the backup with
+     * @param diskGovernor the governor limiting how fast the files of the backup set are read
+     * @return the upload of the backup, or {@code null} if creating the backup failed
      */
-    private void doSingleBackup(String location, LocalDateTimeFormatter formatter, boolean create, List<String> blackList, List<Uploader> uploaders) {
+    private PendingUpload doSingleBackup(String location, BackupListEntry set, List<Uploader> uploaders, int compressionThreads, DiskGovernor diskGovernor) {
+        Config config = ConfigParser.getConfig();
+        LocalDateTimeFormatter formatter = set.formatter;
+
         MessageUtil.Builder().mmText(intl("backup-location-start"), "location", location).toConsole(true).send();
-        if (create) {
+        if (set.mode == ArchiveMode.DEDUPLICATED) {
+            return doDeduplicatedBackup(location, set, uploaders, diskGovernor);
+        }
+
+        String remoteLocation = location;
+        if (FileUtil.isBaseFolder(location)) {
+            remoteLocation = "root";
+        }
+
+        List<Uploader> fileUploaders = uploaders;
+
+        if (set.create) {
             backupStatus = BackupStatus.COMPRESSING;
 
+            StreamingUpload streamingUpload = createStreamingUpload(remoteLocation, uploaders);
+
             try {
-                FileUtil.makeBackup(location, formatter, blackList);
+                FileUtil.makeBackup(location, formatter, Arrays.asList(set.blacklist), set.incremental, set.fullBackupInterval, set.regionAware, set.format, compressionThreads, diskGovernor, streamingUpload);
             } catch (IllegalArgumentException exception) {
+                abortStreamingUpload(streamingUpload);
                 logger.log(intl("backup-failed-absolute-path"));
 
-                return;
+                return null;
             } catch (Exception exception) {
+                abortStreamingUpload(streamingUpload);
                 logger.log(intl("backup-local-failed"));
 
-                return;
+                return null;
+            }
+
+            if (streamingUpload != null) {
+                backupStatus = BackupStatus.UPLOADING;
+
+                finishStreamingUpload(streamingUpload);
+
+                fileUploaders = new ArrayList<>(uploaders);
+                fileUploaders.removeAll(streamingUpload.getUploaders());
             }
         }
 
+        backupStatus = BackupStatus.UPLOADING;
+
+        File file = null;
+        if (!fileUploaders.isEmpty()) {
+            try {
+                file = FileUtil.getNewestBackup(remoteLocation, formatter);
+            } catch (Exception e) {
+                logger.log(intl("backup-failed-to-upload-to-method"));
+                MessageUtil.sendConsoleException(e);
+
+                return null;
+            }
+
+            if (file == null) {
+                // Such as when backups aren't created, and none were created before
+                logger.log(intl("backup-no-backup-to-upload"), "location", location);
+
+                return null;
+            }
+        }
+
+        // Only a backup created just now takes up disk space until it is uploaded
+        long size = set.create && file != null ? file.length() : 0;
+
+        String uploadLocation = remoteLocation;
+        File uploadFile = file;
+        List<Uploader> uploadUploaders = fileUploaders;
+        return new PendingUpload(size, () -> uploadBackup(uploadLocation, formatter, uploadFile, uploadUploaders));
+    }
+
+    /**
+     * Uploads a backup of a single folder to the backup methods it wasn't streamed to, then deletes the oldest local backups of the folder
+     * @param location the remote folder to upload to
+     * @param formatter the format of the file names of the backups of the folder
+     * @param file the backup file, or {@code null} if there are no backup methods to upload it to
+     * @param uploaders the backup methods to upload to
+     */
+    private void uploadBackup(String location, LocalDateTimeFormatter formatter, File file, List<Uploader> uploaders) {
+        Config config = ConfigParser.getConfig();
+
         try {
-            backupStatus = BackupStatus.UPLOADING;
+            if (!uploaders.isEmpty()) {
+                for (Uploader uploader : uploaders) {
+                    logger.log(
+                        intl("backup-uploading-to-method"),
+                        "backup-method",
+                        uploader.getName());
+                }
+
+                FanOutUpload fanOutUpload = new FanOutUpload(uploaders, location, config.backupStorage.streamUploads, config.backupStorage.threadPriority);
+                fanOutUpload.upload(file);
 
-            if (FileUtil.isBaseFolder(location)) {
-                location = "root";
+                for (Uploader uploader : uploaders) {
+                    if (!fanOutUpload.isFailed(uploader)) {
+                        logger.log(fanOutUpload.getTimer(uploader).getUploadTimeMessage(file));
+                    } else {
+                        logger.log(intl("backup-failed-to-upload-to-method"));
+                    }
+                }
             }
 
-            File file = FileUtil.getNewestBackup(location, formatter);
+            FileUtil.deleteFiles(location, formatter);
+        } catch (Exception e) {
+
+            logger.log(intl("backup-failed-to-upload-to-method"));
+            MessageUtil.sendConsoleException(e);
+        }
+    }
+
+    /**
+     * Queues the upload of the backup of the backup set being backed up, which runs while the next backups are created if
+     * pipelining is enabled
+     * @param upload the upload of the backup
+     */
+    private void queueUpload(PendingUpload upload) {
+        int setIndex = backupBackingUp;
+
+        try {
+            uploadQueue.put(upload.size, () -> {
+                backupUploading = setIndex;
+
+                try {
+                    upload.runnable.run();
+                } finally {
+                    backupUploading = -1;
+                }
+            });
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates an upload of the backup to the backup methods which support streaming, if enabled
+     * <p>
+     * The backup is only also written to disk if a local copy is kept, or a backup method doesn't support streaming
+     * @param location the remote folder to upload to
+     * @param uploaders All services to upload to
+     * @return the streaming upload, or {@code null} if backups aren't streamed to any backup method
+     */
+    private StreamingUpload createStreamingUpload(String location, List<Uploader> uploaders) {
+        Config config = ConfigParser.getConfig();
+
+        if (!config.backupStorage.streamUploads) {
+            return null;
+        }
+
+        List<Uploader> streamingUploaders = new ArrayList<>();
+        for (Uploader uploader : uploaders) {
+            if (uploader.supportsStreaming()) {
+                streamingUploaders.add(uploader);
+            }
+        }
+
+        if (streamingUploaders.isEmpty()) {
+            return null;
+        }
+
+        boolean keepLocalCopy = config.backupStorage.localKeepCount != 0 || streamingUploaders.size() < uploaders.size();
+
+        // The backup methods can't be streamed to while they upload a previous backup
+        try {
+            uploadQueue.awaitIdle();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Uploader uploader : streamingUploaders) {
+            logger.log(
+                intl("backup-uploading-to-method"),
+                "backup-method",
+                uploader.getName());
+        }
+
+        return new StreamingUpload(streamingUploaders, location, keepLocalCopy, config.backupStorage.threadPriority);
+    }
+
+    /**
+     * Waits for the backup to finish uploading to each backup method it is streamed to
+     * @param streamingUpload the streaming upload
+     */
+    private void finishStreamingUpload(StreamingUpload streamingUpload) {
+        try {
+            streamingUpload.finish();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Uploader uploader : streamingUpload.getUploaders()) {
+            if (!uploader.isErrorWhileUploading()) {
+                logger.log(streamingUpload.getTimer(uploader).getUploadTimeMessage(streamingUpload.getBytesWritten()));
+            } else {
+                logger.log(intl("backup-failed-to-upload-to-method"));
+            }
+        }
+    }
+
+    /**
+     * Cancels the upload of a backup that failed to be created
+     * @param streamingUpload the streaming upload, or {@code null} if the backup wasn't being streamed
+     */
+    private void abortStreamingUpload(StreamingUpload streamingUpload) {
+        if (streamingUpload == null) {
+            return;
+        }
+
+        try {
+            streamingUpload.abort();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Backs up a single folder as a snapshot in its chunk store
+     * @param location Path to the folder
+     * @param set the backup list entry the folder belongs to
+     * @param uploaders All services to upload to
+     * @param diskGovernor the governor limiting how fast the files of the backup set are read
+     * @return the upload of the new pack and snapshot files, or {@code null} if creating the snapshot failed
+     */
+    private PendingUpload doDeduplicatedBackup(String location, BackupListEntry set, List<Uploader> uploaders, DiskGovernor diskGovernor) {
+        backupStatus = BackupStatus.COMPRESSING;
+
+        ChunkStore chunkStore;
+        try {
+            chunkStore = FileUtil.makeDeduplicatedBackup(location, set.formatter, Arrays.asList(set.blacklist), diskGovernor);
+        } catch (IllegalArgumentException exception) {
+            logger.log(intl("backup-failed-absolute-path"));
+
+            return null;
+        } catch (Exception exception) {
+            logger.log(intl("backup-local-failed"));
+
+            return null;
+        }
+
+        backupStatus = BackupStatus.UPLOADING;
+
+        if (FileUtil.isBaseFolder(location)) {
+            location = "root";
+        }
+
+        long size = 0;
+        for (File file : chunkStore.getPendingUploads()) {
+            size += file.length();
+        }
+
+        String uploadLocation = location;
+        return new PendingUpload(size, () -> uploadDeduplicatedBackup(uploadLocation, chunkStore, uploaders));
+    }
+
+    /**
+     * Uploads the new pack and snapshot files of a chunk store, and deletes the files of expired snapshots from every backup method
+     * @param location the remote folder to upload to
+     * @param chunkStore the chunk store
+     * @param uploaders All services to upload to
+     */
+    private void uploadDeduplicatedBackup(String location, ChunkStore chunkStore, List<Uploader> uploaders) {
+        Config config = ConfigParser.getConfig();
+
+        try {
+            List<File> files = chunkStore.getPendingUploads();
+            boolean uploadedToAll = true;
             Timer timer = new Timer();
 
             for (Uploader uploader : uploaders) {
@@ -309,18 +759,36 @@ public class UploadThread implements Runnable {
                     "backup-method",
                     uploader.getName());
 
-                timer.start();
-                uploader.uploadFile(file, location);
-                timer.end();
+                for (File file : files) {
+                    timer.start();
+                    uploader.uploadFile(file, location, false);
+                    timer.end();
+
+                    if (uploader.isErrorWhileUploading()) {
+                        break;
+                    }
 
-                if (!uploader.isErrorWhileUploading()) {
                     logger.log(timer.getUploadTimeMessage(file));
-                } else {
+                }
+
+                if (uploader.isErrorWhileUploading()) {
                     logger.log(intl("backup-failed-to-upload-to-method"));
+                    uploadedToAll = false;
                 }
             }
 
-            FileUtil.deleteFiles(location, formatter);
+            // Files stay pending until every backup method has them, so a failed upload is retried next backup
+            if (uploadedToAll) {
+                chunkStore.markUploaded(files, config.backupStorage.localKeepCount != 0);
+            }
+
+            for (String fileName : chunkStore.deleteOldSnapshots(config.backupStorage.keepCount)) {
+                for (Uploader uploader : uploaders) {
+                    uploader.deleteFile(fileName, location);
+                }
+            }
+
+            chunkStore.save();
         } catch (Exception e) {
 
             logger.log(intl("backup-failed-to-upload-to-method"));
@@ -460,13 +928,20 @@ public class UploadThread implements Runnable {
         Config config = ConfigParser.getConfig();
         StringBuilder backupStatusMessage = new StringBuilder();
 
-        if (backupStatus == BackupStatus.NOT_RUNNING) {
+        BackupStatus status = backupStatus;
+
+        if (status == BackupStatus.NOT_RUNNING) {
             backupStatusMessage.append("No backups are running");
 
             return backupStatusMessage.toString();
         }
 
-        switch (backupStatus) {
+        BackupListEntry[] backupList = config.backupList.list;
+        int setUploading = backupUploading;
+
+        switch (status) {
+            case STAGING: backupStatusMessage.append("Staging ");
+                break;
             case COMPRESSING: backupStatusMessage.append("Compressing ");
                 break;
             case UPLOADING: backupStatusMessage.append("Uploading ");
@@ -474,14 +949,86 @@ public class UploadThread implements Runnable {
             default:
         }
 
-        BackupListEntry[] backupList = config.backupList.list;
-        String backupSetName = backupList[backupBackingUp].location.toString();
+        // Once the backup thread is done compressing a set, it waits for the upload queue, so only the set being uploaded is shown
+        if (status != BackupStatus.UPLOADING || setUploading == -1) {
+            appendBackupSet(backupStatusMessage, backupList, backupBackingUp);
 
-        backupStatusMessage.append("backup set \"" + backupSetName + "\", set " + (backupBackingUp + 1) + " of " + backupList.length);
+            if (status == BackupStatus.COMPRESSING) {
+                appendDiskUsage(backupStatusMessage);
+            }
+
+            if (setUploading == -1 || status == BackupStatus.STAGING) {
+                return backupStatusMessage.toString();
+            }
+
+            backupStatusMessage.append(", uploading ");
+        }
+
+        appendBackupSet(backupStatusMessage, backupList, setUploading);
+
+        String progress = uploadProgress;
+        if (progress != null) {
+            backupStatusMessage.append(" (" + progress + ")");
+        }
 
         return backupStatusMessage.toString();
     }
 
+    /**
+     * Updates how far along the backup being uploaded is, as told by its uploader
+     * @param uploader the uploader sending the backup
+     * @param fileName the name of the backup
+     * @param uploaded the number of bytes received by the backup method so far
+     * @param total the size of the backup in bytes
+     */
+    private static void updateUploadProgress(Uploader uploader, String fileName, long uploaded, long total) {
+        if (uploaded >= total) {
+            uploadProgress = null;
+
+            return;
+        }
+
+        uploadProgress = String.format("%d of %d MB to %s", uploaded / 1024 / 1024, total / 1024 / 1024, uploader.getName());
+    }
+
+    /**
+     * Appends the name and position of the specified backup set to the status of the backup thread
+     * @param backupStatusMessage the status
+     * @param backupList the backup sets
+     * @param index the index of the backup set
+     */
+    private static void appendBackupSet(StringBuilder backupStatusMessage, BackupListEntry[] backupList, int index) {
+        // The backup thread finishes uploading after it is done with the last set
+        index = Math.min(index, backupList.length - 1);
+
+        String backupSetName = backupList[index].location.toString();
+
+        backupStatusMessage.append("backup set \"" + backupSetName + "\", set " + (index + 1) + " of " + backupList.length);
+    }
+
+    /**
+     * Appends how fast the files of the backup set being backed up are read, and the limits on it, to the status of the backup thread
+     * @param backupStatusMessage the status
+     */
+    private static void appendDiskUsage(StringBuilder backupStatusMessage) {
+        DiskGovernor governor = diskGovernor;
+        if (governor == null) {
+            return;
+        }
+
+        backupStatusMessage.append(String.format(" (reading %.1f MB/s", governor.getReadRate() / 1024 / 1024));
+        if (governor.getReadLimit() != 0) {
+            backupStatusMessage.append(" of " + governor.getReadLimit() / 1024 / 1024 + " MB/s");
+        }
+
+        backupStatusMessage.append(String.format(", opening %.0f files/s", governor.getFileOpenRate()));
+        if (governor.getFileOpenLimit() != 0) {
+            backupStatusMessage.append(" of " + governor.getFileOpenLimit());
+        }
+
+        backupStatusMessage.append(")");
+    }
+
     /**
      * Gets the date/time of the next automatic backup, if enabled
      * @return the time and/or date of the next automatic backup formatted using the messages in the {@code config.yml} 
@@ -540,4 +1087,20 @@ public class UploadThread implements Runnable {
             return "mysql-" + getSocketAddress(externalBackup);
         }
     }
+
+    /**
+     * The upload of a backup that has been created
+     */
+    private static class PendingUpload {
+        /**
+         * The disk space taken up by the backup until it is uploaded, in bytes
+         */
+        private final long size;
+        private final Runnable runnable;
+
+        private PendingUpload(long size, Runnable runnable) {
+            this.size = size;
+            this.runnable = runnable;
+        }
+    }
 }
@@ -11,6 +11,7 @@ import ratismal.drivebackup.config.configSections.BackupList;
 import ratismal.drivebackup.config.configSections.BackupMethods;
 import ratismal.drivebackup.config.configSections.BackupScheduling;
 import ratismal.drivebackup.config.configSections.BackupStorage;
+import ratismal.drivebackup.config.configSections.BandwidthLimits;
 import ratismal.drivebackup.config.configSections.ExternalBackups;
 import ratismal.drivebackup.config.configSections.Messages;
 import ratismal.drivebackup.plugin.DriveBackup;
@@ -26,6 +27,7 @@ public class ConfigParser {
         public final BackupList backupList;
         public final ExternalBackups externalBackups;
         public final BackupMethods backupMethods;
+        public final BandwidthLimits bandwidthLimits;
         public final Messages messages;
         public final Advanced advanced;
     
@@ -35,6 +37,7 @@ public class ConfigParser {
             BackupList backupList,
             ExternalBackups externalBackups,
             BackupMethods backupMethods,
+            BandwidthLimits bandwidthLimits,
             Messages messages,
             Advanced advanced
             ) {
@@ -44,6 +47,7 @@ public class ConfigParser {
             this.backupList = backupList;
             this.externalBackups = externalBackups;
             this.backupMethods = backupMethods;
+            this.bandwidthLimits = bandwidthLimits;
             this.messages = messages;
             this.advanced = advanced;
         }
@@ -91,6 +95,7 @@ public class ConfigParser {
             BackupList.parse(config, logger),
             ExternalBackups.parse(config, logger),
             BackupMethods.parse(config, logger),
+            BandwidthLimits.parse(config, logger),
             Messages.parse(config, logger),
             Advanced.parse(config, logger)
         );
@@ -106,6 +111,7 @@ public class ConfigParser {
             BackupList.parse(config, logger),
             ExternalBackups.parse(config, logger),
             BackupMethods.parse(config, logger),
+            BandwidthLimits.parse(config, logger),
             Messages.parse(config, logger),
             Advanced.parse(config, logger)
         );
@@ -11,6 +11,8 @@ import org.bukkit.configuration.file.FileConfiguration;
 
 import ratismal.drivebackup.util.Logger;
 import ratismal.drivebackup.config.configSections.BackupList.BackupListEntry.BackupLocation;
+import ratismal.drivebackup.config.configSections.BackupList.BackupListEntry.ArchiveMode;
+import ratismal.drivebackup.util.ArchiveFormat;
 import ratismal.drivebackup.util.FileUtil;
 import ratismal.drivebackup.util.LocalDateTimeFormatter;
 
@@ -55,10 +57,37 @@ public class BackupList {
             }
         }
 
+        /**
+         * How the backups of an entry are stored
+         */
+        public enum ArchiveMode {
+            /**
+             * Each backup is a zip file
+             */
+            ZIP,
+
+            /**
+             * Each backup is a snapshot in a deduplicating chunk store
+             */
+            DEDUPLICATED
+        }
+
+        /**
+         * The default maximum number of backups in a chain of incremental backups, including the full backup
+         */
+        public static final int DEFAULT_FULL_BACKUP_INTERVAL = 24;
+
         public final BackupLocation location;
         public final LocalDateTimeFormatter formatter;
         public final boolean create;
         public final String[] blacklist;
+        public final boolean incremental;
+        public final int fullBackupInterval;
+        public final boolean regionAware;
+        public final ArchiveMode mode;
+        public final ArchiveFormat format;
+        public final long readLimit;
+        public final long fileOpenLimit;
         
         public BackupListEntry(
             BackupLocation location,
@@ -67,10 +96,34 @@ public class BackupList {
             String[] blacklist
             ) {
 
+            this(location, formatter, create, blacklist, false, DEFAULT_FULL_BACKUP_INTERVAL, false, ArchiveMode.ZIP, ArchiveFormat.ZIP, 0, 0);
+        }
+
+        public BackupListEntry(
+            BackupLocation location,
+            LocalDateTimeFormatter formatter, 
+            boolean create, 
+            String[] blacklist,
+            boolean incremental,
+            int fullBackupInterval,
+            boolean regionAware,
+            ArchiveMode mode,
+            ArchiveFormat format,
+            long readLimit,
+            long fileOpenLimit
+            ) {
+
             this.location = location;
             this.formatter = formatter;
             this.create = create;
             this.blacklist = blacklist;
+            this.incremental = incremental;
+            this.fullBackupInterval = fullBackupInterval;
+            this.regionAware = regionAware;
+            this.mode = mode;
+            this.format = format;
+            this.readLimit = readLimit;
+            this.fileOpenLimit = fileOpenLimit;
         }
     }
 
@@ -133,8 +186,97 @@ public class BackupList {
                     logger.log(intl("backup-list-blacklist-invalid"), "entry", entryIndex);
                 }
             }
+
+            boolean incremental = false;
+            try {
+                incremental = (boolean) (Boolean) rawListEntry.get("incremental");
+            } catch (Exception e) { 
+                // Do nothing, assume false
+            }
+
+            int fullBackupInterval = BackupListEntry.DEFAULT_FULL_BACKUP_INTERVAL;
+            if (rawListEntry.containsKey("full-backup-interval")) {
+                try {
+                    fullBackupInterval = (int) (Integer) rawListEntry.get("full-backup-interval");
+
+                    if (fullBackupInterval < 1) {
+                        throw new IllegalArgumentException();
+                    }
+                } catch (Exception e) {
+                    logger.log(intl("backup-list-full-backup-interval-invalid"), "entry", entryIndex);
+                    fullBackupInterval = BackupListEntry.DEFAULT_FULL_BACKUP_INTERVAL;
+                }
+            }
+
+            boolean regionAware = false;
+            try {
+                regionAware = (boolean) (Boolean) rawListEntry.get("region-aware");
+            } catch (Exception e) { 
+                // Do nothing, assume false
+            }
+
+            if (regionAware && !incremental) {
+                logger.log(intl("backup-list-region-aware-not-incremental"), "entry", entryIndex);
+                regionAware = false;
+            }
+
+            ArchiveMode mode = ArchiveMode.ZIP;
+            if (rawListEntry.containsKey("mode")) {
+                try {
+                    mode = ArchiveMode.valueOf(((String) rawListEntry.get("mode")).toUpperCase());
+                } catch (Exception e) {
+                    logger.log(intl("backup-list-mode-invalid"), "entry", entryIndex);
+                }
+            }
+
+            if (mode == ArchiveMode.DEDUPLICATED && incremental) {
+                logger.log(intl("backup-list-incremental-deduplicated"), "entry", entryIndex);
+                incremental = false;
+            }
+
+            ArchiveFormat format = ArchiveFormat.ZIP;
+            if (rawListEntry.containsKey("archive-format")) {
+                try {
+                    format = ArchiveFormat.fromConfigName((String) rawListEntry.get("archive-format"));
+                } catch (Exception e) {
+                    logger.log(intl("backup-list-archive-format-invalid"), "entry", entryIndex);
+                }
+            }
+
+            if (mode == ArchiveMode.ZIP && !((String) rawListEntry.get("format")).endsWith(format.getExtension())) {
+                logger.log(intl("backup-list-format-extension-mismatch"), "entry", entryIndex, "extension", format.getExtension());
+            }
+
+            long readLimit = 0;
+            if (rawListEntry.containsKey("read-limit")) {
+                try {
+                    readLimit = ((Number) rawListEntry.get("read-limit")).longValue();
+
+                    if (readLimit < 0) {
+                        throw new IllegalArgumentException();
+                    }
+                } catch (Exception e) {
+                    logger.log(intl("backup-list-read-limit-invalid"), "entry", entryIndex);
+                    readLimit = 0;
+                }
+            }
+            readLimit *= 1024 * 1024;
+
+            long fileOpenLimit = 0;
+            if (rawListEntry.containsKey("file-open-limit")) {
+                try {
+                    fileOpenLimit = ((Number) rawListEntry.get("file-open-limit")).longValue();
+
+                    if (fileOpenLimit < 0) {
+                        throw new IllegalArgumentException();
+                    }
+                } catch (Exception e) {
+                    logger.log(intl("backup-list-file-open-limit-invalid"), "entry", entryIndex);
+                    fileOpenLimit = 0;
+                }
+            }
             
-            list.add(new BackupListEntry(location, formatter, create, blacklist));
+            list.add(new BackupListEntry(location, formatter, create, blacklist, incremental, fullBackupInterval, regionAware, mode, format, readLimit, fileOpenLimit));
         }
 
         return new BackupList(list.toArray(new BackupListEntry[0]));
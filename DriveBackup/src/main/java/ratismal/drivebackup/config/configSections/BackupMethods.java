@@ -2,6 +2,7 @@ package ratismal.drivebackup.config.configSections;
 
 import com.google.api.client.util.Strings;
 
+import org.bukkit.configuration.Configuration;
 import org.bukkit.configuration.file.FileConfiguration;
 
 import ratismal.drivebackup.config.ConfigParser;
@@ -19,20 +20,45 @@ public class BackupMethods {
     }
 
     public static class GoogleDriveBackupMethod extends BackupMethod {
-        public GoogleDriveBackupMethod(boolean enabled) {
+        /**
+         * The size of the chunks backups are uploaded in, in bytes, or 0 to upload them in one request
+         */
+        public final long chunkSize;
+        public final int chunkRetries;
+
+        public GoogleDriveBackupMethod(boolean enabled, long chunkSize, int chunkRetries) {
             super(enabled);
+
+            this.chunkSize = chunkSize;
+            this.chunkRetries = chunkRetries;
         }
     }
 
     public static class OneDriveBackupMethod extends BackupMethod {
-        public OneDriveBackupMethod(boolean enabled) {
+        /**
+         * The size of the chunks backups are uploaded in, in bytes, a multiple of 320 KB
+         */
+        public final long chunkSize;
+
+        public OneDriveBackupMethod(boolean enabled, long chunkSize) {
             super(enabled);
+
+            this.chunkSize = chunkSize;
         }
     }
 
     public static class DropboxBackupMethod extends BackupMethod {
-        public DropboxBackupMethod(boolean enabled) {
+        /**
+         * The size of the chunks backups are uploaded in, in bytes
+         */
+        public final long chunkSize;
+        public final int chunkRetries;
+
+        public DropboxBackupMethod(boolean enabled, long chunkSize, int chunkRetries) {
             super(enabled);
+
+            this.chunkSize = chunkSize;
+            this.chunkRetries = chunkRetries;
         }
     }
 
@@ -86,16 +112,58 @@ public class BackupMethods {
     }
 
     public static BackupMethods parse(FileConfiguration config, Logger logger) {
+        Configuration defaultConfig = config.getDefaults();
+
+        int googleDriveChunkSize = config.getInt("googledrive.chunk-size");
+        if (googleDriveChunkSize < 0) {
+            logger.log(intl("googledrive-method-chunk-size-invalid"));
+            googleDriveChunkSize = defaultConfig.getInt("googledrive.chunk-size");
+        }
+
+        int googleDriveChunkRetries = config.getInt("googledrive.chunk-retries");
+        if (googleDriveChunkRetries < 0) {
+            logger.log(intl("googledrive-method-chunk-retries-invalid"));
+            googleDriveChunkRetries = defaultConfig.getInt("googledrive.chunk-retries");
+        }
+
+        // Google Drive needs chunks to be a multiple of 256 KB, which every whole number of MB is
         GoogleDriveBackupMethod googleDriveMethod = new GoogleDriveBackupMethod(
-            config.getBoolean("googledrive.enabled")
+            config.getBoolean("googledrive.enabled"), 
+            googleDriveChunkSize * 1024L * 1024L, 
+            googleDriveChunkRetries
             );
 
+        // OneDrive doesn't accept more than 60 MB in one request
+        int oneDriveChunkSize = config.getInt("onedrive.chunk-size");
+        if (oneDriveChunkSize < 1 || oneDriveChunkSize > 60) {
+            logger.log(intl("onedrive-method-chunk-size-invalid"));
+            oneDriveChunkSize = defaultConfig.getInt("onedrive.chunk-size");
+        }
+
+        // OneDrive needs chunks to be a multiple of 320 KB, so the chunk size is rounded down to one
+        long oneDriveChunkAlignment = 320 * 1024;
         OneDriveBackupMethod oneDriveMethod = new OneDriveBackupMethod(
-            config.getBoolean("onedrive.enabled")
+            config.getBoolean("onedrive.enabled"), 
+            oneDriveChunkSize * 1024L * 1024L / oneDriveChunkAlignment * oneDriveChunkAlignment
             );
 
+        // Dropbox doesn't accept more than 150 MB in one request
+        int dropboxChunkSize = config.getInt("dropbox.chunk-size");
+        if (dropboxChunkSize < 1 || dropboxChunkSize > 150) {
+            logger.log(intl("dropbox-method-chunk-size-invalid"));
+            dropboxChunkSize = defaultConfig.getInt("dropbox.chunk-size");
+        }
+
+        int dropboxChunkRetries = config.getInt("dropbox.chunk-retries");
+        if (dropboxChunkRetries < 0) {
+            logger.log(intl("dropbox-method-chunk-retries-invalid"));
+            dropboxChunkRetries = defaultConfig.getInt("dropbox.chunk-retries");
+        }
+
         DropboxBackupMethod dropboxMethod = new DropboxBackupMethod(
-            config.getBoolean("dropbox.enabled")
+            config.getBoolean("dropbox.enabled"), 
+            dropboxChunkSize * 1024L * 1024L, 
+            dropboxChunkRetries
             );
 
         boolean ftpEnabled = config.getBoolean("ftp.enabled");
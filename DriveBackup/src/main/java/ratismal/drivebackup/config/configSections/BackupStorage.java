@@ -15,8 +15,16 @@ public class BackupStorage {
     public final int keepCount;
     public final int localKeepCount;
     public final int zipCompression;
+    public final boolean storeCompressedFiles;
+    public final int compressionThreads;
+    public final boolean throttleCompression;
+    public final int scanThreads;
+    public final int folderThreads;
+    public final boolean streamUploads;
+    public final long pipelineDiskBudget;
     public final boolean backupsRequirePlayers;
     public final boolean disableSavingDuringBackups;
+    public final boolean snapshotStaging;
     public final String localDirectory;
     public final String remoteDirectory;
 
@@ -26,8 +34,16 @@ public class BackupStorage {
         int keepCount, 
         int localKeepCount,
         int zipCompression,
+        boolean storeCompressedFiles,
+        int compressionThreads,
+        boolean throttleCompression,
+        int scanThreads,
+        int folderThreads,
+        boolean streamUploads,
+        long pipelineDiskBudget,
         boolean backupsRequirePlayers,
         boolean disableSavingDuringBackups,
+        boolean snapshotStaging,
         String localDirectory,
         String remoteDirectory
         ) {
@@ -37,8 +53,16 @@ public class BackupStorage {
         this.keepCount = keepCount;
         this.localKeepCount = localKeepCount;
         this.zipCompression = zipCompression;
+        this.storeCompressedFiles = storeCompressedFiles;
+        this.compressionThreads = compressionThreads;
+        this.throttleCompression = throttleCompression;
+        this.scanThreads = scanThreads;
+        this.folderThreads = folderThreads;
+        this.streamUploads = streamUploads;
+        this.pipelineDiskBudget = pipelineDiskBudget;
         this.backupsRequirePlayers = backupsRequirePlayers;
         this.disableSavingDuringBackups = disableSavingDuringBackups;
+        this.snapshotStaging = snapshotStaging;
         this.localDirectory = localDirectory;
         this.remoteDirectory = remoteDirectory;
     }
@@ -82,12 +106,50 @@ public class BackupStorage {
             zipCompression = Deflater.BEST_COMPRESSION;
         }
 
+        boolean storeCompressedFiles = config.getBoolean("store-compressed-files");
+
+        int compressionThreads = config.getInt("compression-threads");
+        if (compressionThreads < 0) {
+            logger.log(intl("compression-threads-invalid"));
+            compressionThreads = defaultConfig.getInt("compression-threads");
+        } else if (compressionThreads == 0) {
+            compressionThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        boolean throttleCompression = config.getBoolean("throttle-compression");
+
+        int scanThreads = config.getInt("scan-threads");
+        if (scanThreads < 0) {
+            logger.log(intl("scan-threads-invalid"));
+            scanThreads = defaultConfig.getInt("scan-threads");
+        } else if (scanThreads == 0) {
+            scanThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        int folderThreads = config.getInt("folder-threads");
+        if (folderThreads < 0) {
+            logger.log(intl("folder-threads-invalid"));
+            folderThreads = defaultConfig.getInt("folder-threads");
+        } else if (folderThreads == 0) {
+            folderThreads = Runtime.getRuntime().availableProcessors();
+        }
+
+        boolean streamUploads = config.getBoolean("stream-uploads");
+
+        long pipelineDiskBudget = config.getLong("pipeline-disk-budget");
+        if (pipelineDiskBudget < 0) {
+            logger.log(intl("pipeline-disk-budget-invalid"));
+            pipelineDiskBudget = defaultConfig.getLong("pipeline-disk-budget");
+        }
+        pipelineDiskBudget *= 1024 * 1024;
+
         boolean backupsRequirePlayers = config.getBoolean("backups-require-players");
         boolean disableSavingDuringBackups = config.getBoolean("disable-saving-during-backups");
+        boolean snapshotStaging = config.getBoolean("snapshot-staging");
 
         String localDirectory = config.getString("dir");
         String remoteDirectory = config.getString("directory");
 
-        return new BackupStorage(delay, threadPriority, keepCount, localKeepCount, zipCompression, backupsRequirePlayers, disableSavingDuringBackups, localDirectory, remoteDirectory);
+        return new BackupStorage(delay, threadPriority, keepCount, localKeepCount, zipCompression, storeCompressedFiles, compressionThreads, throttleCompression, scanThreads, folderThreads, streamUploads, pipelineDiskBudget, backupsRequirePlayers, disableSavingDuringBackups, snapshotStaging, localDirectory, remoteDirectory);
     }
 } 
\ No newline at end of file
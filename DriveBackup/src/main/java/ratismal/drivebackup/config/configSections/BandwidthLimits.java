@@ -0,0 +1,139 @@
+package ratismal.drivebackup.config.configSections;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bukkit.configuration.Configuration;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import ratismal.drivebackup.util.Logger;
+import ratismal.drivebackup.util.SchedulerUtil;
+
+import static ratismal.drivebackup.config.Localization.intl;
+
+public class BandwidthLimits {
+    public static class BandwidthScheduleEntry {
+        public final LocalTime start;
+        public final LocalTime end;
+        public final long limit;
+
+        public BandwidthScheduleEntry(LocalTime start, LocalTime end, long limit) {
+            this.start = start;
+            this.end = end;
+            this.limit = limit;
+        }
+
+        /**
+         * Gets whether the specified time is within this entry, which ends on the next day if it ends before it starts
+         * @param time the time
+         * @return whether the time is within this entry
+         */
+        public boolean contains(LocalTime time) {
+            if (start.isAfter(end)) {
+                return !time.isBefore(start) || time.isBefore(end);
+            }
+
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+    }
+
+    /**
+     * The backup methods which can be given their own limit, by the name of their section in the config
+     */
+    public static final String[] METHODS = {"googledrive", "onedrive", "dropbox", "ftp"};
+
+    public final long limit;
+    public final long playersOnlineLimit;
+    public final BandwidthScheduleEntry[] schedule;
+    public final Map<String, Long> methodLimits;
+
+    public BandwidthLimits(
+        long limit,
+        long playersOnlineLimit,
+        BandwidthScheduleEntry[] schedule,
+        Map<String, Long> methodLimits
+        ) {
+
+        this.limit = limit;
+        this.playersOnlineLimit = playersOnlineLimit;
+        this.schedule = schedule;
+        this.methodLimits = methodLimits;
+    }
+
+    public static BandwidthLimits parse(FileConfiguration config, Logger logger) {
+        Configuration defaultConfig = config.getDefaults();
+
+        long limit = config.getLong("bandwidth-limit.limit");
+        if (limit < 0) {
+            logger.log(intl("bandwidth-limit-invalid"));
+            limit = defaultConfig.getLong("bandwidth-limit.limit");
+        }
+
+        long playersOnlineLimit = config.getLong("bandwidth-limit.players-online-limit");
+        if (playersOnlineLimit < 0) {
+            logger.log(intl("bandwidth-limit-players-online-invalid"));
+            playersOnlineLimit = defaultConfig.getLong("bandwidth-limit.players-online-limit");
+        }
+
+        List<Map<?, ?>> rawSchedule = config.getMapList("bandwidth-limit.schedule");
+        List<BandwidthScheduleEntry> schedule = new ArrayList<>();
+        for (Map<?, ?> rawScheduleEntry : rawSchedule) {
+            String entryIndex = String.valueOf(rawSchedule.indexOf(rawScheduleEntry) + 1);
+
+            LocalTime start;
+            LocalTime end;
+            try {
+                start = LocalTime.from(SchedulerUtil.parseTime((String) rawScheduleEntry.get("start")));
+                end = LocalTime.from(SchedulerUtil.parseTime((String) rawScheduleEntry.get("end")));
+            } catch (Exception e) {
+                logger.log(intl("bandwidth-schedule-time-invalid"), "entry", entryIndex);
+                continue;
+            }
+
+            long entryLimit;
+            try {
+                entryLimit = ((Number) rawScheduleEntry.get("limit")).longValue();
+            } catch (Exception e) {
+                entryLimit = -1;
+            }
+
+            if (entryLimit < 0) {
+                logger.log(intl("bandwidth-schedule-limit-invalid"), "entry", entryIndex);
+                continue;
+            }
+
+            schedule.add(new BandwidthScheduleEntry(start, end, toBytesPerSecond(entryLimit)));
+        }
+
+        Map<String, Long> methodLimits = new HashMap<>();
+        for (String method : METHODS) {
+            long methodLimit = config.getLong("bandwidth-limit." + method);
+            if (methodLimit < 0) {
+                logger.log(intl("bandwidth-limit-method-invalid"), "method", method);
+                methodLimit = defaultConfig.getLong("bandwidth-limit." + method);
+            }
+
+            methodLimits.put(method, toBytesPerSecond(methodLimit));
+        }
+
+        return new BandwidthLimits(
+            toBytesPerSecond(limit),
+            toBytesPerSecond(playersOnlineLimit),
+            schedule.toArray(new BandwidthScheduleEntry[0]),
+            Collections.unmodifiableMap(methodLimits)
+            );
+    }
+
+    /**
+     * Converts a limit in the config, in kilobytes per second, to bytes per second
+     * @param limit the limit in kilobytes per second, or 0 for no limit
+     * @return the limit in bytes per second, or 0 for no limit
+     */
+    private static long toBytesPerSecond(long limit) {
+        return limit * 1024;
+    }
+}
@@ -20,6 +20,7 @@ import ratismal.drivebackup.config.ConfigParser.Config;
 import ratismal.drivebackup.config.configSections.BackupList;
 import ratismal.drivebackup.config.configSections.BackupScheduling;
 import ratismal.drivebackup.plugin.DriveBackup;
+import ratismal.drivebackup.util.HttpUtil;
 
 public class DebugCollector {
     private static final String PASTEBIN_UPLOAD_URL = "https://api.mclo.gs/1/log";
@@ -48,7 +49,7 @@ public class DebugCollector {
         Gson gson = new GsonBuilder().setPrettyPrinting().create();
         String jsonInString = gson.toJson(this);
 
-        OkHttpClient httpClient = new OkHttpClient();
+        OkHttpClient httpClient = HttpUtil.getClient();
 
         RequestBody formBody = new FormBody.Builder()
             .add("content", jsonInString.toString())
@@ -18,6 +18,7 @@ import ratismal.drivebackup.handler.commandHandler.CommandHandler;
 import ratismal.drivebackup.plugin.updater.UpdateChecker;
 import ratismal.drivebackup.plugin.updater.Updater;
 import ratismal.drivebackup.util.CustomConfig;
+import ratismal.drivebackup.util.HttpUtil;
 import ratismal.drivebackup.util.MessageUtil;
 
 import static ratismal.drivebackup.config.Localization.intl;
@@ -84,6 +85,8 @@ public class DriveBackup extends JavaPlugin {
      * What to do when plugin is disabled
      */
     public void onDisable() {
+        HttpUtil.shutdown();
+
         MessageUtil.Builder().mmText(intl("plugin-stop")).send();
     }
 
@@ -15,6 +15,7 @@ import okhttp3.Request;
 import okhttp3.Response;
 import ratismal.drivebackup.config.Permissions;
 import ratismal.drivebackup.plugin.DriveBackup;
+import ratismal.drivebackup.util.HttpUtil;
 import ratismal.drivebackup.util.MessageUtil;
 
 public class Updater {
@@ -43,7 +44,7 @@ public class Updater {
         String randomFilename = RandomStringUtils.randomAlphabetic(5) + ".jar";
         File outputPath = new File(this.updateFolder, randomFilename);
         
-        OkHttpClient client = new OkHttpClient();
+        OkHttpClient client = HttpUtil.getClient();
         Request request = new Request.Builder().url(UpdateChecker.getLatestDownloadUrl()).build();
         Response response = client.newCall(request).execute();
         if (!response.isSuccessful()) {
@@ -10,8 +10,10 @@ import okhttp3.RequestBody;
 import okhttp3.Response;
 import ratismal.drivebackup.handler.commandHandler.BasicCommands;
 import ratismal.drivebackup.plugin.DriveBackup;
+import ratismal.drivebackup.util.HttpUtil;
 import ratismal.drivebackup.util.Logger;
 import ratismal.drivebackup.util.MessageUtil;
+import ratismal.drivebackup.util.RemoteFolderCache;
 import ratismal.drivebackup.util.SchedulerUtil;
 
 import org.bukkit.Bukkit;
@@ -35,7 +37,7 @@ public class Authenticator {
     /**
      * Global instance of the HTTP client
      */
-    private static final OkHttpClient httpClient = new OkHttpClient();
+    private static final OkHttpClient httpClient = HttpUtil.getClient();
 
     public enum AuthenticationProvider {
         GOOGLE_DRIVE("Google Drive", "googledrive", "/GoogleDriveCredential.json"),
@@ -167,6 +169,9 @@ public class Authenticator {
         FileWriter file = new FileWriter(provider.getCredStoreLocation());
         file.write(jsonObject.toString());
         file.close();
+
+        // The account linked may not be the one the remembered folders are in
+        RemoteFolderCache.clear(provider.getName());
     }
 
     private static void enableBackupMethod(AuthenticationProvider provider, Logger logger) {
@@ -0,0 +1,15 @@
+package ratismal.drivebackup.uploaders;
+
+/**
+ * Is told how far along the upload of a backup is, as the uploader sends it
+ */
+public interface UploadProgressListener {
+    /**
+     * Called whenever part of a backup has been received by the backup method
+     * @param uploader the uploader sending the backup
+     * @param fileName the name of the backup
+     * @param uploaded the number of bytes received so far
+     * @param total the size of the backup in bytes
+     */
+    public void onProgress(Uploader uploader, String fileName, long uploaded, long total);
+}
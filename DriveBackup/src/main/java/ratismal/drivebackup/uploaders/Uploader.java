@@ -10,5 +10,11 @@ public interface Uploader {
     public boolean isErrorWhileUploading();
     public void test(java.io.File testFile);
     public void uploadFile(java.io.File file, String type) throws Exception;
+    public void uploadFile(java.io.File file, String type, boolean deleteOldFiles) throws Exception;
+    public void deleteFile(String fileName, String type) throws Exception;
+    public boolean supportsStreaming();
+    public void uploadStream(java.io.InputStream inputStream, String fileName, String type) throws Exception;
+    public void setProgressListener(UploadProgressListener listener);
+    public void prewarmConnections();
     public void close();
 }
\ No newline at end of file
@@ -1,14 +1,22 @@
 package ratismal.drivebackup.uploaders.dropbox;
 
+import ratismal.drivebackup.util.FileRegionBody;
+import ratismal.drivebackup.util.FileUtil;
+import ratismal.drivebackup.util.HttpUtil;
 import ratismal.drivebackup.util.MessageUtil;
+import ratismal.drivebackup.util.UploadSessionStore;
 import ratismal.drivebackup.uploaders.Authenticator;
 import ratismal.drivebackup.uploaders.Uploader;
+import ratismal.drivebackup.uploaders.UploadProgressListener;
 import ratismal.drivebackup.uploaders.Authenticator.AuthenticationProvider;
 import ratismal.drivebackup.config.ConfigParser;
 import ratismal.drivebackup.config.ConfigParser.Config;
+import ratismal.drivebackup.config.configSections.BackupMethods.DropboxBackupMethod;
 
 import java.io.DataInputStream;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.util.concurrent.TimeUnit;
 
@@ -31,13 +39,19 @@ import static ratismal.drivebackup.config.Localization.intl;
 
 public class DropboxUploader implements Uploader {
     private boolean errorOccurred;
+    private UploadProgressListener progressListener;
 
     public static final String UPLOADER_NAME = "Dropbox";
 
     /**
      * Global instance of the HTTP client
      */
-    private static final OkHttpClient httpClient = new OkHttpClient();
+    private static final OkHttpClient httpClient = HttpUtil.newUploadClient("dropbox")
+        .connectTimeout(1, TimeUnit.MINUTES)
+        .writeTimeout(3, TimeUnit.MINUTES)
+        // Finishing an upload session waits for Dropbox to commit the whole file
+        .readTimeout(5, TimeUnit.MINUTES)
+        .build();
 
     /**
      * Global Dropbox tokens
@@ -120,125 +134,393 @@ public class DropboxUploader implements Uploader {
      * @param type the type of file (ex. plugins, world)
      */
     public void uploadFile(final java.io.File file, final String type) {
+        uploadFile(file, type, true);
+    }
+
+    /**
+     * Uploads the specified file to the authenticated user's Dropbox inside a
+     * folder for the specified file type
+     * 
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @param deleteOldFiles whether to delete the oldest files in the folder past the number to retain
+     */
+    public void uploadFile(final java.io.File file, final String type, final boolean deleteOldFiles) {
         String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
-        int fileSize = (int) file.length();
+        DropboxBackupMethod settings = ConfigParser.getConfig().backupMethods.dropbox;
         MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
 
-        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
-            Boolean chunkeduploadEnabled = false;
-            if (chunkeduploadEnabled) {
-                //More than 150MB - Chunked upload
-                final int CHUNKED_UPLOAD_CHUNK_SIZE = (1024 * 1024 * 10); //10 MB chunk
-                final int CHUNKED_UPLOAD_MAX_ATTEMPTS = 5;
-                int uploaded = 0;
-                byte[] buff = new byte[CHUNKED_UPLOAD_CHUNK_SIZE];
-                String sessionId = null;
-
-                for (int i = 0; i < CHUNKED_UPLOAD_MAX_ATTEMPTS; ++i) {
-                    // (1) Start
-                    if (sessionId == null) {
-
-                        dis.read(buff, 0, CHUNKED_UPLOAD_CHUNK_SIZE);
-                        RequestBody requestBody = RequestBody.create(buff, OCTET_STREAM);
-
-                        Request request = new Request.Builder()
-                            .addHeader("Authorization", "Bearer " + accessToken)
-                            .post(requestBody)
-                            .url("https://content.dropboxapi.com/2/files/upload_session/start")
-                            .build();
-
-                        Response response = httpClient.newCall(request).execute();
-                        uploaded += CHUNKED_UPLOAD_CHUNK_SIZE;
-                        JSONObject parsedResponse = new JSONObject(response.body().string());
-                        sessionId = parsedResponse.getString("session_id");
-                        response.close();
-                    }
+        try {
+            long fileSize = file.length();
+            String sessionId = null;
+            long offset = 0;
+
+            JSONObject session = UploadSessionStore.get(UPLOADER_NAME, file, type);
+            if (session != null) {
+                sessionId = session.getString("sessionId");
+                offset = session.getLong("offset");
 
-                    // (2) Append
-                    while ((dis.available() - uploaded) > CHUNKED_UPLOAD_CHUNK_SIZE) {
-                        dis.read(buff, 0, buff.length);
-                        RequestBody requestBody = RequestBody.create(buff, OCTET_STREAM);
+                MessageUtil.Builder().text("Resuming the upload of " + file.getName() + " to Dropbox from " + offset / 1024 / 1024 + " MB").toConsole(true).send();
+            } else {
+                sessionId = startUploadSession(file, type);
+            }
+
+            while (offset < fileSize) {
+                long length = Math.min(fileSize - offset, settings.chunkSize);
 
-                        JSONObject dropbox_cursor = new JSONObject();
-                        dropbox_cursor.put("session_id", sessionId);
-                        dropbox_cursor.put("offset", uploaded);
+                JSONObject cursor = new JSONObject();
+                cursor.put("session_id", sessionId);
+                cursor.put("offset", offset);
+
+                JSONObject appendJson = new JSONObject();
+                appendJson.put("cursor", cursor);
+
+                Request request = new Request.Builder()
+                    .addHeader("Authorization", "Bearer " + accessToken)
+                    .addHeader("Dropbox-API-Arg", appendJson.toString())
+                    .post(new FileRegionBody(file, offset, length, OCTET_STREAM))
+                    .url("https://content.dropboxapi.com/2/files/upload_session/append_v2")
+                    .build();
 
-                        JSONObject dropbox_json = new JSONObject();
-                        dropbox_json.put("cursor", dropbox_cursor);
-                        String dropbox_arg = dropbox_json.toString();
+                Response response = sendChunk(request, file.getName());
+                int statusCode = response.code();
+                String body = response.body().string();
+                response.close();
 
-                        Request request = new Request.Builder()
-                            .addHeader("Dropbox-API-Arg", dropbox_arg)
-                            .addHeader("Authorization", "Bearer " + accessToken)
-                            .post(requestBody)
-                            .url("https://content.dropboxapi.com/2/files/upload_session/append_v2")                                    .build();
+                if (statusCode == 200) {
+                    offset += length;
+                    saveUploadSession(file, type, sessionId, offset);
 
-                        Response response = httpClient.newCall(request).execute();
-                        response.close();
-                        uploaded += CHUNKED_UPLOAD_CHUNK_SIZE;
+                    if (progressListener != null) {
+                        progressListener.onProgress(this, file.getName(), offset, fileSize);
                     }
 
-                    // (3) Finish
-                    int remaining = fileSize - uploaded;
+                    continue;
+                }
+
+                // Dropbox responds with a 409 if the session can't be appended to at the offset
+                JSONObject error = statusCode == 409 ? new JSONObject(body).optJSONObject("error") : null;
+                if (error == null) {
+                    throw new Exception("Couldn't upload chunk at offset " + offset + ": " + body);
+                }
 
-                    byte[] lastchunk = new byte[remaining];
-                    dis.skip(uploaded);
-                    dis.read(lastchunk, 0, lastchunk.length);
-                    RequestBody requestBody = RequestBody.create(lastchunk, OCTET_STREAM);
+                if ("incorrect_offset".equals(error.optString(".tag"))) {
+                    // Dropbox received more or less than was saved before the upload was interrupted
+                    offset = error.getLong("correct_offset");
+                } else {
+                    // The session expired or was closed, so the upload is started over
+                    sessionId = startUploadSession(file, type);
+                    offset = 0;
+                }
+            }
 
-                    JSONObject dropboxCursorJson = new JSONObject();
-                    dropboxCursorJson.put("session_id", sessionId);
-                    dropboxCursorJson.put("offset", uploaded);
+            JSONObject cursor = new JSONObject();
+            cursor.put("session_id", sessionId);
+            cursor.put("offset", offset);
 
-                    JSONObject dropboxCommitJson = new JSONObject();
-                    dropboxCommitJson.put("path", "/" + destination + "/" + type + "/" + file.getName());
+            JSONObject commit = new JSONObject();
+            commit.put("path", "/" + destination + "/" + type + "/" + file.getName());
 
-                    JSONObject dropboxJson = new JSONObject();
-                    dropboxJson.put("cursor", dropboxCursorJson);
-                    dropboxJson.put("commit", dropboxCommitJson);
-                    String dropbox_arg = dropboxJson.toString();
+            JSONObject finishJson = new JSONObject();
+            finishJson.put("cursor", cursor);
+            finishJson.put("commit", commit);
 
-                    Request request = new Request.Builder()
-                        .addHeader("Dropbox-API-Arg", dropbox_arg)
-                        .addHeader("Authorization", "Bearer " + accessToken)
-                        .post(requestBody)
-                        .url("https://content.dropboxapi.com/2/files/upload_session/finish")
-                        .build();
+            Request request = new Request.Builder()
+                .addHeader("Authorization", "Bearer " + accessToken)
+                .addHeader("Dropbox-API-Arg", finishJson.toString())
+                .post(RequestBody.create(new byte[0], OCTET_STREAM))
+                .url("https://content.dropboxapi.com/2/files/upload_session/finish")
+                .build();
 
-                    Response response = httpClient.newCall(request).execute();
-                    response.close();
+            Response response = sendChunk(request, file.getName());
+            int statusCode = response.code();
+            response.close();
 
-                    deleteFiles(type);
-                    return;
-                }
-            } else {
-                //Less than 150MB - Single upload
+            if (statusCode != 200) {
+                throw new Exception("Couldn't finish upload session");
+            }
 
-                byte[] content = new byte[dis.available()];
-                dis.readFully(content);
-                RequestBody requestBody = RequestBody.create(content, OCTET_STREAM);
+            UploadSessionStore.remove(UPLOADER_NAME, file, type);
 
-                JSONObject dropbox_json = new JSONObject();
-                dropbox_json.put("path", "/" + destination + "/" + type + "/" + file.getName());
-                String dropbox_arg = dropbox_json.toString();
+            if (deleteOldFiles) {
+                deleteFiles(type);
+            }
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to upload backup to Dropbox, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch (Exception exception) {
+            MessageUtil.sendConsoleException(exception);
+            setErrorOccurred(true);
+        }
+    }
 
-                Request request = new Request.Builder()
+    /**
+     * Starts an upload session for the specified file, and saves it so the upload can be resumed if it is interrupted
+     * 
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @return the ID of the upload session
+     * @throws Exception
+     */
+    private String startUploadSession(java.io.File file, String type) throws Exception {
+        Request request = new Request.Builder()
+            .addHeader("Authorization", "Bearer " + accessToken)
+            .addHeader("Dropbox-API-Arg", "{\"close\": false}")
+            .post(RequestBody.create(new byte[0], MediaType.parse("application/octet-stream")))
+            .url("https://content.dropboxapi.com/2/files/upload_session/start")
+            .build();
+
+        Response response = sendChunk(request, file.getName());
+        String body = response.body().string();
+        response.close();
+
+        if (response.code() != 200) {
+            throw new Exception("Couldn't start upload session: " + body);
+        }
+
+        String sessionId = new JSONObject(body).getString("session_id");
+        saveUploadSession(file, type, sessionId, 0);
+
+        return sessionId;
+    }
+
+    /**
+     * Saves how much of the specified file has been uploaded in the specified session
+     * 
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @param sessionId the ID of the upload session
+     * @param offset the number of bytes Dropbox has received
+     */
+    private static void saveUploadSession(java.io.File file, String type, String sessionId, long offset) {
+        JSONObject state = new JSONObject();
+        state.put("sessionId", sessionId);
+        state.put("offset", offset);
+
+        UploadSessionStore.put(UPLOADER_NAME, file, type, state);
+    }
+
+    /**
+     * Gets whether backups can be uploaded to Dropbox while they are being created
+     * 
+     * @return whether streaming is supported
+     */
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    /**
+     * Uploads a backup to the authenticated user's Dropbox inside a folder for the
+     * specified file type while it is being created
+     * <p>
+     * As the size of the backup isn't known, it is sent in an upload session, one
+     * chunk at a time, through a single buffer the size of a chunk
+     * 
+     * @param inputStream the contents of the backup
+     * @param fileName the name of the backup
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void uploadStream(final InputStream inputStream, final String fileName, final String type) {
+        String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
+        DropboxBackupMethod settings = ConfigParser.getConfig().backupMethods.dropbox;
+        MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+        try {
+            byte[] buffer = new byte[(int) settings.chunkSize];
+            int length = readChunk(inputStream, buffer);
+
+            Request request = new Request.Builder()
+                .addHeader("Authorization", "Bearer " + accessToken)
+                .addHeader("Dropbox-API-Arg", "{\"close\": false}")
+                .post(RequestBody.create(buffer, OCTET_STREAM, 0, length))
+                .url("https://content.dropboxapi.com/2/files/upload_session/start")
+                .build();
+
+            Response response = sendChunk(request, fileName);
+            if (response.code() != 200) {
+                String error = response.body().string();
+                response.close();
+
+                throw new Exception("Couldn't start upload session: " + error);
+            }
+
+            String sessionId = new JSONObject(response.body().string()).getString("session_id");
+            response.close();
+
+            long offset = length;
+            while ((length = readChunk(inputStream, buffer)) > 0) {
+                JSONObject cursor = new JSONObject();
+                cursor.put("session_id", sessionId);
+                cursor.put("offset", offset);
+
+                JSONObject appendJson = new JSONObject();
+                appendJson.put("cursor", cursor);
+
+                request = new Request.Builder()
                     .addHeader("Authorization", "Bearer " + accessToken)
-                    .addHeader("Dropbox-API-Arg", dropbox_arg)
-                    .url("https://content.dropboxapi.com/2/files/upload")
-                    .post(requestBody)
+                    .addHeader("Dropbox-API-Arg", appendJson.toString())
+                    .post(RequestBody.create(buffer, OCTET_STREAM, 0, length))
+                    .url("https://content.dropboxapi.com/2/files/upload_session/append_v2")
                     .build();
 
-                Response response = httpClient.newCall(request).execute();
+                response = sendChunk(request, fileName);
+                int statusCode = response.code();
+                String body = response.body().string();
                 response.close();
 
-                deleteFiles(type);
+                // If a retried chunk had already been received, Dropbox expects the offset after it
+                if (statusCode == 409 && getCorrectOffset(body) == offset + length) {
+                    statusCode = 200;
+                }
+
+                if (statusCode != 200) {
+                    throw new Exception("Couldn't upload chunk at offset " + offset + ": " + body);
+                }
+
+                offset += length;
+            }
+
+            JSONObject cursor = new JSONObject();
+            cursor.put("session_id", sessionId);
+            cursor.put("offset", offset);
+
+            JSONObject commit = new JSONObject();
+            commit.put("path", "/" + destination + "/" + type + "/" + fileName);
+
+            JSONObject finishJson = new JSONObject();
+            finishJson.put("cursor", cursor);
+            finishJson.put("commit", commit);
+
+            request = new Request.Builder()
+                .addHeader("Authorization", "Bearer " + accessToken)
+                .addHeader("Dropbox-API-Arg", finishJson.toString())
+                .post(RequestBody.create(new byte[0], OCTET_STREAM))
+                .url("https://content.dropboxapi.com/2/files/upload_session/finish")
+                .build();
+
+            response = sendChunk(request, fileName);
+            int statusCode = response.code();
+            response.close();
+
+            if (statusCode != 200) {
+                throw new Exception("Couldn't finish upload session");
             }
+
+            deleteFiles(type);
         } catch (UnknownHostException exception) {
             MessageUtil.Builder().text("Failed to upload backup to Dropbox, check your network connection").toPerm("drivebackup.linkAccounts").send();
             setErrorOccurred(true);
         } catch (Exception exception) {
-            exception.printStackTrace();
+            MessageUtil.sendConsoleException(exception);
+            setErrorOccurred(true);
+        }
+    }
+
+    /**
+     * Sends a request of an upload session, retrying it up to the configured number of
+     * times if it fails with a network error or Dropbox asks for it to be retried
+     * 
+     * @param request the request, whose body can be sent more than once
+     * @param fileName the name of the backup being uploaded
+     * @return the response
+     * @throws Exception
+     */
+    private Response sendChunk(Request request, String fileName) throws Exception {
+        int retries = ConfigParser.getConfig().backupMethods.dropbox.chunkRetries;
+
+        for (int failures = 0; ; failures++) {
+            try {
+                Response response = httpClient.newCall(request).execute();
+
+                // Dropbox responds with a 429 or a 5xx if it's rate limiting or overloaded
+                if ((response.code() != 429 && response.code() < 500) || failures >= retries) {
+                    return response;
+                }
+
+                response.close();
+            } catch (IOException exception) {
+                if (failures >= retries || Thread.currentThread().isInterrupted()) {
+                    throw exception;
+                }
+            }
+
+            MessageUtil.Builder().text("Failed to upload a chunk of " + fileName + " to Dropbox, retrying (" + (failures + 1) + "/" + retries + ")").toConsole(true).send();
+
+            TimeUnit.SECONDS.sleep(1L << Math.min(failures + 1, 5));
+        }
+    }
+
+    /**
+     * Gets the offset Dropbox expected from the error it responded to an append with
+     * 
+     * @param body the body of the response
+     * @return the offset, or -1 if the error wasn't about the offset
+     */
+    private static long getCorrectOffset(String body) {
+        try {
+            JSONObject error = new JSONObject(body).getJSONObject("error");
+            if ("incorrect_offset".equals(error.optString(".tag"))) {
+                return error.getLong("correct_offset");
+            }
+        } catch (Exception exception) {
+            // The response wasn't an error from the API
+        }
+
+        return -1;
+    }
+
+    /**
+     * Reads from the specified stream until the buffer is full or the stream ends
+     * 
+     * @param inputStream the stream
+     * @param buffer the buffer
+     * @return the number of bytes read, 0 if the stream ended
+     * @throws IOException
+     */
+    private static int readChunk(InputStream inputStream, byte[] buffer) throws IOException {
+        int length = 0;
+        int read;
+        while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+            length += read;
+        }
+
+        return length;
+    }
+
+    /**
+     * Deletes the file with the specified name from the folder for the specified
+     * file type in the authenticated user's Dropbox
+     * 
+     * @param fileName the name of the file
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void deleteFile(final String fileName, final String type) {
+        try {
+            String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
+
+            MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+            JSONObject deleteJson = new JSONObject();
+            deleteJson.put("path", "/" + destination + "/" + type + "/" + fileName);
+            RequestBody deleteRequestBody = RequestBody.create(deleteJson.toString(), JSON);
+
+            Request request = new Request.Builder()
+                .addHeader("Authorization", "Bearer " + accessToken)
+                .url("https://api.dropboxapi.com/2/files/delete_v2")
+                .post(deleteRequestBody)
+                .build();
+
+            Response response = httpClient.newCall(request).execute();
+            int statusCode = response.code();
+            response.close();
+
+            // Dropbox responds with a 409 if the file doesn't exist
+            if (statusCode != 200 && statusCode != 409) {
+                throw new Exception("Couldn't delete file " + fileName);
+            }
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to delete backup from Dropbox, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch (Exception exception) {
             MessageUtil.sendConsoleException(exception);
             setErrorOccurred(true);
         }
@@ -258,7 +540,7 @@ public class DropboxUploader implements Uploader {
         Config config = ConfigParser.getConfig();
 
         String destination = config.backupStorage.remoteDirectory;
-        int fileLimit = config.backupStorage.keepCount;
+        int fileLimit = FileUtil.getKeepCount(type, config.backupStorage.keepCount);
         if (fileLimit == -1) {
             return;
         }
@@ -340,6 +622,21 @@ public class DropboxUploader implements Uploader {
         return this.errorOccurred;
     }
 
+    /**
+     * Sets the listener told how far along uploads to Dropbox are
+     * @param listener the listener
+     */
+    public void setProgressListener(UploadProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Opens a connection to Dropbox in the background, so it's ready by the time a backup is uploaded
+     */
+    public void prewarmConnections() {
+        HttpUtil.prewarm(httpClient, "https://content.dropboxapi.com/2/files/upload_session/start");
+    }
+
     /**
      * closes any remaining connectionsretrieveNewAccessToken
      */
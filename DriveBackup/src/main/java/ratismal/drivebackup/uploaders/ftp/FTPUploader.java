@@ -9,15 +9,21 @@ import org.bukkit.ChatColor;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.TextComponent;
 import ratismal.drivebackup.uploaders.Uploader;
+import ratismal.drivebackup.uploaders.UploadProgressListener;
 import ratismal.drivebackup.uploaders.Authenticator.AuthenticationProvider;
 import ratismal.drivebackup.config.ConfigParser;
 import ratismal.drivebackup.config.ConfigParser.Config;
 import ratismal.drivebackup.config.configSections.BackupMethods.FTPBackupMethod;
+import ratismal.drivebackup.util.ArchiveFormat;
+import ratismal.drivebackup.util.BandwidthLimiter;
+import ratismal.drivebackup.util.FileUtil;
 import ratismal.drivebackup.util.MessageUtil;
+import ratismal.drivebackup.util.UploadSessionStore;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.UnknownHostException;
 import java.util.*;
@@ -25,6 +31,8 @@ import java.util.concurrent.TimeUnit;
 
 import com.google.api.client.util.Strings;
 
+import org.json.JSONObject;
+
 /**
  * Created by Ratismal on 2016-03-30.
  */
@@ -32,6 +40,11 @@ import com.google.api.client.util.Strings;
 public class FTPUploader implements Uploader {
     public static final String UPLOADER_NAME = "(S)FTP";
 
+    /**
+     * Limits how fast backups are uploaded to the (S)FTP server
+     */
+    private static final BandwidthLimiter bandwidthLimiter = BandwidthLimiter.forMethod("ftp");
+
     private FTPClient ftpClient;
     private SFTPUploader sftpClient;
 
@@ -130,6 +143,21 @@ public class FTPUploader implements Uploader {
         initialRemoteFolder = ftpClient.printWorkingDirectory();
     }
 
+    /**
+     * Sets the listener told how far along uploads to the (S)FTP server are
+     * <p>
+     * Files are sent to the (S)FTP server in one transfer, so progress isn't reported
+     * @param listener the listener
+     */
+    public void setProgressListener(UploadProgressListener listener) {
+    }
+
+    /**
+     * Does nothing, as the connection to the (S)FTP server is opened when the uploader is created
+     */
+    public void prewarmConnections() {
+    }
+
     /**
      * Closes the connection to the (S)FTP server
      */
@@ -138,6 +166,10 @@ public class FTPUploader implements Uploader {
             if (sftpClient != null) {
                 sftpClient.close();
             }
+
+            if (ftpClient != null && ftpClient.isConnected()) {
+                ftpClient.disconnect();
+            }
         } catch (Exception e) {
             MessageUtil.sendConsoleException(e);
             setErrorOccurred(true);
@@ -180,11 +212,21 @@ public class FTPUploader implements Uploader {
      * @param type the type of file (ex. plugins, world)
      */
     public void uploadFile(File file, String type) {
+        uploadFile(file, type, true);
+    }
+
+    /**
+     * Uploads the specified file to the (S)FTP server inside a folder for the specified file type
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @param deleteOldFiles whether to delete the oldest files in the folder past the number to retain
+     */
+    public void uploadFile(File file, String type, boolean deleteOldFiles) {
         try {
             type = type.replace(".."  + sep(), "");
 
             if (sftpClient != null) {
-                sftpClient.uploadFile(file, type);
+                sftpClient.uploadFile(file, type, deleteOldFiles);
                 return;
             }
 
@@ -192,13 +234,29 @@ public class FTPUploader implements Uploader {
             createThenEnter(_remoteBaseFolder);
             createThenEnter(type);
 
-            FileInputStream fs = new FileInputStream(file);
-            ftpClient.storeFile(file.getName(), fs);
-            fs.close();
+            // The part of the file on the server can only be trusted if this upload of the file was interrupted
+            long offset = 0;
+            if (UploadSessionStore.get(UPLOADER_NAME, file, type) != null) {
+                offset = getRemoteSize(file.getName());
+            }
+            UploadSessionStore.put(UPLOADER_NAME, file, type, new JSONObject());
 
-            deleteFiles(type);
+            if (offset > 0 && offset <= file.length()) {
+                MessageUtil.Builder().text("Resuming the upload of " + file.getName() + " to FTP from " + offset / 1024 / 1024 + " MB").toConsole(true).send();
 
-            ftpClient.disconnect();
+                // Not every server supports resuming uploads, in which case the upload is started over
+                if (!storeFile(file, offset)) {
+                    storeFile(file, 0);
+                }
+            } else {
+                storeFile(file, 0);
+            }
+
+            UploadSessionStore.remove(UPLOADER_NAME, file, type);
+
+            if (deleteOldFiles) {
+                deleteFiles(type);
+            }
         } catch (UnknownHostException exception) {
             MessageUtil.Builder().text("Failed to upload backup to FTP, check your network connection").toPerm("drivebackup.linkAccounts").send();
             setErrorOccurred(true);
@@ -208,6 +266,106 @@ public class FTPUploader implements Uploader {
         }
     }
 
+    /**
+     * Uploads the specified file to the current folder on the FTP server, starting at the specified offset
+     * @param file the file
+     * @param offset the number of bytes of the file already on the server
+     * @return whether the file was uploaded
+     * @throws Exception
+     */
+    private boolean storeFile(File file, long offset) throws Exception {
+        try (FileInputStream fileStream = new FileInputStream(file)) {
+            fileStream.getChannel().position(offset);
+            ftpClient.setRestartOffset(offset);
+
+            return ftpClient.storeFile(file.getName(), bandwidthLimiter.throttle(fileStream));
+        }
+    }
+
+    /**
+     * Gets the size of the file with the specified name in the current folder on the FTP server
+     * @param fileName the name of the file
+     * @return the size of the file, or 0 if it doesn't exist
+     * @throws Exception
+     */
+    private long getRemoteSize(String fileName) throws Exception {
+        FTPFile[] files = ftpClient.listFiles(fileName);
+        if (files.length != 1 || !files[0].isFile()) {
+            return 0;
+        }
+
+        return files[0].getSize();
+    }
+
+    /**
+     * Gets whether backups can be uploaded to the (S)FTP server while they are being created
+     * @return whether streaming is supported
+     */
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    /**
+     * Uploads a backup to the (S)FTP server inside a folder for the specified file type while it is being created
+     * @param inputStream the contents of the backup
+     * @param fileName the name of the backup
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void uploadStream(InputStream inputStream, String fileName, String type) {
+        try {
+            type = type.replace(".."  + sep(), "");
+
+            if (sftpClient != null) {
+                sftpClient.uploadStream(inputStream, fileName, type);
+                return;
+            }
+
+            resetWorkingDirectory();
+            createThenEnter(_remoteBaseFolder);
+            createThenEnter(type);
+
+            if (!ftpClient.storeFile(fileName, bandwidthLimiter.throttle(inputStream))) {
+                throw new Exception("Couldn't upload file " + fileName + ", the server replied " + ftpClient.getReplyString());
+            }
+
+            deleteFiles(type);
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to upload backup to FTP, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch (Exception e) {
+            MessageUtil.sendConsoleException(e);
+            setErrorOccurred(true);
+        }
+    }
+
+    /**
+     * Deletes the file with the specified name from the (S)FTP server inside the folder for the specified file type
+     * @param fileName the name of the file
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void deleteFile(String fileName, String type) {
+        try {
+            type = type.replace(".."  + sep(), "");
+
+            if (sftpClient != null) {
+                sftpClient.deleteFile(fileName, type);
+                return;
+            }
+
+            resetWorkingDirectory();
+            createThenEnter(_remoteBaseFolder);
+            createThenEnter(type);
+
+            ftpClient.deleteFile(fileName);
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to delete backup from FTP, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch (Exception e) {
+            MessageUtil.sendConsoleException(e);
+            setErrorOccurred(true);
+        }
+    }
+
     /**
      * Downloads the specifed file from the (S)FTP server into a folder for the specified file type
      * @param filePath the path of the file
@@ -310,7 +468,7 @@ public class FTPUploader implements Uploader {
      * @throws Exception
      */
     private void deleteFiles(String type) throws Exception {
-        int fileLimit = ConfigParser.getConfig().backupStorage.keepCount;
+        int fileLimit = FileUtil.getKeepCount(type, ConfigParser.getConfig().backupStorage.keepCount);
         if (fileLimit == -1) {
             return;
         }
@@ -334,7 +492,7 @@ public class FTPUploader implements Uploader {
         TreeMap<Date, FTPFile> files = new TreeMap<>();
 
         for (FTPFile file : ftpClient.mlistDir()) {
-            if (file.getName().endsWith(".zip"))
+            if (ArchiveFormat.isArchive(file.getName()))
                 files.put(file.getTimestamp().getTime(), file);
         }
 
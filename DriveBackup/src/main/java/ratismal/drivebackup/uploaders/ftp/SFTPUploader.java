@@ -4,17 +4,29 @@ import ratismal.drivebackup.config.ConfigParser;
 import ratismal.drivebackup.config.ConfigParser.Config;
 import ratismal.drivebackup.config.configSections.BackupMethods.FTPBackupMethod;
 import ratismal.drivebackup.plugin.DriveBackup;
+import ratismal.drivebackup.util.ArchiveFormat;
+import ratismal.drivebackup.util.BandwidthLimiter;
+import ratismal.drivebackup.util.FileUtil;
 import ratismal.drivebackup.util.MessageUtil;
+import ratismal.drivebackup.util.UploadSessionStore;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
 import com.google.api.client.util.Strings;
 
+import org.json.JSONObject;
+
 import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
 import net.schmizz.sshj.sftp.RemoteResourceInfo;
 import net.schmizz.sshj.sftp.StatefulSFTPClient;
 import net.schmizz.sshj.transport.verification.PromiscuousVerifier;
@@ -28,6 +40,11 @@ import net.schmizz.sshj.userauth.method.AuthPublickey;
  */
 
 public class SFTPUploader {
+    /**
+     * Limits how fast backups are uploaded to the SFTP server
+     */
+    private static final BandwidthLimiter bandwidthLimiter = BandwidthLimiter.forMethod("ftp");
+
     private SSHClient sshClient;
     private StatefulSFTPClient sftpClient;
 
@@ -155,16 +172,98 @@ public class SFTPUploader {
      * Uploads the specified file to the SFTP server inside a folder for the specified file type
      * @param file the file
      * @param type the type of file (ex. plugins, world)
+     * @param deleteOldFiles whether to delete the oldest files in the folder past the number to retain
      * @throws Exception
      */
-    public void uploadFile(File file, String type) throws Exception, UnknownHostException {
+    public void uploadFile(File file, String type, boolean deleteOldFiles) throws Exception, UnknownHostException {
         resetWorkingDirectory();
         createThenEnter(_remoteBaseFolder);
         createThenEnter(type);
 
-        sftpClient.put(file.getAbsolutePath(), file.getName());
-        
-        deleteFiles();
+        // The part of the file on the server can only be trusted if this upload of the file was interrupted
+        long offset = 0;
+        if (UploadSessionStore.get(FTPUploader.UPLOADER_NAME, file, type) != null) {
+            FileAttributes attributes = sftpClient.statExistence(file.getName());
+            if (attributes != null && attributes.getSize() <= file.length()) {
+                offset = attributes.getSize();
+            }
+        }
+        UploadSessionStore.put(FTPUploader.UPLOADER_NAME, file, type, new JSONObject());
+
+        if (offset > 0) {
+            MessageUtil.Builder().text("Resuming the upload of " + file.getName() + " to SFTP from " + offset / 1024 / 1024 + " MB").toConsole(true).send();
+        }
+
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            inputStream.getChannel().position(offset);
+            writeFile(inputStream, file.getName(), offset);
+        }
+
+        UploadSessionStore.remove(FTPUploader.UPLOADER_NAME, file, type);
+
+        if (deleteOldFiles) {
+            deleteFiles(type);
+        }
+    }
+
+    /**
+     * Uploads a backup to the SFTP server inside a folder for the specified file type while it is being created
+     * @param inputStream the contents of the backup
+     * @param fileName the name of the backup
+     * @param type the type of file (ex. plugins, world)
+     * @throws Exception
+     */
+    public void uploadStream(InputStream inputStream, String fileName, String type) throws Exception {
+        resetWorkingDirectory();
+        createThenEnter(_remoteBaseFolder);
+        createThenEnter(type);
+
+        writeFile(inputStream, fileName, 0);
+
+        deleteFiles(type);
+    }
+
+    /**
+     * Writes the specified stream to a file in the current folder on the SFTP server, as fast as the bandwidth limits allow
+     * @param inputStream the contents of the file, from the offset onwards
+     * @param fileName the name of the file
+     * @param offset the number of bytes of the file already on the server, which are kept
+     * @throws Exception
+     */
+    private void writeFile(InputStream inputStream, String fileName, long offset) throws Exception {
+        InputStream throttledStream = bandwidthLimiter.throttle(inputStream);
+
+        Set<OpenMode> openModes = offset == 0
+            ? EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC)
+            : EnumSet.of(OpenMode.WRITE, OpenMode.CREAT);
+
+        try (
+            RemoteFile remoteFile = sftpClient.open(fileName, openModes);
+            OutputStream outputStream = remoteFile.new RemoteFileOutputStream(offset, 16)
+            ) {
+
+            byte[] buffer = new byte[32 * 1024];
+            int length;
+            while ((length = throttledStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Deletes the file with the specified name from the SFTP server inside the folder for the specified file type
+     * @param fileName the name of the file
+     * @param type the type of file (ex. plugins, world)
+     * @throws Exception
+     */
+    public void deleteFile(String fileName, String type) throws Exception {
+        resetWorkingDirectory();
+        createThenEnter(_remoteBaseFolder);
+        createThenEnter(type);
+
+        if (sftpClient.statExistence(fileName) != null) {
+            sftpClient.rm(fileName);
+        }
     }
 
     /**
@@ -213,10 +312,11 @@ public class SFTPUploader {
      * Deletes the oldest files past the number to retain from the SFTP server inside the current working directory
      * <p>
      * The number of files to retain is specified by the user in the {@code config.yml}
+     * @param type the type of file (ex. plugins, world)
      * @throws Exception
      */
-    private void deleteFiles() throws Exception {
-        int fileLimit = ConfigParser.getConfig().backupStorage.keepCount;
+    private void deleteFiles(String type) throws Exception {
+        int fileLimit = FileUtil.getKeepCount(type, ConfigParser.getConfig().backupStorage.keepCount);
         if (fileLimit == -1) {
             return;
         }
@@ -241,7 +341,7 @@ public class SFTPUploader {
         TreeMap<Date, RemoteResourceInfo> files = new TreeMap<>();
 
         for (RemoteResourceInfo file : sftpClient.ls()) {
-            if (file.getName().endsWith(".zip")) {
+            if (ArchiveFormat.isArchive(file.getName())) {
                 files.put(new Date(file.getAttributes().getMtime()), file);
             }
         }
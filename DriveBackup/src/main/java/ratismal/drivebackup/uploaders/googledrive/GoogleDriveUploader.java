@@ -2,10 +2,12 @@ package ratismal.drivebackup.uploaders.googledrive;
 
 import com.google.api.client.auth.oauth2.BearerToken;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import com.google.api.client.http.FileContent;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
 import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.InputStreamContent;
 import com.google.api.client.http.javanet.NetHttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -17,25 +19,38 @@ import net.kyori.adventure.text.event.ClickEvent;
 import net.kyori.adventure.text.event.HoverEvent;
 import net.kyori.adventure.text.format.NamedTextColor;
 import okhttp3.FormBody;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import ratismal.drivebackup.uploaders.Uploader;
+import ratismal.drivebackup.uploaders.UploadProgressListener;
 import ratismal.drivebackup.uploaders.Authenticator;
 import ratismal.drivebackup.uploaders.Authenticator.AuthenticationProvider;
 import ratismal.drivebackup.config.ConfigParser;
+import ratismal.drivebackup.config.configSections.BackupMethods.GoogleDriveBackupMethod;
 import ratismal.drivebackup.plugin.DriveBackup;
+import ratismal.drivebackup.util.ArchiveFormat;
+import ratismal.drivebackup.util.BandwidthLimiter;
+import ratismal.drivebackup.util.FileUtil;
+import ratismal.drivebackup.util.HttpUtil;
 import ratismal.drivebackup.util.MessageUtil;
+import ratismal.drivebackup.util.RemoteFolderCache;
+import ratismal.drivebackup.util.UploadSessionStore;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import static ratismal.drivebackup.config.Localization.intl;
@@ -47,13 +62,31 @@ import static ratismal.drivebackup.config.Localization.intl;
 public class GoogleDriveUploader implements Uploader {
     private boolean errorOccurred;
     private String refreshToken;
+    private String accessToken;
+    private UploadProgressListener progressListener;
+
+    /**
+     * The IDs of the remembered folders which were checked to still exist and not be in the trash by this uploader
+     */
+    private final Set<String> checkedFolderIds = ConcurrentHashMap.newKeySet();
 
     public static final String UPLOADER_NAME = "Google Drive";
 
+    /**
+     * Limits how fast backups are uploaded to Google Drive
+     */
+    private static final BandwidthLimiter bandwidthLimiter = BandwidthLimiter.forMethod("googledrive");
+
     /**
      * Global instance of the HTTP client
      */
-    private static final OkHttpClient httpClient = new OkHttpClient();
+    private static final OkHttpClient httpClient = HttpUtil.newUploadClient("googledrive")
+        .connectTimeout(1, TimeUnit.MINUTES)
+        .writeTimeout(3, TimeUnit.MINUTES)
+        .readTimeout(3, TimeUnit.MINUTES)
+        .build();
+
+    private static final MediaType jsonMediaType = MediaType.parse("application/json; charset=utf-8");
 
     /**
      * Global instance of the HTTP transport
@@ -118,12 +151,14 @@ public class GoogleDriveUploader implements Uploader {
         
         if (!response.isSuccessful()) return;
 
+        accessToken = parsedResponse.getString("access_token");
+
         service = new Drive.Builder(
             httpTransport, 
             JSON_FACTORY, 
             setTimeout(new Credential(
                 BearerToken.authorizationHeaderAccessMethod())
-                .setAccessToken(parsedResponse.getString("access_token"))))
+                .setAccessToken(accessToken)))
             .setApplicationName("DriveBackupV2")
             .build();
     }
@@ -182,56 +217,331 @@ public class GoogleDriveUploader implements Uploader {
      * @param type the type of file (ex. plugins, world)
      */
     public void uploadFile(java.io.File file, String type) {
+        uploadFile(file, type, true);
+    }
+
+    /**
+     * Uploads the specified file to the authenticated user's Google Drive inside a folder for the specified file type
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @param deleteOldFiles whether to delete the oldest files in the folder past the number to retain
+     */
+    public void uploadFile(java.io.File file, String type, boolean deleteOldFiles) {
         try {
-            String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
+            File folder = getTypeFolder(type);
+
+            String sessionUri = null;
+            long offset = 0;
+
+            JSONObject session = UploadSessionStore.get(UPLOADER_NAME, file, type);
+            if (session != null) {
+                sessionUri = session.getString("sessionUri");
+                offset = createResumableUpload(sessionUri, file).getUploadedBytes();
+
+                if (offset == -1) {
+                    // The session expired, so the upload is started over
+                    UploadSessionStore.remove(UPLOADER_NAME, file, type);
+                    sessionUri = null;
+                    offset = 0;
+                } else {
+                    MessageUtil.Builder().text("Resuming the upload of " + file.getName() + " to Google Drive from " + offset / 1024 / 1024 + " MB").toConsole(true).send();
+                }
+            }
 
-            ArrayList<String> typeFolders = new ArrayList<>();
-            Collections.addAll(typeFolders, destination.split("/"));
-            Collections.addAll(typeFolders, type.split("/"));
-            
-            File folder = null;
+            if (sessionUri == null) {
+                sessionUri = createUploadSession(file, folder);
+                if (sessionUri == null) {
+                    // The remembered folder no longer exists, so the folders are looked up again
+                    RemoteFolderCache.clear(UPLOADER_NAME);
 
-            for (String typeFolder : typeFolders) {
-                if (typeFolder.equals(".") || typeFolder.equals("..")) {
-                    continue;
+                    folder = getTypeFolder(type);
+                    sessionUri = createUploadSession(file, folder);
                 }
 
-                try {
-                    if (folder == null) {
-                        folder = createFolder(typeFolder);
-                    } else {
-                        folder = createFolder(typeFolder, folder);
-                    }
-                } catch (Exception exception) {
-                    MessageUtil.Builder().text("Failed to create folder(s) in Google Drive, these folders MUST NOT exist before the plugin creates them.").toConsole(true).send();
-
-                    throw exception;
+                if (sessionUri == null) {
+                    throw new IOException("Couldn't find the folder to upload " + file.getName() + " to in Google Drive");
                 }
+
+                JSONObject state = new JSONObject();
+                state.put("sessionUri", sessionUri);
+                UploadSessionStore.put(UPLOADER_NAME, file, type, state);
             }
 
+            if (offset < file.length() || file.length() == 0) {
+                createResumableUpload(sessionUri, file).uploadFrom(offset);
+            }
+
+            UploadSessionStore.remove(UPLOADER_NAME, file, type);
+
+            if (deleteOldFiles) {
+                deleteFiles(folder, type);
+            }
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to upload backup to Google Drive, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch (GoogleJsonResponseException exception) {
+            forgetMissingFolders(exception);
+            MessageUtil.sendConsoleException(exception);
+            setErrorOccurred(true);
+        } catch(Exception error) {
+            MessageUtil.sendConsoleException(error);
+            setErrorOccurred(true);
+        }
+    }
+
+    /**
+     * Gets whether backups can be uploaded to Google Drive while they are being created
+     * @return whether streaming is supported
+     */
+    public boolean supportsStreaming() {
+        return true;
+    }
+
+    /**
+     * Uploads a backup to the authenticated user's Google Drive inside a folder for the specified file type while it is being created
+     * <p>
+     * As the size of the backup isn't known, it is sent in chunks in a resumable upload
+     * @param inputStream the contents of the backup
+     * @param fileName the name of the backup
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void uploadStream(InputStream inputStream, String fileName, String type) {
+        try {
+            File folder = getTypeFolder(type);
+
             File fileMetadata = new File();
-            fileMetadata.setTitle(file.getName());
+            fileMetadata.setTitle(fileName);
             fileMetadata.setDescription("Uploaded by the DriveBackupV2 Minecraft plugin");
-            fileMetadata.setMimeType("application/zip");
+            fileMetadata.setMimeType(getMimeType(fileName));
 
             ParentReference fileParent = new ParentReference();
             fileParent.setId(folder.getId());
             fileMetadata.setParents(Collections.singletonList(fileParent));
 
-            FileContent fileContent = new FileContent("application/zip", file);
+            InputStreamContent streamContent = new InputStreamContent(getMimeType(fileName), bandwidthLimiter.throttle(inputStream));
 
-            service.files().insert(fileMetadata, fileContent).execute();
+            service.files().insert(fileMetadata, streamContent).execute();
 
-            deleteFiles(folder);
+            deleteFiles(folder, type);
         } catch (UnknownHostException exception) {
             MessageUtil.Builder().text("Failed to upload backup to Google Drive, check your network connection").toPerm("drivebackup.linkAccounts").send();
             setErrorOccurred(true);
+        } catch (GoogleJsonResponseException exception) {
+            forgetMissingFolders(exception);
+            MessageUtil.sendConsoleException(exception);
+            setErrorOccurred(true);
+        } catch(Exception error) {
+            MessageUtil.sendConsoleException(error);
+            setErrorOccurred(true);
+        }
+    }
+
+    /**
+     * Deletes the file with the specified name from the folder for the specified file type in the authenticated user's Google Drive
+     * @param fileName the name of the file
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void deleteFile(String fileName, String type) {
+        try {
+            File folder = getTypeFolder(type);
+
+            Drive.Files.List request = service.files().list().setQ(
+                    "title='" + fileName.replace("'", "\\'") + "' and trashed=false and '" + folder.getId() + "' in parents");
+            FileList files = request.execute();
+            for (File file : files.getItems()) {
+                service.files().delete(file.getId()).execute();
+            }
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to delete backup from Google Drive, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch (GoogleJsonResponseException exception) {
+            forgetMissingFolders(exception);
+            MessageUtil.sendConsoleException(exception);
+            setErrorOccurred(true);
         } catch(Exception error) {
             MessageUtil.sendConsoleException(error);
             setErrorOccurred(true);
         }
     }
 
+    /**
+     * Starts a resumable upload of the specified file to the specified folder
+     * @param file the file
+     * @param folder the folder
+     * @return the URI of the upload session, or {@code null} if the folder doesn't exist
+     * @throws Exception
+     */
+    private String createUploadSession(java.io.File file, File folder) throws Exception {
+        JSONObject parent = new JSONObject();
+        parent.put("id", folder.getId());
+
+        JSONObject metadata = new JSONObject();
+        metadata.put("title", file.getName());
+        metadata.put("description", "Uploaded by the DriveBackupV2 Minecraft plugin");
+        metadata.put("mimeType", getMimeType(file.getName()));
+        metadata.put("parents", new JSONArray().put(parent));
+
+        Request request = new Request.Builder()
+            .addHeader("Authorization", "Bearer " + accessToken)
+            .addHeader("X-Upload-Content-Type", getMimeType(file.getName()))
+            .addHeader("X-Upload-Content-Length", String.valueOf(file.length()))
+            .url("https://www.googleapis.com/upload/drive/v2/files?uploadType=resumable")
+            .post(RequestBody.create(metadata.toString(), jsonMediaType))
+            .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (response.code() == 404) {
+                return null;
+            }
+
+            String sessionUri = response.header("Location");
+            if (!response.isSuccessful() || sessionUri == null) {
+                throw new IOException("Couldn't start the upload of " + file.getName() + " to Google Drive: " + response.code());
+            }
+
+            return sessionUri;
+        }
+    }
+
+    /**
+     * Creates the upload of the specified file in the specified session, in chunks of the configured size
+     * @param sessionUri the URI of the upload session
+     * @param file the file
+     * @return the upload
+     */
+    private ResumableUpload createResumableUpload(String sessionUri, java.io.File file) {
+        GoogleDriveBackupMethod settings = ConfigParser.getConfig().backupMethods.googleDrive;
+
+        return new ResumableUpload(
+            httpClient,
+            sessionUri,
+            file,
+            MediaType.parse(getMimeType(file.getName())),
+            settings.chunkSize,
+            settings.chunkRetries,
+            (input, placeholders) -> MessageUtil.Builder().text(input).toConsole(true).send(),
+            uploaded -> {
+                if (progressListener != null) {
+                    progressListener.onProgress(this, file.getName(), uploaded, file.length());
+                }
+            });
+    }
+
+    /**
+     * Gets the MIME type of the specified backup, based on its extension
+     * @param fileName the name of the backup
+     * @return the MIME type
+     */
+    private static String getMimeType(String fileName) {
+        ArchiveFormat format = ArchiveFormat.fromFileName(fileName);
+        if (format == null) {
+            format = ArchiveFormat.ZIP;
+        }
+
+        return format.getMimeType();
+    }
+
+    /**
+     * Gets the folder for the specified file type in the authenticated user's Google Drive, creating it if it doesn't exist
+     * @param type the type of file (ex. plugins, world)
+     * @return the folder
+     * @throws Exception
+     */
+    private File getTypeFolder(String type) throws Exception {
+        String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
+
+        ArrayList<String> typeFolders = new ArrayList<>();
+        Collections.addAll(typeFolders, destination.split("/"));
+        Collections.addAll(typeFolders, type.split("/"));
+        typeFolders.removeIf(typeFolder -> typeFolder.equals(".") || typeFolder.equals(".."));
+
+        // The folders are looked up from the deepest one whose ID is remembered, which is usually the type folder itself
+        File folder = null;
+        int depth = typeFolders.size();
+        for (; depth > 0; depth--) {
+            String folderId = RemoteFolderCache.get(UPLOADER_NAME, String.join("/", typeFolders.subList(0, depth)));
+            if (folderId != null) {
+                if (!isRememberedFolderUsable(folderId)) {
+                    // The folders in it were trashed or deleted along with it, so all of them are looked up again
+                    RemoteFolderCache.clear(UPLOADER_NAME);
+                    depth = 0;
+
+                    break;
+                }
+
+                folder = new File();
+                folder.setId(folderId);
+
+                break;
+            }
+        }
+
+        for (; depth < typeFolders.size(); depth++) {
+            String typeFolder = typeFolders.get(depth);
+
+            try {
+                if (folder == null) {
+                    folder = createFolder(typeFolder);
+                } else {
+                    folder = createFolder(typeFolder, folder);
+                }
+            } catch (Exception exception) {
+                MessageUtil.Builder().text("Failed to create folder(s) in Google Drive, these folders MUST NOT exist before the plugin creates them.").toConsole(true).send();
+
+                throw exception;
+            }
+
+            RemoteFolderCache.put(UPLOADER_NAME, String.join("/", typeFolders.subList(0, depth + 1)), folder.getId());
+            checkedFolderIds.add(folder.getId());
+        }
+
+        return folder;
+    }
+
+    /**
+     * Gets whether the remembered folder with the specified ID still exists and isn't in the trash
+     * <p>
+     * Files can still be uploaded to a folder in the trash, so the folder is checked the first time it's used by
+     * this uploader, rather than only forgotten once uploading to it fails
+     * @param folderId the ID of the folder
+     * @return whether the folder can be used
+     * @throws IOException
+     */
+    private boolean isRememberedFolderUsable(String folderId) throws IOException {
+        if (checkedFolderIds.contains(folderId)) {
+            return true;
+        }
+
+        File folder;
+        try {
+            folder = service.files().get(folderId).setFields("labels/trashed").execute();
+        } catch (GoogleJsonResponseException exception) {
+            if (exception.getStatusCode() == 404) {
+                return false;
+            }
+
+            throw exception;
+        }
+
+        if (folder.getLabels() != null && Boolean.TRUE.equals(folder.getLabels().getTrashed())) {
+            return false;
+        }
+
+        checkedFolderIds.add(folderId);
+
+        return true;
+    }
+
+    /**
+     * Forgets the remembered folders if the specified error is because a folder no longer exists
+     * @param exception the error
+     */
+    private static void forgetMissingFolders(GoogleJsonResponseException exception) {
+        if (exception.getStatusCode() == 404) {
+            RemoteFolderCache.clear(UPLOADER_NAME);
+        }
+    }
+
     /**
      * Gets whether an error occurred while accessing the authenticated user's Google Drive
      * @return whether an error occurred
@@ -240,6 +550,21 @@ public class GoogleDriveUploader implements Uploader {
         return this.errorOccurred;
     }
 
+    /**
+     * Sets the listener told how far along uploads to Google Drive are
+     * @param listener the listener
+     */
+    public void setProgressListener(UploadProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Opens a connection to Google Drive in the background, so it's ready by the time a backup is uploaded
+     */
+    public void prewarmConnections() {
+        HttpUtil.prewarm(httpClient, "https://www.googleapis.com/upload/drive/v2/files");
+    }
+
     /**
      * closes any remaining connectionsretrieveNewAccessToken
      */
@@ -416,10 +741,11 @@ public class GoogleDriveUploader implements Uploader {
      * <p>
      * The number of files to retain is specified by the user in the {@code config.yml}
      * @param folder the folder containing the files
+     * @param type the type of file (ex. plugins, world)
      * @throws Exception
      */
-    private void deleteFiles(File folder) throws Exception {
-        int fileLimit = ConfigParser.getConfig().backupStorage.keepCount;
+    private void deleteFiles(File folder, String type) throws Exception {
+        int fileLimit = FileUtil.getKeepCount(type, ConfigParser.getConfig().backupStorage.keepCount);
 
         if (fileLimit == -1) {
             return;
@@ -448,4 +774,4 @@ public class GoogleDriveUploader implements Uploader {
     private void setErrorOccurred(boolean errorOccurredValue) {
         this.errorOccurred = errorOccurredValue;
     }
-}
\ No newline at end of file
+}
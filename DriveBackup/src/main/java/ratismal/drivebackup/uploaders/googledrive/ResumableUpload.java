@@ -0,0 +1,183 @@
+package ratismal.drivebackup.uploaders.googledrive;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import ratismal.drivebackup.util.FileRegionBody;
+import ratismal.drivebackup.util.Logger;
+
+/**
+ * Uploads a file in a Google Drive resumable upload session, one chunk at a time
+ * <p>
+ * A chunk which fails to upload is retried up to the specified number of times, carrying on from however much of it
+ * Google Drive received, so a network failure only costs the chunk it happened in.
+ */
+class ResumableUpload {
+    private final OkHttpClient httpClient;
+    private final String sessionUri;
+    private final File file;
+    private final MediaType contentType;
+    private final long chunkSize;
+    private final int chunkRetries;
+    private final Logger logger;
+    private final LongConsumer progressListener;
+
+    /**
+     * Creates an instance of the {@code ResumableUpload} object
+     * @param httpClient the HTTP client to send the chunks with
+     * @param sessionUri the URI of the upload session
+     * @param file the file
+     * @param contentType the media type of the file
+     * @param chunkSize the size of the chunks, in bytes, or 0 to upload the file in one request
+     * @param chunkRetries the number of times a chunk is retried before the upload fails
+     * @param logger the logger told when a chunk is retried
+     * @param progressListener the listener told how many bytes Google Drive has received after each chunk
+     */
+    ResumableUpload(OkHttpClient httpClient, String sessionUri, File file, MediaType contentType, long chunkSize, int chunkRetries, Logger logger, LongConsumer progressListener) {
+        this.httpClient = httpClient;
+        this.sessionUri = sessionUri;
+        this.file = file;
+        this.contentType = contentType;
+        this.chunkSize = chunkSize;
+        this.chunkRetries = chunkRetries;
+        this.logger = logger;
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Gets how much of the file Google Drive has received in the session
+     * @return the number of bytes received, or -1 if the session expired
+     * @throws IOException
+     */
+    long getUploadedBytes() throws IOException {
+        long size = file.length();
+
+        Request request = new Request.Builder()
+            .addHeader("Content-Range", "bytes */" + size)
+            .url(sessionUri)
+            .put(RequestBody.create(new byte[0], null))
+            .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            switch (response.code()) {
+                case 200:
+                case 201:
+                    return size;
+                case 308:
+                    return getReceivedBytes(response);
+                case 404:
+                case 410:
+                    return -1;
+                default:
+                    throw new IOException("Couldn't resume the upload to Google Drive: " + response.code());
+            }
+        }
+    }
+
+    /**
+     * Uploads the rest of the file, one chunk at a time
+     * @param offset the number of bytes Google Drive has already received
+     * @throws Exception
+     */
+    void uploadFrom(long offset) throws Exception {
+        long size = file.length();
+
+        if (size == 0) {
+            uploadChunk(0, 0);
+            return;
+        }
+
+        int failures = 0;
+        boolean resync = false;
+
+        while (offset < size) {
+            try {
+                if (resync) {
+                    offset = getUploadedBytes();
+                    if (offset == -1) {
+                        throw new Exception("The upload session of " + file.getName() + " to Google Drive expired");
+                    }
+
+                    resync = false;
+                    continue;
+                }
+
+                long length = chunkSize == 0 ? size - offset : Math.min(chunkSize, size - offset);
+                offset = uploadChunk(offset, length);
+
+                failures = 0;
+                progressListener.accept(offset);
+            } catch (IOException exception) {
+                if (++failures > chunkRetries || Thread.currentThread().isInterrupted()) {
+                    throw exception;
+                }
+
+                logger.log("Failed to upload a chunk of " + file.getName() + " to Google Drive, retrying (" + failures + "/" + chunkRetries + ")");
+
+                TimeUnit.SECONDS.sleep(1L << Math.min(failures, 5));
+                resync = true;
+            }
+        }
+    }
+
+    /**
+     * Uploads the specified chunk of the file
+     * @param offset the index of the first byte of the chunk
+     * @param length the number of bytes in the chunk
+     * @return the number of bytes Google Drive has received after the chunk
+     * @throws IOException if the chunk failed to upload, but can be retried
+     * @throws Exception if the upload can't carry on
+     */
+    private long uploadChunk(long offset, long length) throws Exception {
+        long size = file.length();
+        String contentRange = size == 0 ? "bytes */0" : "bytes " + offset + "-" + (offset + length - 1) + "/" + size;
+
+        Request request = new Request.Builder()
+            .addHeader("Content-Range", contentRange)
+            .url(sessionUri)
+            .put(new FileRegionBody(file, offset, length, contentType))
+            .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            int statusCode = response.code();
+
+            if (statusCode == 200 || statusCode == 201) {
+                return size;
+            }
+
+            if (statusCode == 308) {
+                // Google Drive may keep less of the chunk than was sent
+                return getReceivedBytes(response);
+            }
+
+            // Google Drive asks for the chunk to be retried if it's overloaded or rate limiting
+            if (statusCode >= 500 || statusCode == 429) {
+                throw new IOException("Couldn't upload a chunk of " + file.getName() + " to Google Drive: " + statusCode);
+            }
+
+            throw new Exception("Couldn't upload " + file.getName() + " to Google Drive: " + statusCode);
+        }
+    }
+
+    /**
+     * Gets how much of the file Google Drive has received, from its response to an incomplete upload
+     * @param response the response
+     * @return the number of bytes received
+     */
+    private static long getReceivedBytes(Response response) {
+        // The range is only sent once Google Drive has received something, formatted like "bytes=0-42"
+        String range = response.header("Range");
+        if (range == null) {
+            return 0;
+        }
+
+        return Long.parseLong(range.substring(range.indexOf('-') + 1)) + 1;
+    }
+}
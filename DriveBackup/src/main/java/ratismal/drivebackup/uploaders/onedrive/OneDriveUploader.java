@@ -20,18 +20,23 @@ import org.json.JSONObject;
 
 import ratismal.drivebackup.uploaders.Authenticator;
 import ratismal.drivebackup.uploaders.Uploader;
+import ratismal.drivebackup.uploaders.UploadProgressListener;
 import ratismal.drivebackup.uploaders.Authenticator.AuthenticationProvider;
 import ratismal.drivebackup.config.ConfigParser;
 import ratismal.drivebackup.handler.commandHandler.BasicCommands;
 import ratismal.drivebackup.plugin.DriveBackup;
+import ratismal.drivebackup.util.FileRegionBody;
+import ratismal.drivebackup.util.FileUtil;
+import ratismal.drivebackup.util.HttpUtil;
 import ratismal.drivebackup.util.MessageUtil;
+import ratismal.drivebackup.util.RemoteFolderCache;
 import ratismal.drivebackup.util.SchedulerUtil;
+import ratismal.drivebackup.util.UploadSessionStore;
 
 import java.io.*;
 import java.net.UnknownHostException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -48,13 +53,14 @@ public class OneDriveUploader implements Uploader {
     private long lastUploaded;
     private String accessToken;
     private String refreshToken;
+    private UploadProgressListener progressListener;
 
     public static final String UPLOADER_NAME = "OneDrive";
 
     /**
      * Global instance of the HTTP client
      */
-    private static final OkHttpClient httpClient = new OkHttpClient.Builder()
+    private static final OkHttpClient httpClient = HttpUtil.newUploadClient("onedrive")
         .connectTimeout(1, TimeUnit.MINUTES)
         .writeTimeout(3, TimeUnit.MINUTES)
         .readTimeout(3, TimeUnit.MINUTES)
@@ -62,16 +68,6 @@ public class OneDriveUploader implements Uploader {
     private static final MediaType zipMediaType = MediaType.parse("application/zip; charset=utf-8");
     private static final MediaType jsonMediaType = MediaType.parse("application/json; charset=utf-8");
 
-    /**
-     * Size of the file chunks to upload to OneDrive
-     */
-    private static final int CHUNK_SIZE = 5 * 1024 * 1024;
-
-    /**
-     * File upload buffer
-     */
-    private RandomAccessFile raf;
-
     /**
      * OneDrive API credentials
      */
@@ -166,58 +162,62 @@ public class OneDriveUploader implements Uploader {
      * @param type the type of file (ex. plugins, world)
      */
     public void uploadFile(java.io.File file, String type) throws Exception {
+        uploadFile(file, type, true);
+    }
+
+    /**
+     * Uploads the specified file to the authenticated user's OneDrive inside a folder for the specified file type
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @param deleteOldFiles whether to delete the oldest files in the folder past the number to retain
+     */
+    public void uploadFile(java.io.File file, String type, boolean deleteOldFiles) throws Exception {
         try {
             resetRanges();
 
-            String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
-            
-            ArrayList<String> typeFolders = new ArrayList<>();
-            Collections.addAll(typeFolders, destination.split("/"));
-            Collections.addAll(typeFolders, type.split("/"));
+            File folder = getTypeFolder(type);
 
-            File folder = null;
+            String uploadURL = resumeUploadSession(file, type);
 
-            for (String typeFolder : typeFolders) {
-                if (typeFolder.equals(".") || typeFolder.equals("..")) {
-                    continue;
-                }
+            if (uploadURL == null) {
+                uploadURL = createUploadSession(file, folder);
+                if (uploadURL == null) {
+                    // The remembered folder no longer exists, so the folders are looked up again
+                    RemoteFolderCache.clear(UPLOADER_NAME);
 
-                if (folder == null) {
-                    folder = createFolder(typeFolder);
-                } else {
-                    folder = createFolder(typeFolder, folder);
+                    folder = getTypeFolder(type);
+                    uploadURL = createUploadSession(file, folder);
                 }
-            }
 
-            Request request = new Request.Builder()
-                .addHeader("Authorization", "Bearer " + accessToken)
-                .url("https://graph.microsoft.com/v1.0/me/drive/root:/" + folder.getPath() + "/" + file.getName() + ":/createUploadSession")
-                .post(RequestBody.create("{}", jsonMediaType))
-                .build();
-
-            Response response = httpClient.newCall(request).execute();
-            JSONObject parsedResponse = new JSONObject(response.body().string());
-            response.close();
+                if (uploadURL == null) {
+                    throw new Exception("Couldn't find the folder to upload " + file.getName() + " to in OneDrive");
+                }
 
-            String uploadURL = parsedResponse.getString("uploadUrl");
+                JSONObject state = new JSONObject();
+                state.put("uploadUrl", uploadURL);
+                UploadSessionStore.put(UPLOADER_NAME, file, type, state);
+            }
 
-            //Assign our backup to Random Access File
-            raf = new RandomAccessFile(file, "r");
+            Request request;
+            Response response;
+            JSONObject parsedResponse;
 
+            long chunkSize = ConfigParser.getConfig().backupMethods.oneDrive.chunkSize;
             boolean isComplete = false;
 
             while (!isComplete) {
-                byte[] bytesToUpload = getChunk();
+                // Each chunk is read from the file as it's sent, rather than held in memory
+                long chunkLength = Math.min(chunkSize, file.length() - getTotalUploaded());
 
                 request = new Request.Builder()
-                    .addHeader("Content-Range", String.format("bytes %d-%d/%d", getTotalUploaded(), getTotalUploaded() + bytesToUpload.length - 1, file.length()))
+                    .addHeader("Content-Range", String.format("bytes %d-%d/%d", getTotalUploaded(), getTotalUploaded() + chunkLength - 1, file.length()))
                     .url(uploadURL)
-                    .put(RequestBody.create(bytesToUpload, zipMediaType))
+                    .put(new FileRegionBody(file, getTotalUploaded(), chunkLength, zipMediaType))
                     .build();
 
                 response = httpClient.newCall(request).execute();
 
-                if (getTotalUploaded() + bytesToUpload.length < file.length()) {
+                if (getTotalUploaded() + chunkLength < file.length()) {
                     try {
                         parsedResponse = new JSONObject(response.body().string());
 
@@ -232,9 +232,17 @@ public class OneDriveUploader implements Uploader {
                 }
 
                 response.close();
+
+                if (progressListener != null) {
+                    progressListener.onProgress(this, file.getName(), isComplete ? file.length() : getTotalUploaded(), file.length());
+                }
             }
 
-            deleteFiles(folder);
+            UploadSessionStore.remove(UPLOADER_NAME, file, type);
+
+            if (deleteOldFiles) {
+                deleteFiles(folder, type);
+            }
         } catch (UnknownHostException exception) {
             MessageUtil.Builder().text("Failed to upload backup to OneDrive, check your network connection").toPerm("drivebackup.linkAccounts").send();
             setErrorOccurred(true);
@@ -242,8 +250,162 @@ public class OneDriveUploader implements Uploader {
             MessageUtil.sendConsoleException(error);
             setErrorOccurred(true);
         }
+    }
+
+    /**
+     * Starts an upload session for the specified file in the specified folder
+     * @param file the file
+     * @param folder the folder
+     * @return the URL of the upload session, or {@code null} if the folder doesn't exist
+     * @throws Exception
+     */
+    private String createUploadSession(java.io.File file, File folder) throws Exception {
+        Request request = new Request.Builder()
+            .addHeader("Authorization", "Bearer " + accessToken)
+            .url("https://graph.microsoft.com/v1.0/me/drive/root:/" + folder.getPath() + "/" + file.getName() + ":/createUploadSession")
+            .post(RequestBody.create("{}", jsonMediaType))
+            .build();
+
+        Response response = httpClient.newCall(request).execute();
+        JSONObject parsedResponse = new JSONObject(response.body().string());
+        response.close();
+
+        if (response.code() == 404) {
+            return null;
+        }
+
+        return parsedResponse.getString("uploadUrl");
+    }
+
+    /**
+     * Resumes the saved upload session of the specified file, if OneDrive still has it
+     * @param file the file
+     * @param type the type of file (ex. plugins, world)
+     * @return the URL of the upload session, or {@code null} if there is no session to resume
+     * @throws Exception
+     */
+    private String resumeUploadSession(java.io.File file, String type) throws Exception {
+        JSONObject session = UploadSessionStore.get(UPLOADER_NAME, file, type);
+        if (session == null) {
+            return null;
+        }
+
+        String uploadURL = session.getString("uploadUrl");
+
+        Request request = new Request.Builder()
+            .url(uploadURL)
+            .build();
+
+        Response response = httpClient.newCall(request).execute();
+        JSONObject parsedResponse = new JSONObject(response.body().string());
+        response.close();
+
+        if (!response.isSuccessful()) {
+            // The session expired or the upload already finished, so the upload is started over
+            UploadSessionStore.remove(UPLOADER_NAME, file, type);
+
+            return null;
+        }
+
+        List<String> nextExpectedRanges = (List<String>) (Object) parsedResponse.getJSONArray("nextExpectedRanges").toList();
+        setRanges(nextExpectedRanges.toArray(new String[nextExpectedRanges.size()]));
+
+        MessageUtil.Builder().text("Resuming the upload of " + file.getName() + " to OneDrive from " + readableFileSize(getTotalUploaded())).toConsole(true).send();
+
+        return uploadURL;
+    }
+
+    /**
+     * Gets whether backups can be uploaded to OneDrive while they are being created
+     * <p>
+     * OneDrive upload sessions need the size of the file up front, so they can't be streamed
+     * @return whether streaming is supported
+     */
+    public boolean supportsStreaming() {
+        return false;
+    }
+
+    /**
+     * Not supported, as OneDrive upload sessions need the size of the file up front
+     * @param inputStream the contents of the backup
+     * @param fileName the name of the backup
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void uploadStream(InputStream inputStream, String fileName, String type) {
+        throw new UnsupportedOperationException("OneDrive doesn't support streaming uploads");
+    }
+
+    /**
+     * Deletes the file with the specified name from the folder for the specified file type in the authenticated user's OneDrive
+     * @param fileName the name of the file
+     * @param type the type of file (ex. plugins, world)
+     */
+    public void deleteFile(String fileName, String type) {
+        try {
+            File folder = getTypeFolder(type);
+
+            Request request = new Request.Builder()
+                .addHeader("Authorization", "Bearer " + accessToken)
+                .url("https://graph.microsoft.com/v1.0/me/drive/root:/" + folder.getPath() + "/" + fileName + ":/")
+                .delete()
+                .build();
+
+            Response response = httpClient.newCall(request).execute();
+            int statusCode = response.code();
+            response.close();
+
+            if (statusCode != 204 && statusCode != 404) {
+                throw new Exception("Couldn't delete file " + fileName);
+            }
+        } catch (UnknownHostException exception) {
+            MessageUtil.Builder().text("Failed to delete backup from OneDrive, check your network connection").toPerm("drivebackup.linkAccounts").send();
+            setErrorOccurred(true);
+        } catch(Exception error) {
+            MessageUtil.sendConsoleException(error);
+            setErrorOccurred(true);
+        }
+    }
+
+    /**
+     * Gets the folder for the specified file type in the authenticated user's OneDrive, creating it if it doesn't exist
+     * @param type the type of file (ex. plugins, world)
+     * @return the folder
+     * @throws Exception
+     */
+    private File getTypeFolder(String type) throws Exception {
+        String destination = ConfigParser.getConfig().backupStorage.remoteDirectory;
+        
+        ArrayList<String> typeFolders = new ArrayList<>();
+        Collections.addAll(typeFolders, destination.split("/"));
+        Collections.addAll(typeFolders, type.split("/"));
+        typeFolders.removeIf(typeFolder -> typeFolder.equals(".") || typeFolder.equals(".."));
+
+        // OneDrive addresses folders by path, so only whether the deepest folder known to exist is remembered
+        File folder = null;
+        int depth = typeFolders.size();
+        for (; depth > 0; depth--) {
+            String folderPath = RemoteFolderCache.get(UPLOADER_NAME, String.join("/", typeFolders.subList(0, depth)));
+            if (folderPath != null) {
+                folder = new File();
+                folder.setPath(folderPath);
+
+                break;
+            }
+        }
+
+        for (; depth < typeFolders.size(); depth++) {
+            String typeFolder = typeFolders.get(depth);
+
+            if (folder == null) {
+                folder = createFolder(typeFolder);
+            } else {
+                folder = createFolder(typeFolder, folder);
+            }
+
+            RemoteFolderCache.put(UPLOADER_NAME, String.join("/", typeFolders.subList(0, depth + 1)), folder.getPath());
+        }
 
-        raf.close();
+        return folder;
     }
 
     /**
@@ -254,6 +416,24 @@ public class OneDriveUploader implements Uploader {
         return this.errorOccurred;
     }
 
+    /**
+     * Sets the listener told how far along uploads to OneDrive are
+     * @param listener the listener
+     */
+    public void setProgressListener(UploadProgressListener listener) {
+        progressListener = listener;
+    }
+
+    /**
+     * Opens a connection to OneDrive in the background, so it's ready by the time a backup is uploaded
+     * <p>
+     * Chunks are sent to the host of the upload session, which isn't known until it's created, so only the connection
+     * creating it is prewarmed
+     */
+    public void prewarmConnections() {
+        HttpUtil.prewarm(httpClient, "https://graph.microsoft.com/v1.0/");
+    }
+
     /**
     * closes any remaining connectionsretrieveNewAccessToken
     */
@@ -446,10 +626,11 @@ public class OneDriveUploader implements Uploader {
      * <p>
      * The number of files to retain is specified by the user in the {@code config.yml}
      * @param folder the folder containing the files
+     * @param type the type of file (ex. plugins, world)
      * @throws Exception
      */
-    private void deleteFiles(File parent) throws Exception {
-        int fileLimit = ConfigParser.getConfig().backupStorage.keepCount;
+    private void deleteFiles(File parent, String type) throws Exception {
+        int fileLimit = FileUtil.getKeepCount(type, ConfigParser.getConfig().backupStorage.keepCount);
 
         if (fileLimit == -1) {
             return;
@@ -464,6 +645,13 @@ public class OneDriveUploader implements Uploader {
         JSONObject parsedResponse = new JSONObject(response.body().string());
         response.close();
 
+        if (response.code() == 404) {
+            // The remembered folder no longer exists, so the folders are looked up again next time
+            RemoteFolderCache.clear(UPLOADER_NAME);
+
+            throw new Exception("Couldn't find folder " + parent.getPath());
+        }
+
         ArrayList<String> availableFileIDs = new ArrayList<>();
 
         JSONArray jsonArray = parsedResponse.getJSONArray("value");
@@ -610,25 +798,6 @@ public class OneDriveUploader implements Uploader {
         }
     }
 
-    /**
-     * Gets an array of bytes to upload next from the file buffer based on the number of bytes uploaded so far
-     * @return the array of bytes
-     * @throws IOException
-     */
-    private byte[] getChunk() throws IOException {
-
-        byte[] bytes = new byte[CHUNK_SIZE];
-
-        raf.seek(totalUploaded);
-        int read = raf.read(bytes);
-
-        if (read < CHUNK_SIZE) {
-            bytes = Arrays.copyOf(bytes, read);
-        }
-
-        return bytes;
-    }
-
     /**
      * Formats the specified number of bytes as a readable file size
      * @param size the number of bytes
@@ -0,0 +1,95 @@
+package ratismal.drivebackup.util;
+
+/**
+ * The container and compression codec of a backup file
+ */
+public enum ArchiveFormat {
+    /**
+     * A zip file, compressed with deflate
+     */
+    ZIP("zip", ".zip", "application/zip"),
+
+    /**
+     * A tar file, compressed with Zstandard
+     */
+    TAR_ZSTD("tar-zstd", ".tar.zst", "application/zstd"),
+
+    /**
+     * A tar file, compressed with LZ4
+     */
+    TAR_LZ4("tar-lz4", ".tar.lz4", "application/octet-stream");
+
+    private final String configName;
+    private final String extension;
+    private final String mimeType;
+
+    ArchiveFormat(String configName, String extension, String mimeType) {
+        this.configName = configName;
+        this.extension = extension;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Gets the name of the format in the {@code config.yml}
+     * @return the name
+     */
+    public String getConfigName() {
+        return configName;
+    }
+
+    /**
+     * Gets the file extension of backups in the format
+     * @return the extension, including the leading dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Gets the MIME type of backups in the format
+     * @return the MIME type
+     */
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Gets the format with the specified name in the {@code config.yml}
+     * @param configName the name
+     * @return the format
+     * @throws IllegalArgumentException if there is no format with the name
+     */
+    public static ArchiveFormat fromConfigName(String configName) throws IllegalArgumentException {
+        for (ArchiveFormat format : values()) {
+            if (format.configName.equalsIgnoreCase(configName)) {
+                return format;
+            }
+        }
+
+        throw new IllegalArgumentException("Unknown archive format " + configName);
+    }
+
+    /**
+     * Gets the format of the specified backup file, based on its extension
+     * @param fileName the name of the file
+     * @return the format, or {@code null} if the file isn't a backup
+     */
+    public static ArchiveFormat fromFileName(String fileName) {
+        for (ArchiveFormat format : values()) {
+            if (fileName.endsWith(format.extension)) {
+                return format;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets whether the specified file is a backup, in any format
+     * @param fileName the name of the file
+     * @return whether the file is a backup
+     */
+    public static boolean isArchive(String fileName) {
+        return fromFileName(fileName) != null;
+    }
+}
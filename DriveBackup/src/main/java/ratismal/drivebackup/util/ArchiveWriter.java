@@ -0,0 +1,31 @@
+package ratismal.drivebackup.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the entries of a backup file, in one of the {@link ArchiveFormat}s
+ */
+public interface ArchiveWriter extends Closeable {
+    /**
+     * Adds the specified file to the backup
+     * <p>
+     * If the file can't be read, the entry is still added with whatever was read before the failure,
+     * so the backup stays valid, then the exception is rethrown
+     * @param entryName the path of the entry within the backup
+     * @param file the file to add
+     * @return the CRC-32 checksum of the file
+     * @throws IOException
+     */
+    public long putFile(String entryName, File file) throws IOException;
+
+    /**
+     * Adds an entry containing the specified bytes to the backup
+     * @param entryName the path of the entry within the backup
+     * @param bytes the contents of the entry
+     * @return the CRC-32 checksum of the contents
+     * @throws IOException
+     */
+    public long putBytes(String entryName, byte[] bytes) throws IOException;
+}
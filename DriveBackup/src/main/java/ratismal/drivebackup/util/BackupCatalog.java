@@ -0,0 +1,323 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The backups of a backup set stored locally, ordered by the time they were created
+ * <p>
+ * Each backup is recorded in a journal stored next to the backups of the set as it is created, and removed from it as
+ * it is deleted, so the newest and oldest backups can be found without listing the folder and parsing the name of every
+ * file in it. The journal is only appended to, and rewritten once most of its lines are for backups that were deleted.
+ * <p>
+ * If there is no journal, such as the first time backups are created after updating, it is rebuilt from the files in
+ * the folder. Deleting the journal rebuilds it, which is needed to include backups copied into the folder by hand.
+ */
+public class BackupCatalog {
+    private static final String CATALOG_FILE_NAME = ".catalog";
+    private static final String ADDED = "+";
+    private static final String REMOVED = "-";
+    private static final String UNKNOWN_HASH = "-";
+
+    /**
+     * Number of lines of backups that were deleted the journal can have before it is rewritten
+     */
+    private static final int MIN_COMPACT_LINES = 64;
+
+    /**
+     * Orders backups by the time they were created, then by name, so backups created at the same time, or whose
+     * time couldn't be determined, are all kept
+     */
+    private static final Comparator<Entry> ENTRY_ORDER = Comparator
+        .comparingLong((Entry entry) -> entry.timestamp)
+        .thenComparing(entry -> entry.name);
+
+    private static final Map<File, BackupCatalog> catalogs = new HashMap<>();
+
+    private final File folder;
+    private final TreeSet<Entry> entries = new TreeSet<>(ENTRY_ORDER);
+    private final Map<String, Entry> entriesByName = new HashMap<>();
+    private int journalLines = 0;
+
+    private BackupCatalog(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Gets the catalog of the backups stored in the specified folder
+     * <p>
+     * The catalog is loaded from its journal the first time, and kept in memory after that
+     * @param folder the folder containing the backups of the set
+     * @param formatter the format of the file names of the backups, used if the catalog has to be rebuilt
+     * @return the catalog
+     */
+    public static synchronized BackupCatalog open(File folder, LocalDateTimeFormatter formatter) {
+        File key = folder.getAbsoluteFile().toPath().normalize().toFile();
+
+        BackupCatalog catalog = catalogs.get(key);
+        if (catalog == null) {
+            catalog = new BackupCatalog(key);
+            catalog.load(formatter);
+
+            catalogs.put(key, catalog);
+        }
+
+        return catalog;
+    }
+
+    /**
+     * Records the specified backup, which has been fully written
+     * @param file the backup file
+     * @param date when the backup was created
+     * @param hash the SHA-256 hash of the backup, in hexadecimal, calculated as it was written
+     * @throws IOException
+     */
+    public synchronized void add(File file, ZonedDateTime date, String hash) throws IOException {
+        Entry entry = new Entry(file.getName(), date.toEpochSecond(), file.length(), hash);
+
+        put(entry);
+        append(ADDED + "\t" + entry.timestamp + "\t" + entry.size + "\t" + entry.hash + "\t" + entry.name);
+    }
+
+    /**
+     * Removes the specified backup from the catalog, once it has been deleted
+     * @param entry the backup
+     * @throws IOException
+     */
+    public synchronized void remove(Entry entry) throws IOException {
+        if (!delete(entry.name)) {
+            return;
+        }
+
+        append(REMOVED + "\t" + entry.name);
+
+        if (journalLines - entries.size() > Math.max(MIN_COMPACT_LINES, entries.size())) {
+            compact();
+        }
+    }
+
+    /**
+     * Gets the most recent backup in the catalog which still exists
+     * @return the backup, or {@code null} if there are none
+     * @throws IOException
+     */
+    public synchronized Entry getNewest() throws IOException {
+        while (!entries.isEmpty()) {
+            Entry entry = entries.last();
+
+            if (entry.getFile().exists()) {
+                return entry;
+            }
+
+            // Deleted by hand
+            remove(entry);
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets the oldest backup in the catalog
+     * @return the backup, or {@code null} if there are none
+     */
+    public synchronized Entry getOldest() {
+        return entries.isEmpty() ? null : entries.first();
+    }
+
+    /**
+     * Gets the backups in the catalog, from oldest to newest
+     * @return the backups
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Gets the number of backups in the catalog
+     * @return the number of backups
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void load(LocalDateTimeFormatter formatter) {
+        File catalogFile = new File(folder, CATALOG_FILE_NAME);
+
+        if (catalogFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(catalogFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 5);
+
+                    if (fields[0].equals(ADDED)) {
+                        put(new Entry(fields[4], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]));
+                    } else {
+                        delete(fields[1]);
+                    }
+
+                    journalLines++;
+                }
+
+                return;
+            } catch (Exception exception) {
+                MessageUtil.Builder().text("Unable to read the catalog of the backups in \"" + folder.getPath() + "\", rebuilding it").toConsole(true).send();
+
+                entries.clear();
+                entriesByName.clear();
+            }
+        }
+
+        rebuild(formatter);
+    }
+
+    /**
+     * Rebuilds the catalog from the backup files in the folder
+     * <p>
+     * The files aren't hashed, as there can be many large backups
+     * @param formatter the format of the file names of the backups
+     */
+    private void rebuild(LocalDateTimeFormatter formatter) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (!ArchiveFormat.isArchive(file.getName())) {
+                continue;
+            }
+
+            String dateString = file.getName();
+            long timestamp;
+
+            try {
+                timestamp = formatter.parse(dateString).toEpochSecond();
+            } catch (Exception e) {
+                timestamp = 0;
+                MessageUtil.Builder().text("Unable to parse date format of stored backup \"" + dateString + "\", this can be due to the date format being updated in the config.yml").send();
+                MessageUtil.Builder().text("Backup will be deleted first").send();
+            }
+
+            put(new Entry(file.getName(), timestamp, file.length(), UNKNOWN_HASH));
+        }
+
+        try {
+            compact();
+        } catch (IOException exception) {
+            MessageUtil.sendConsoleException(exception);
+        }
+    }
+
+    /**
+     * Rewrites the journal with only the backups in the catalog
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        if (!folder.exists()) {
+            return;
+        }
+
+        File catalogFile = new File(folder, CATALOG_FILE_NAME);
+        File tempFile = new File(folder, CATALOG_FILE_NAME + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Entry entry : entries) {
+                writer.write(ADDED + "\t" + entry.timestamp + "\t" + entry.size + "\t" + entry.hash + "\t" + entry.name);
+                writer.newLine();
+            }
+        }
+
+        Files.move(tempFile.toPath(), catalogFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        journalLines = entries.size();
+    }
+
+    private void append(String line) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(
+            new File(folder, CATALOG_FILE_NAME).toPath(),
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND)) {
+
+            writer.write(line);
+            writer.newLine();
+        }
+
+        journalLines++;
+    }
+
+    private void put(Entry entry) {
+        delete(entry.name);
+
+        entries.add(entry);
+        entriesByName.put(entry.name, entry);
+    }
+
+    private boolean delete(String name) {
+        Entry entry = entriesByName.remove(name);
+        if (entry == null) {
+            return false;
+        }
+
+        entries.remove(entry);
+
+        return true;
+    }
+
+    /**
+     * A backup in the catalog
+     */
+    public class Entry {
+        private final String name;
+        private final long timestamp;
+        private final long size;
+        private final String hash;
+
+        private Entry(String name, long timestamp, long size, String hash) {
+            this.name = name;
+            this.timestamp = timestamp;
+            this.size = size;
+            this.hash = hash;
+        }
+
+        public File getFile() {
+            return new File(folder, name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Gets when the backup was created
+         * @return the time, in seconds since the epoch, or 0 if the name of the backup couldn't be parsed
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Gets the SHA-256 hash of the backup
+         * @return the hash, in hexadecimal, or {@code "-"} if the backup was cataloged before it was hashed
+         */
+        public String getHash() {
+            return hash;
+        }
+    }
+}
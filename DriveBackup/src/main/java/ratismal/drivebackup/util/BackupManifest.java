@@ -0,0 +1,453 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * The state of the files in a backup set at the time of its last backup, used to create incremental backups
+ * <p>
+ * The manifest is stored next to the backups of the set, and along with it the {@code BackupChain} of the
+ * archives created so far, and the chunk timestamps of the region files captured by region-aware backups
+ */
+public class BackupManifest {
+    private static final String MANIFEST_FILE_NAME = ".manifest";
+    private static final String CHAIN_FILE_NAME = ".chain.json";
+    private static final String REGIONS_FILE_NAME = ".regions";
+
+    private final File folder;
+    private final Map<String, FileState> files;
+    private final Map<String, int[]> regionTimestamps;
+    private final BackupChain chain;
+
+    private BackupManifest(File folder, Map<String, FileState> files, Map<String, int[]> regionTimestamps, BackupChain chain) {
+        this.folder = folder;
+        this.files = files;
+        this.regionTimestamps = regionTimestamps;
+        this.chain = chain;
+    }
+
+    /**
+     * Loads the manifest stored in the specified folder
+     * <p>
+     * If there is no manifest, or it can't be read, an empty manifest is returned
+     * @param folder the folder containing the backups of the set
+     * @return the manifest
+     */
+    public static BackupManifest load(File folder) {
+        Map<String, FileState> files = new HashMap<>();
+
+        File manifestFile = new File(folder, MANIFEST_FILE_NAME);
+        if (manifestFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", 4);
+
+                    files.put(fields[3], new FileState(
+                        Long.parseLong(fields[0]),
+                        Long.parseLong(fields[1]),
+                        Long.parseLong(fields[2])
+                        ));
+                }
+            } catch (Exception exception) {
+                MessageUtil.Builder().text("Unable to read the manifest of the backups in \"" + folder.getPath() + "\", creating a full backup").toConsole(true).send();
+
+                return new BackupManifest(folder, new HashMap<>(), new HashMap<>(), new BackupChain(folder));
+            }
+        }
+
+        return new BackupManifest(folder, files, loadRegionTimestamps(folder), BackupChain.load(folder));
+    }
+
+    /**
+     * Loads the region file chunk timestamps stored in the specified folder
+     * <p>
+     * If they can't be read, none are returned, so whole region files are included in the next backup
+     * @param folder the folder containing the backups of the set
+     * @return the timestamps, by relative path
+     */
+    private static Map<String, int[]> loadRegionTimestamps(File folder) {
+        Map<String, int[]> regionTimestamps = new HashMap<>();
+
+        File regionsFile = new File(folder, REGIONS_FILE_NAME);
+        if (!regionsFile.exists()) {
+            return regionTimestamps;
+        }
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(regionsFile)))) {
+            int regionCount = inputStream.readInt();
+
+            for (int i = 0; i < regionCount; i++) {
+                String path = inputStream.readUTF();
+                int[] timestamps = new int[inputStream.readInt()];
+
+                for (int j = 0; j < timestamps.length; j++) {
+                    timestamps[j] = inputStream.readInt();
+                }
+
+                regionTimestamps.put(path, timestamps);
+            }
+        } catch (Exception exception) {
+            regionTimestamps.clear();
+        }
+
+        return regionTimestamps;
+    }
+
+    /**
+     * Saves the manifest to the folder it was loaded from
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        File manifestFile = new File(folder, MANIFEST_FILE_NAME);
+        File tempFile = new File(folder, MANIFEST_FILE_NAME + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, FileState> file : files.entrySet()) {
+                FileState state = file.getValue();
+
+                writer.write(state.size + "\t" + state.lastModified + "\t" + state.crc + "\t" + file.getKey());
+                writer.newLine();
+            }
+        }
+
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        File regionsFile = new File(folder, REGIONS_FILE_NAME);
+        if (regionTimestamps.isEmpty()) {
+            regionsFile.delete();
+        } else {
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(regionsFile)))) {
+                outputStream.writeInt(regionTimestamps.size());
+
+                for (Map.Entry<String, int[]> region : regionTimestamps.entrySet()) {
+                    outputStream.writeUTF(region.getKey());
+                    outputStream.writeInt(region.getValue().length);
+
+                    for (int timestamp : region.getValue()) {
+                        outputStream.writeInt(timestamp);
+                    }
+                }
+            }
+        }
+
+        chain.save();
+    }
+
+    /**
+     * Gets whether the next backup of the set needs to be a full backup
+     * @param fullBackupInterval the maximum number of backups in a chain, including the full backup
+     * @return whether a full backup is needed
+     */
+    public boolean isFullBackupDue(int fullBackupInterval) {
+        return files.isEmpty() || chain.getCurrentChainLength() == 0 || chain.getCurrentChainLength() >= fullBackupInterval;
+    }
+
+    /**
+     * Gets whether the specified file has changed since the last backup
+     * <p>
+     * Files with a different size or modification time are checksummed, so files that were only touched aren't included
+     * @param path the relative path of the file
+     * @param file the file
+     * @param state the current size and modification time of the file
+     * @return whether the file has changed
+     */
+    public boolean hasChanged(String path, File file, FileState state) {
+        FileState previousState = files.get(path);
+
+        if (previousState == null) {
+            return true;
+        }
+
+        if (previousState.size == state.size && previousState.lastModified == state.lastModified) {
+            return false;
+        }
+
+        if (previousState.size != state.size) {
+            return true;
+        }
+
+        try {
+            return getCrc(file) != previousState.crc;
+        } catch (IOException exception) {
+            return true;
+        }
+    }
+
+    /**
+     * Gets the files that were in the last backup, but aren't in the specified list of files
+     * @param currentFiles the relative paths of the files in the backup set now
+     * @return the relative paths of the deleted files
+     */
+    public List<String> getDeletedFiles(Collection<String> currentFiles) {
+        Set<String> currentFileSet = new HashSet<>(currentFiles);
+        List<String> deletedFiles = new ArrayList<>();
+
+        for (String path : files.keySet()) {
+            if (!currentFileSet.contains(path)) {
+                deletedFiles.add(path);
+            }
+        }
+
+        return deletedFiles;
+    }
+
+    /**
+     * Updates the manifest after an archive of the set was created
+     * @param archiveName the file name of the archive
+     * @param fullBackup whether the archive is a full backup
+     * @param currentStates the size and modification time of every file in the backup set
+     * @param archivedCrcs the checksums of the files that were included in the archive
+     * @param archivedRegionTimestamps the chunk timestamps of the region files captured in the archive
+     */
+    public void update(String archiveName, boolean fullBackup, Map<String, FileState> currentStates, Map<String, Long> archivedCrcs, Map<String, int[]> archivedRegionTimestamps) {
+        Map<String, FileState> newFiles = new HashMap<>();
+        Map<String, int[]> newRegionTimestamps = new HashMap<>();
+
+        for (Map.Entry<String, FileState> file : currentStates.entrySet()) {
+            String path = file.getKey();
+            FileState state = file.getValue();
+
+            Long crc = archivedCrcs.get(path);
+            if (crc != null) {
+                newFiles.put(path, new FileState(state.size, state.lastModified, crc));
+
+                if (archivedRegionTimestamps.containsKey(path)) {
+                    newRegionTimestamps.put(path, archivedRegionTimestamps.get(path));
+                }
+
+                continue;
+            }
+
+            // Unchanged files keep the checksum from when they were archived, files that failed to be archived are dropped
+            FileState previousState = files.get(path);
+            if (!fullBackup && previousState != null && previousState.size == state.size) {
+                newFiles.put(path, new FileState(state.size, state.lastModified, previousState.crc));
+
+                if (regionTimestamps.containsKey(path)) {
+                    newRegionTimestamps.put(path, regionTimestamps.get(path));
+                }
+            }
+        }
+
+        files.clear();
+        files.putAll(newFiles);
+
+        regionTimestamps.clear();
+        regionTimestamps.putAll(newRegionTimestamps);
+
+        chain.add(archiveName, fullBackup);
+    }
+
+    /**
+     * Gets the chunk timestamps of the region files at the time of the last backup
+     * @return the timestamps, by relative path
+     */
+    public Map<String, int[]> getRegionTimestamps() {
+        return regionTimestamps;
+    }
+
+    /**
+     * Gets the chain of archives created from the set
+     * @return the chain
+     */
+    public BackupChain getChain() {
+        return chain;
+    }
+
+    /**
+     * Calculates the CRC-32 checksum of the specified file, the same checksum stored in zip files
+     * @param file the file
+     * @return the checksum
+     * @throws IOException
+     */
+    private static long getCrc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int length;
+            while ((length = inputStream.read(buffer)) != -1) {
+                crc.update(buffer, 0, length);
+            }
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * The size, modification time and checksum of a file
+     */
+    public static class FileState {
+        public final long size;
+        public final long lastModified;
+        public final long crc;
+
+        public FileState(long size, long lastModified) {
+            this(size, lastModified, 0);
+        }
+
+        public FileState(long size, long lastModified, long crc) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.crc = crc;
+        }
+    }
+
+    /**
+     * The archives created from a backup set, oldest first
+     * <p>
+     * Each full backup starts a new chain, and every incremental backup depends on all of the archives before it in
+     * its chain. Archives can only be deleted a whole chain at a time, starting with the oldest chain.
+     */
+    public static class BackupChain {
+        private final File folder;
+        private final List<String> archiveNames = new ArrayList<>();
+        private final List<Boolean> fullBackups = new ArrayList<>();
+
+        private BackupChain(File folder) {
+            this.folder = folder;
+        }
+
+        /**
+         * Loads the chain stored in the specified folder
+         * <p>
+         * If there is no chain, or it can't be read, an empty chain is returned
+         * @param folder the folder containing the backups of the set
+         * @return the chain
+         */
+        public static BackupChain load(File folder) {
+            BackupChain chain = new BackupChain(folder);
+
+            File chainFile = new File(folder, CHAIN_FILE_NAME);
+            if (!chainFile.exists()) {
+                return chain;
+            }
+
+            try {
+                JSONArray archives = new JSONArray(new String(Files.readAllBytes(chainFile.toPath()), StandardCharsets.UTF_8));
+
+                for (int i = 0; i < archives.length(); i++) {
+                    JSONObject archive = archives.getJSONObject(i);
+
+                    chain.archiveNames.add(archive.getString("name"));
+                    chain.fullBackups.add(archive.getBoolean("full"));
+                }
+            } catch (Exception exception) {
+                chain.archiveNames.clear();
+                chain.fullBackups.clear();
+            }
+
+            return chain;
+        }
+
+        /**
+         * Saves the chain to the folder it was loaded from
+         * @throws IOException
+         */
+        private void save() throws IOException {
+            JSONArray archives = new JSONArray();
+
+            for (int i = 0; i < archiveNames.size(); i++) {
+                JSONObject archive = new JSONObject();
+                archive.put("name", archiveNames.get(i));
+                archive.put("full", fullBackups.get(i));
+
+                archives.put(archive);
+            }
+
+            Files.write(new File(folder, CHAIN_FILE_NAME).toPath(), archives.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void add(String archiveName, boolean fullBackup) {
+            archiveNames.add(archiveName);
+            fullBackups.add(fullBackup);
+        }
+
+        /**
+         * Gets the number of archives in the newest chain
+         * @return the number of archives, or 0 if there are none
+         */
+        public int getCurrentChainLength() {
+            int lastFullBackup = fullBackups.lastIndexOf(true);
+
+            if (lastFullBackup == -1) {
+                return 0;
+            }
+
+            return archiveNames.size() - lastFullBackup;
+        }
+
+        /**
+         * Gets whether the specified archive is an incremental backup
+         * @param archiveName the file name of the archive
+         * @return whether the archive is an incremental backup
+         */
+        public boolean isIncremental(String archiveName) {
+            int index = archiveNames.lastIndexOf(archiveName);
+
+            return index != -1 && !fullBackups.get(index);
+        }
+
+        /**
+         * Gets the number of the newest archives to keep so at least the specified number are kept,
+         * without keeping an incremental backup whose full backup was deleted
+         * @param keepCount the minimum number of archives to keep, or -1 to keep all
+         * @return the number of archives to keep, or -1 to keep all
+         */
+        public int getKeepCount(int keepCount) {
+            if (keepCount <= 0 || archiveNames.isEmpty()) {
+                return keepCount;
+            }
+
+            int kept = 0;
+            for (int i = archiveNames.size() - 1; i >= 0; i--) {
+                kept++;
+
+                if (kept >= keepCount && fullBackups.get(i)) {
+                    return kept;
+                }
+            }
+
+            return kept;
+        }
+
+        /**
+         * Forgets the archives older than the specified number of newest archives
+         * @param keepCount the number of archives to remember, or -1 to remember all
+         */
+        public void trim(int keepCount) {
+            if (keepCount == -1) {
+                return;
+            }
+
+            while (archiveNames.size() > keepCount) {
+                archiveNames.remove(0);
+                fullBackups.remove(0);
+            }
+        }
+    }
+}
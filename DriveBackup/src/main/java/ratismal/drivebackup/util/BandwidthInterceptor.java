@@ -0,0 +1,91 @@
+package ratismal.drivebackup.util;
+
+import java.io.IOException;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+/**
+ * Throttles the bodies of the requests sent by an HTTP client, so the backup method using it stays within its
+ * bandwidth limits
+ */
+public class BandwidthInterceptor implements Interceptor {
+    private final BandwidthLimiter limiter;
+
+    /**
+     * Creates an interceptor throttling requests with the specified bandwidth limiter
+     * @param limiter the bandwidth limiter of the backup method
+     */
+    public BandwidthInterceptor(BandwidthLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    @Override
+    public Response intercept(Interceptor.Chain chain) throws IOException {
+        Request request = chain.request();
+
+        RequestBody body = request.body();
+        if (body == null) {
+            return chain.proceed(request);
+        }
+
+        return chain.proceed(request.newBuilder()
+            .method(request.method(), new ThrottledRequestBody(body))
+            .build());
+    }
+
+    /**
+     * A request body which waits until each part of it can be sent before writing it
+     */
+    private class ThrottledRequestBody extends RequestBody {
+        private final RequestBody body;
+
+        private ThrottledRequestBody(RequestBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return body.contentType();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return body.contentLength();
+        }
+
+        @Override
+        public boolean isOneShot() {
+            return body.isOneShot();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            BufferedSink throttledSink = Okio.buffer(new ForwardingSink(sink) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    while (byteCount > 0) {
+                        long length = Math.min(byteCount, BandwidthLimiter.MAX_BURST);
+
+                        limiter.acquire(length);
+                        super.write(source, length);
+
+                        byteCount -= length;
+                    }
+                }
+            });
+
+            body.writeTo(throttledSink);
+
+            // Not closed, as that would close the connection's sink
+            throttledSink.emit();
+        }
+    }
+}
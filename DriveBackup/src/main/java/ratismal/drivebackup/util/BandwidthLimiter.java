@@ -0,0 +1,97 @@
+package ratismal.drivebackup.util;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ratismal.drivebackup.config.ConfigParser;
+import ratismal.drivebackup.config.ConfigParser.Config;
+import ratismal.drivebackup.config.configSections.BandwidthLimits;
+import ratismal.drivebackup.config.configSections.BandwidthLimits.BandwidthScheduleEntry;
+
+/**
+ * Limits how fast backups are uploaded, in total and to each backup method
+ * <p>
+ * Each backup method has a token bucket, and every backup method shares another one for the total limit. Uploading
+ * takes as many bytes from both buckets as are sent, and waits while either of them is in debt. The buckets fill at
+ * the current limits, which are looked up every time, so a change to the schedule, the players online or the config
+ * applies straight away. While players are online, the total limit is lowered to the limit for players being online.
+ */
+public class BandwidthLimiter {
+    /**
+     * The most bytes sent at once, so uploads are spread evenly over time rather than sent in bursts
+     */
+    public static final int MAX_BURST = 64 * 1024;
+
+    private static final TokenBucket totalBucket = new TokenBucket();
+    private static final Map<String, BandwidthLimiter> limiters = new ConcurrentHashMap<>();
+
+    private final String method;
+    private final TokenBucket bucket = new TokenBucket();
+
+    private BandwidthLimiter(String method) {
+        this.method = method;
+    }
+
+    /**
+     * Gets the bandwidth limiter of the specified backup method
+     * @param method the name of the section of the backup method in the config (ex. googledrive, ftp)
+     * @return the bandwidth limiter
+     */
+    public static BandwidthLimiter forMethod(String method) {
+        return limiters.computeIfAbsent(method, BandwidthLimiter::new);
+    }
+
+    /**
+     * Waits until the specified number of bytes can be sent to the backup method
+     * @param bytes the number of bytes
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void acquire(long bytes) throws InterruptedIOException {
+        BandwidthLimits limits = ConfigParser.getConfig().bandwidthLimits;
+
+        Long methodLimit = limits.methodLimits.get(method);
+        bucket.take(bytes, methodLimit != null ? methodLimit : 0);
+        totalBucket.take(bytes, getTotalLimit(limits));
+    }
+
+    /**
+     * Wraps the specified stream, so reading it waits as long as needed for the bytes read to be sent
+     * @param inputStream the stream
+     * @return the throttled stream
+     */
+    public InputStream throttle(InputStream inputStream) {
+        return new ThrottledInputStream(inputStream, this::acquire);
+    }
+
+    /**
+     * Gets the current limit on the total bandwidth used by every backup method
+     * @param limits the bandwidth limits in the config
+     * @return the limit in bytes per second, or 0 for no limit
+     */
+    private static long getTotalLimit(BandwidthLimits limits) {
+        long limit = limits.limit;
+
+        if (limits.schedule.length != 0) {
+            Config config = ConfigParser.getConfig();
+            LocalTime now = ZonedDateTime.now(config.advanced.dateTimezone).toLocalTime();
+
+            for (BandwidthScheduleEntry entry : limits.schedule) {
+                if (entry.contains(now)) {
+                    limit = entry.limit;
+
+                    break;
+                }
+            }
+        }
+
+        if (limits.playersOnlineLimit != 0 && TickMonitor.isRunning() && TickMonitor.getOnlinePlayers() != 0) {
+            limit = limit == 0 ? limits.playersOnlineLimit : Math.min(limit, limits.playersOnlineLimit);
+        }
+
+        return limit;
+    }
+}
@@ -1,20 +1,21 @@
 package ratismal.drivebackup.util;
 
 import java.nio.file.PathMatcher;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BlacklistEntry {
     private String globPattern;
     private PathMatcher pathMatcher;
-    private int blacklistedFiles;
+    private final AtomicInteger blacklistedFiles;
 
     public BlacklistEntry(String globPattern, PathMatcher pathMatcher) {
         this.globPattern = globPattern;
         this.pathMatcher = pathMatcher;
-        this.blacklistedFiles = 0;
+        this.blacklistedFiles = new AtomicInteger();
     }
 
     public void incrementBlacklistedFiles() {
-        blacklistedFiles++;
+        blacklistedFiles.incrementAndGet();
     }
 
     public String getGlobPattern() {
@@ -26,6 +27,6 @@ public class BlacklistEntry {
     }
 
     public int getBlacklistedFiles() {
-        return blacklistedFiles;
+        return blacklistedFiles.get();
     }
 }
@@ -0,0 +1,241 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Matches relative paths against every entry of a blacklist at once
+ * <p>
+ * The leading folders of each glob that don't contain wildcards are stored in a tree, so a path is only tested against
+ * the globs whose leading folders it is in, and the text after the last wildcard of a glob is checked before the glob
+ * itself. Globs ending in {@code /**} blacklist whole folders, so folders matching the rest of the glob can be skipped
+ * without listing the files in them.
+ * <p>
+ * Globs are case-insensitive on Windows, so paths are compared in lower case there.
+ */
+public class BlacklistMatcher {
+    private static final String FOLDER_SUFFIX = "/**";
+    private static final String GLOB_CHARACTERS = "*?[]{}\\";
+    private static final boolean CASE_INSENSITIVE = File.separatorChar == '\\';
+
+    private final Node root = new Node();
+    private final List<Rule> folderRules = new ArrayList<>();
+    private final Map<BlacklistEntry, Integer> indexes = new IdentityHashMap<>();
+
+    /**
+     * Compiles the specified blacklist
+     * @param blacklist the blacklist, in order of precedence
+     */
+    public BlacklistMatcher(List<BlacklistEntry> blacklist) {
+        for (int i = 0; i < blacklist.size(); i++) {
+            BlacklistEntry entry = blacklist.get(i);
+            String glob = entry.getGlobPattern();
+            indexes.put(entry, i);
+
+            Node node = root;
+            for (String folder : getLiteralPrefix(glob)) {
+                node = node.children.computeIfAbsent(normalize(folder), name -> new Node());
+            }
+            node.rules.add(new Rule(i, entry, entry.getPathMatcher(), getLiteralSuffix(glob), null));
+
+            if (glob.endsWith(FOLDER_SUFFIX) && glob.length() > FOLDER_SUFFIX.length()) {
+                String folderGlob = glob.substring(0, glob.length() - FOLDER_SUFFIX.length());
+
+                folderRules.add(new Rule(
+                    i,
+                    entry,
+                    FileSystems.getDefault().getPathMatcher("glob:" + folderGlob),
+                    getLiteralSuffix(folderGlob),
+                    getLiteralPrefix(folderGlob)));
+            }
+        }
+    }
+
+    /**
+     * Gets the first entry of the blacklist matching the specified file
+     * @param relativePath the path of the file, relative to the folder being backed up
+     * @return the entry, or {@code null} if the file isn't blacklisted
+     */
+    public BlacklistEntry match(Path relativePath) {
+        return match(relativePath, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets the first entry of the blacklist matching the specified file, which is in a folder blacklisted as a whole
+     * by the specified entry
+     * <p>
+     * This is the specified entry, unless an entry before it also matches the file
+     * @param relativePath the path of the file, relative to the folder being backed up
+     * @param folderEntry the entry blacklisting the folder the file is in
+     * @return the entry
+     */
+    public BlacklistEntry matchInFolder(Path relativePath, BlacklistEntry folderEntry) {
+        BlacklistEntry entry = match(relativePath, indexes.get(folderEntry));
+
+        return entry != null ? entry : folderEntry;
+    }
+
+    /**
+     * Gets whether any entry before the specified entry may match files in a folder it blacklists as a whole
+     * @param folderEntry the entry blacklisting the folder
+     * @return whether {@link #matchInFolder(Path, BlacklistEntry)} may return another entry
+     */
+    public boolean hasEntriesBefore(BlacklistEntry folderEntry) {
+        return indexes.get(folderEntry) > 0;
+    }
+
+    /**
+     * Gets the first entry of the blacklist matching the specified file, out of the entries before the specified index
+     * @param relativePath the path of the file
+     * @param maxIndex the index of the first entry not to match against
+     * @return the entry, or {@code null} if no entry matches
+     */
+    private BlacklistEntry match(Path relativePath, int maxIndex) {
+        String path = normalize(relativePath.toString());
+        Rule match = null;
+
+        Node node = root;
+        int depth = 0;
+        while (node != null) {
+            for (Rule rule : node.rules) {
+                if (rule.index < maxIndex && (match == null || rule.index < match.index) && rule.matches(relativePath, path)) {
+                    match = rule;
+                }
+            }
+
+            if (depth == relativePath.getNameCount()) {
+                break;
+            }
+
+            node = node.children.get(normalize(relativePath.getName(depth).toString()));
+            depth++;
+        }
+
+        return match != null ? match.entry : null;
+    }
+
+    /**
+     * Gets the first entry of the blacklist that blacklists every file in the specified folder
+     * @param relativePath the path of the folder, relative to the folder being backed up
+     * @return the entry, or {@code null} if the folder needs to be scanned
+     */
+    public BlacklistEntry matchFolder(Path relativePath) {
+        String path = normalize(relativePath.toString());
+
+        for (Rule rule : folderRules) {
+            if (rule.isInPrefix(relativePath) && rule.matches(relativePath, path)) {
+                return rule.entry;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Gets whether any entry of the blacklist can blacklist whole folders
+     * @return whether {@link #matchFolder(Path)} can return an entry
+     */
+    public boolean hasFolderRules() {
+        return !folderRules.isEmpty();
+    }
+
+    /**
+     * Gets the leading folders of the specified glob which don't contain wildcards
+     * @param glob the glob
+     * @return the folders, which include the file name if the glob doesn't contain any wildcards
+     */
+    private static List<String> getLiteralPrefix(String glob) {
+        List<String> segments = Arrays.asList(glob.split("/", -1));
+
+        for (int i = 0; i < segments.size(); i++) {
+            if (containsGlobCharacter(segments.get(i)) || segments.get(i).isEmpty()) {
+                return segments.subList(0, i);
+            }
+        }
+
+        return segments;
+    }
+
+    /**
+     * Gets the text after the last wildcard of the specified glob, which every matching path must end with
+     * @param glob the glob
+     * @return the text
+     */
+    private static String getLiteralSuffix(String glob) {
+        for (int i = glob.length() - 1; i >= 0; i--) {
+            if (GLOB_CHARACTERS.indexOf(glob.charAt(i)) != -1) {
+                return glob.substring(i + 1);
+            }
+        }
+
+        return glob;
+    }
+
+    private static String normalize(String text) {
+        return CASE_INSENSITIVE ? text.toLowerCase(Locale.ROOT) : text;
+    }
+
+    private static boolean containsGlobCharacter(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(text.charAt(i)) != -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * A folder in the tree of the leading folders of the globs
+     */
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Rule> rules = new ArrayList<>();
+    }
+
+    /**
+     * A glob of the blacklist, with the text it can be quickly rejected by
+     */
+    private static class Rule {
+        private final int index;
+        private final BlacklistEntry entry;
+        private final PathMatcher pathMatcher;
+        private final String suffix;
+        private final List<String> prefix;
+
+        private Rule(int index, BlacklistEntry entry, PathMatcher pathMatcher, String suffix, List<String> prefix) {
+            this.index = index;
+            this.entry = entry;
+            this.pathMatcher = pathMatcher;
+            this.suffix = normalize(suffix.replace('/', File.separatorChar));
+            this.prefix = prefix;
+        }
+
+        private boolean isInPrefix(Path relativePath) {
+            if (relativePath.getNameCount() < prefix.size()) {
+                return false;
+            }
+
+            for (int i = 0; i < prefix.size(); i++) {
+                if (!normalize(relativePath.getName(i).toString()).equals(normalize(prefix.get(i)))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean matches(Path relativePath, String path) {
+            return path.endsWith(suffix) && pathMatcher.matches(relativePath);
+        }
+    }
+}
@@ -0,0 +1,751 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A content-addressable store of deduplicated backups
+ * <p>
+ * Files are split into content-defined chunks, which are identified by their SHA-256 hash. Chunks that aren't already
+ * in the store are compressed and appended to pack files. Each backup is a snapshot listing the chunks of every file,
+ * so only the pack files containing new chunks and the snapshot need to be uploaded.
+ * <p>
+ * The store contains the following files:
+ * <ul>
+ * <li>{@code pack-<hash>.pack} - raw deflated chunks, one after another</li>
+ * <li>{@code <name>.snapshot} - one line per file: {@code path \t size \t comma-separated chunk hashes}</li>
+ * <li>{@code .chunk-index} - one line per chunk: {@code hash \t pack name \t offset \t compressed length}</li>
+ * <li>{@code .pending-uploads} - the pack and snapshot files that haven't been uploaded to every backup method yet</li>
+ * </ul>
+ * <p>
+ * To restore, download the snapshot and every pack file into one folder, then run {@link #restoreSnapshot(File, File)}.
+ * The chunk index isn't uploaded, so it is rebuilt from the pack files. This can be done without the server running with
+ * {@code java -cp DriveBackupV2.jar ratismal.drivebackup.util.ChunkStore <snapshot file> <output folder>}.
+ */
+public class ChunkStore {
+    public static final String SNAPSHOT_EXTENSION = ".snapshot";
+    public static final String PACK_EXTENSION = ".pack";
+
+    private static final String INDEX_FILE_NAME = ".chunk-index";
+    private static final String PENDING_UPLOADS_FILE_NAME = ".pending-uploads";
+
+    /**
+     * Approximate size of the pack files, once this is exceeded a new pack file is started
+     */
+    private static final long PACK_SIZE = 16 * 1024 * 1024;
+
+    private final File folder;
+    private final Map<String, ChunkLocation> index = new HashMap<>();
+    private final Set<String> pendingUploads = new LinkedHashSet<>();
+
+    private PackWriter packWriter;
+
+    private ChunkStore(File folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Opens the store in the specified folder, creating it if it doesn't exist
+     * @param folder the folder
+     * @return the store
+     * @throws IOException
+     */
+    public static ChunkStore open(File folder) throws IOException {
+        ChunkStore store = new ChunkStore(folder);
+
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+
+        File indexFile = new File(folder, INDEX_FILE_NAME);
+        if (indexFile.exists()) {
+            try (BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+
+                    store.index.put(fields[0], new ChunkLocation(fields[1], Long.parseLong(fields[2]), Integer.parseInt(fields[3])));
+                }
+            }
+        }
+
+        File pendingUploadsFile = new File(folder, PENDING_UPLOADS_FILE_NAME);
+        if (pendingUploadsFile.exists()) {
+            store.pendingUploads.addAll(Files.readAllLines(pendingUploadsFile.toPath(), StandardCharsets.UTF_8));
+        }
+
+        return store;
+    }
+
+    /**
+     * Creates a snapshot of the specified files, adding any chunks not already in the store
+     * @param snapshotName the name of the snapshot, without the extension
+     * @param inputFolderPath the path of the folder the files are in
+     * @param files the relative paths of the files
+     * @param level the deflate compression level of the new chunks
+     * @param diskGovernor the governor limiting how fast the files are read
+     * @return the snapshot file
+     * @throws IOException
+     */
+    public File createSnapshot(String snapshotName, String inputFolderPath, List<String> files, int level, DiskGovernor diskGovernor) throws IOException {
+        File snapshotFile = new File(folder, snapshotName + SNAPSHOT_EXTENSION);
+        File tempFile = new File(folder, snapshotName + SNAPSHOT_EXTENSION + ".tmp");
+
+        int newChunks = 0;
+        int reusedChunks = 0;
+        List<String> addedChunks = new ArrayList<>();
+
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+                for (String file : files) {
+                    List<String> chunkHashes = new ArrayList<>();
+                    long size = 0;
+
+                    try (InputStream inputStream = diskGovernor.open(new File(inputFolderPath, file))) {
+                        Chunker chunker = new Chunker(inputStream);
+
+                        byte[] chunk;
+                        while ((chunk = chunker.next()) != null) {
+                            String hash = sha256(chunk);
+                            size += chunk.length;
+
+                            if (index.containsKey(hash)) {
+                                reusedChunks++;
+                            } else {
+                                addChunk(hash, chunk, level);
+                                addedChunks.add(hash);
+                                newChunks++;
+                            }
+
+                            chunkHashes.add(hash);
+                        }
+                    } catch (IOException exception) {
+                        String filePath = new File(inputFolderPath, file).getPath();
+
+                        if (!filePath.endsWith(".lock")) { // Don't send warning for .lock files, they will always be locked
+                            MessageUtil.Builder().text("Failed to include \"" + filePath + "\" in the backup, is it locked?").toConsole(true).send();
+                        }
+
+                        continue;
+                    }
+
+                    writer.write(file + "\t" + size + "\t" + String.join(",", chunkHashes));
+                    writer.newLine();
+                }
+            }
+
+            finishPack();
+            Files.move(tempFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException exception) {
+            discardChunks(addedChunks);
+            tempFile.delete();
+
+            throw exception;
+        }
+
+        pendingUploads.add(snapshotFile.getName());
+
+        MessageUtil.Builder().text("Stored " + newChunks + " new chunk(s), " + reusedChunks + " chunk(s) were already backed up").toConsole(true).send();
+
+        return snapshotFile;
+    }
+
+    /**
+     * Gets the pack and snapshot files that haven't been uploaded to every backup method yet, oldest first
+     * @return the files
+     */
+    public List<File> getPendingUploads() {
+        List<File> files = new ArrayList<>();
+
+        for (String fileName : pendingUploads) {
+            File file = new File(folder, fileName);
+
+            if (file.exists()) {
+                files.add(file);
+            }
+        }
+
+        return files;
+    }
+
+    /**
+     * Marks the specified files as uploaded to every backup method
+     * <p>
+     * If pack files aren't kept locally, they are deleted once uploaded. Snapshots are always kept, as they are
+     * needed to work out which chunks are still in use.
+     * @param files the uploaded files
+     * @param keepPacks whether to keep the pack files locally
+     */
+    public void markUploaded(List<File> files, boolean keepPacks) {
+        for (File file : files) {
+            pendingUploads.remove(file.getName());
+
+            if (!keepPacks && file.getName().endsWith(PACK_EXTENSION)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes the oldest snapshots past the specified number to retain, then deletes the pack files which
+     * only contain chunks no remaining snapshot uses
+     * <p>
+     * Pack files containing both used and unused chunks are kept as they are.
+     * @param keepCount the number of snapshots to retain, or -1 to retain all
+     * @return the names of the deleted snapshot and pack files
+     * @throws IOException
+     */
+    public List<String> deleteOldSnapshots(int keepCount) throws IOException {
+        List<String> deletedFiles = new ArrayList<>();
+
+        if (keepCount == -1) {
+            return deletedFiles;
+        }
+
+        TreeMap<Long, File> snapshots = getSnapshots();
+        if (snapshots.size() <= keepCount) {
+            return deletedFiles;
+        }
+
+        MessageUtil.Builder().text("There are " + snapshots.size() + " snapshot(s) which exceeds the limit of " + keepCount + ", deleting oldest").toConsole(true).send();
+
+        while (snapshots.size() > keepCount) {
+            File snapshot = snapshots.pollFirstEntry().getValue();
+
+            if (snapshot.delete()) {
+                pendingUploads.remove(snapshot.getName());
+                deletedFiles.add(snapshot.getName());
+            }
+        }
+
+        Set<String> usedChunks = new HashSet<>();
+        for (File snapshot : snapshots.values()) {
+            try (BufferedReader reader = Files.newBufferedReader(snapshot.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+
+                    if (!fields[2].isEmpty()) {
+                        usedChunks.addAll(Arrays.asList(fields[2].split(",")));
+                    }
+                }
+            }
+        }
+
+        Set<String> usedPacks = new HashSet<>();
+        Set<String> allPacks = new HashSet<>();
+        for (Map.Entry<String, ChunkLocation> chunk : index.entrySet()) {
+            allPacks.add(chunk.getValue().pack);
+
+            if (usedChunks.contains(chunk.getKey())) {
+                usedPacks.add(chunk.getValue().pack);
+            }
+        }
+
+        allPacks.removeAll(usedPacks);
+        index.values().removeIf(location -> allPacks.contains(location.pack));
+
+        for (String pack : allPacks) {
+            new File(folder, pack).delete();
+            pendingUploads.remove(pack);
+            deletedFiles.add(pack);
+        }
+
+        if (!allPacks.isEmpty()) {
+            MessageUtil.Builder().text("Deleted " + allPacks.size() + " pack file(s) no longer used by any snapshot").toConsole(true).send();
+        }
+
+        return deletedFiles;
+    }
+
+    /**
+     * Saves the chunk index and the list of pending uploads
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        File indexFile = new File(folder, INDEX_FILE_NAME);
+        File tempFile = new File(folder, INDEX_FILE_NAME + ".tmp");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, ChunkLocation> chunk : index.entrySet()) {
+                ChunkLocation location = chunk.getValue();
+
+                writer.write(chunk.getKey() + "\t" + location.pack + "\t" + location.offset + "\t" + location.length);
+                writer.newLine();
+            }
+        }
+
+        Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(new File(folder, PENDING_UPLOADS_FILE_NAME).toPath(), pendingUploads, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the snapshots in the store, keyed by modification time
+     * @return the snapshots
+     */
+    private TreeMap<Long, File> getSnapshots() {
+        TreeMap<Long, File> snapshots = new TreeMap<>();
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return snapshots;
+        }
+
+        for (File file : files) {
+            if (file.getName().endsWith(SNAPSHOT_EXTENSION)) {
+                long lastModified = file.lastModified();
+
+                while (snapshots.containsKey(lastModified)) {
+                    lastModified++;
+                }
+
+                snapshots.put(lastModified, file);
+            }
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Compresses the specified chunk and appends it to the current pack file
+     * @param hash the hash of the chunk
+     * @param chunk the chunk
+     * @param level the deflate compression level
+     * @throws IOException
+     */
+    private void addChunk(String hash, byte[] chunk, int level) throws IOException {
+        if (packWriter == null) {
+            packWriter = new PackWriter(new File(folder, "pack-writing" + PACK_EXTENSION + ".tmp"));
+        }
+
+        byte[] compressed = deflate(chunk, level);
+        long offset = packWriter.write(compressed);
+
+        index.put(hash, new ChunkLocation(null, offset, compressed.length));
+        packWriter.chunkHashes.add(hash);
+
+        if (packWriter.size >= PACK_SIZE) {
+            finishPack();
+        }
+    }
+
+    /**
+     * Closes the current pack file, and names it after the hash of its contents
+     * @throws IOException
+     */
+    private void finishPack() throws IOException {
+        if (packWriter == null) {
+            return;
+        }
+
+        PackWriter writer = packWriter;
+        packWriter = null;
+        writer.close();
+
+        String packName = "pack-" + toHex(writer.digest.digest()).substring(0, 32) + PACK_EXTENSION;
+        Files.move(writer.file.toPath(), new File(folder, packName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        for (String hash : writer.chunkHashes) {
+            ChunkLocation location = index.get(hash);
+            index.put(hash, new ChunkLocation(packName, location.offset, location.length));
+        }
+
+        pendingUploads.add(packName);
+    }
+
+    /**
+     * Removes the specified chunks from the store, and deletes the pack files they were written to
+     * <p>
+     * Used when a snapshot fails, as the chunks it added are in pack files of their own which haven't been saved to the
+     * list of pending uploads, so they would never be uploaded, nor deleted once no snapshot uses them.
+     * @param chunkHashes the hashes of the chunks added by the snapshot
+     */
+    private void discardChunks(List<String> chunkHashes) {
+        if (packWriter != null) {
+            try {
+                packWriter.close();
+            } catch (IOException exception) {
+                // The pack file is deleted anyway
+            }
+
+            packWriter.file.delete();
+            packWriter = null;
+        }
+
+        Set<String> packs = new HashSet<>();
+        for (String hash : chunkHashes) {
+            ChunkLocation location = index.remove(hash);
+
+            if (location != null && location.pack != null) {
+                packs.add(location.pack);
+            }
+        }
+
+        for (String pack : packs) {
+            new File(folder, pack).delete();
+            pendingUploads.remove(pack);
+        }
+    }
+
+    /**
+     * Restores the files in the specified snapshot
+     * <p>
+     * The pack files must be in the same folder as the snapshot. As the chunk index isn't uploaded, every pack file in
+     * the folder is decompressed to find the chunks in it.
+     * @param snapshotFile the snapshot
+     * @param outputFolder the folder to restore the files to
+     * @return the number of files restored
+     * @throws IOException if a chunk is missing or a file can't be written
+     */
+    public static int restoreSnapshot(File snapshotFile, File outputFolder) throws IOException {
+        File packFolder = snapshotFile.getAbsoluteFile().getParentFile();
+
+        Map<String, ChunkLocation> index = new HashMap<>();
+        File[] packFiles = packFolder.listFiles((dir, name) -> name.endsWith(PACK_EXTENSION));
+        if (packFiles != null) {
+            for (File packFile : packFiles) {
+                indexPack(packFile, index);
+            }
+        }
+
+        int restoredFiles = 0;
+        byte[] chunk = new byte[Chunker.MAX_CHUNK_SIZE + 1];
+
+        try (BufferedReader reader = Files.newBufferedReader(snapshotFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+
+                File file = new File(outputFolder, fields[0]);
+                file.getParentFile().mkdirs();
+
+                try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(file))) {
+                    if (!fields[2].isEmpty()) {
+                        for (String hash : fields[2].split(",")) {
+                            ChunkLocation location = index.get(hash);
+                            if (location == null) {
+                                throw new IOException("Chunk " + hash + " of \"" + fields[0] + "\" isn't in any pack file");
+                            }
+
+                            outputStream.write(chunk, 0, readChunk(new File(packFolder, location.pack), location, chunk));
+                        }
+                    }
+                }
+
+                restoredFiles++;
+            }
+        }
+
+        return restoredFiles;
+    }
+
+    /**
+     * Restores the files in a snapshot
+     * @param args the snapshot file, in a folder with the pack files, then the folder to restore the files to
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.out.println("Usage: java -cp DriveBackupV2.jar ratismal.drivebackup.util.ChunkStore <snapshot file> <output folder>");
+
+            return;
+        }
+
+        System.out.println("Restored " + restoreSnapshot(new File(args[0]), new File(args[1])) + " file(s)");
+    }
+
+    /**
+     * Adds the location of every chunk in the specified pack file to the specified index
+     * @param packFile the pack file
+     * @param index the index
+     * @throws IOException
+     */
+    private static void indexPack(File packFile, Map<String, ChunkLocation> index) throws IOException {
+        byte[] pack = Files.readAllBytes(packFile.toPath());
+        // An extra byte, as the inflater may need input past the end of the last chunk
+        byte[] input = Arrays.copyOf(pack, pack.length + 1);
+        byte[] chunk = new byte[Chunker.MAX_CHUNK_SIZE + 1];
+
+        Inflater inflater = new Inflater(true);
+
+        try {
+            int offset = 0;
+            while (offset < pack.length) {
+                inflater.reset();
+                inflater.setInput(input, offset, input.length - offset);
+
+                int length = inflate(inflater, chunk, packFile);
+                int compressedLength = input.length - offset - inflater.getRemaining();
+
+                MessageDigest digest = newDigest();
+                digest.update(chunk, 0, length);
+                index.put(toHex(digest.digest()), new ChunkLocation(packFile.getName(), offset, compressedLength));
+
+                offset += compressedLength;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reads and decompresses the chunk at the specified location
+     * @param packFile the pack file the chunk is in
+     * @param location the location of the chunk
+     * @param chunk the array to decompress the chunk into
+     * @return the length of the chunk
+     * @throws IOException
+     */
+    private static int readChunk(File packFile, ChunkLocation location, byte[] chunk) throws IOException {
+        // An extra byte, as the inflater may need input past the end of the chunk
+        byte[] input = new byte[location.length + 1];
+
+        try (RandomAccessFile pack = new RandomAccessFile(packFile, "r")) {
+            pack.seek(location.offset);
+            pack.readFully(input, 0, location.length);
+        }
+
+        Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(input);
+
+            return inflate(inflater, chunk, packFile);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Decompresses a single chunk from the input of the specified inflater
+     * @param inflater the inflater
+     * @param chunk the array to decompress the chunk into, which must be larger than the largest chunk, so the inflater
+     * has room to finish
+     * @param packFile the pack file the chunk is in, for the error message
+     * @return the length of the chunk
+     * @throws IOException if the chunk is corrupt
+     */
+    private static int inflate(Inflater inflater, byte[] chunk, File packFile) throws IOException {
+        int length = 0;
+
+        try {
+            while (!inflater.finished()) {
+                int inflated = inflater.inflate(chunk, length, chunk.length - length);
+
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary() || length == chunk.length)) {
+                    throw new IOException("\"" + packFile.getName() + "\" is corrupt");
+                }
+
+                length += inflated;
+            }
+        } catch (DataFormatException exception) {
+            throw new IOException("\"" + packFile.getName() + "\" is corrupt", exception);
+        }
+
+        return length;
+    }
+
+    private static byte[] deflate(byte[] bytes, int level) {
+        Deflater deflater = new Deflater(level, true);
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            byte[] buffer = new byte[bytes.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static String sha256(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Where a chunk is stored
+     */
+    private static class ChunkLocation {
+        private final String pack;
+        private final long offset;
+        private final int length;
+
+        private ChunkLocation(String pack, long offset, int length) {
+            this.pack = pack;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A pack file that is being written
+     */
+    private static class PackWriter {
+        private final File file;
+        private final OutputStream outputStream;
+        private final MessageDigest digest = newDigest();
+        private final List<String> chunkHashes = new ArrayList<>();
+        private long size = 0;
+
+        private PackWriter(File file) throws IOException {
+            this.file = file;
+            this.outputStream = new FileOutputStream(file);
+        }
+
+        /**
+         * Appends the specified bytes to the pack file
+         * @param bytes the bytes
+         * @return the offset the bytes were written at
+         * @throws IOException
+         */
+        private long write(byte[] bytes) throws IOException {
+            long offset = size;
+
+            outputStream.write(bytes);
+            digest.update(bytes);
+            size += bytes.length;
+
+            return offset;
+        }
+
+        private void close() throws IOException {
+            outputStream.close();
+        }
+    }
+
+    /**
+     * Splits a stream into content-defined chunks using a gear rolling hash
+     * <p>
+     * Chunk boundaries depend only on the surrounding bytes, so inserting or removing bytes in a file only changes
+     * the chunks around the edit, and the rest of the file still deduplicates against earlier backups.
+     */
+    private static class Chunker {
+        private static final int MIN_CHUNK_SIZE = 128 * 1024;
+        private static final int MAX_CHUNK_SIZE = 2 * 1024 * 1024;
+
+        /**
+         * Cuts a chunk when the low 19 bits of the hash are zero, making chunks 512 KiB on average
+         */
+        private static final long CUT_MASK = (1L << 19) - 1;
+
+        private static final long[] GEAR = new long[256];
+
+        static {
+            // Seeded, so chunk boundaries are the same on every run
+            Random random = new Random(0x44726976654261L);
+
+            for (int i = 0; i < GEAR.length; i++) {
+                GEAR[i] = random.nextLong();
+            }
+        }
+
+        private final InputStream inputStream;
+        private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+        private int length = 0;
+        private boolean endOfStream = false;
+
+        private Chunker(InputStream inputStream) {
+            this.inputStream = inputStream;
+        }
+
+        /**
+         * Gets the next chunk of the stream
+         * @return the chunk, or {@code null} if the end of the stream was reached
+         * @throws IOException
+         */
+        private byte[] next() throws IOException {
+            while (!endOfStream && length < buffer.length) {
+                int read = inputStream.read(buffer, length, buffer.length - length);
+
+                if (read == -1) {
+                    endOfStream = true;
+                } else {
+                    length += read;
+                }
+            }
+
+            if (length == 0) {
+                return null;
+            }
+
+            int cut = findCut();
+            byte[] chunk = Arrays.copyOf(buffer, cut);
+
+            System.arraycopy(buffer, cut, buffer, 0, length - cut);
+            length -= cut;
+
+            return chunk;
+        }
+
+        private int findCut() {
+            if (length <= MIN_CHUNK_SIZE) {
+                return length;
+            }
+
+            // The hash only depends on the last 64 bytes, so the bytes before that don't need to be hashed
+            long hash = 0;
+            for (int i = MIN_CHUNK_SIZE - 64; i < length; i++) {
+                hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+
+                if (i >= MIN_CHUNK_SIZE && (hash & CUT_MASK) == 0) {
+                    return i + 1;
+                }
+            }
+
+            return length;
+        }
+    }
+}
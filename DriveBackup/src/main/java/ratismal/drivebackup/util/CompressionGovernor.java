@@ -0,0 +1,125 @@
+package ratismal.drivebackup.util;
+
+/**
+ * Slows down compressing backups while the server is struggling to keep up with its ticks
+ * <p>
+ * Thread priorities are mostly ignored on Linux, so the compression threads instead rest for part of the time they
+ * run, and fewer of them compress at once. Backups are compressed at full speed while no players are online, or
+ * while the server keeps up. Below {@code FULL_SPEED_TPS}, the share of time spent compressing and the number of
+ * threads compressing drop along with the ticks per second, down to {@code MIN_DUTY_CYCLE} at {@code MIN_SPEED_TPS}.
+ */
+public class CompressionGovernor {
+    private static final double FULL_SPEED_TPS = 19.5;
+    private static final double MIN_SPEED_TPS = 15;
+    private static final double MIN_DUTY_CYCLE = 0.1;
+
+    /**
+     * Time spent compressing before resting, in nanoseconds, long enough that the rests don't add much overhead
+     */
+    private static final long SLICE = 20_000_000;
+
+    /**
+     * Longest rest, in nanoseconds, so a recovered server is noticed quickly
+     */
+    private static final long MAX_REST = 1_000_000_000;
+
+    private final boolean enabled;
+    private final int maxWorkers;
+
+    private int activeWorkers = 0;
+    private long sliceStart = System.nanoTime();
+
+    /**
+     * Creates a compression governor
+     * @param enabled whether to throttle compression, or always compress at full speed
+     * @param maxWorkers the number of threads compressing at full speed
+     */
+    public CompressionGovernor(boolean enabled, int maxWorkers) {
+        this.enabled = enabled;
+        this.maxWorkers = maxWorkers;
+    }
+
+    /**
+     * Gets the share of time compression threads should spend compressing
+     * @return the share, from {@code MIN_DUTY_CYCLE} to 1
+     */
+    public double getDutyCycle() {
+        if (!enabled || !TickMonitor.isRunning() || TickMonitor.getOnlinePlayers() == 0) {
+            return 1;
+        }
+
+        double tps = TickMonitor.getTps();
+        if (tps >= FULL_SPEED_TPS) {
+            return 1;
+        }
+
+        if (tps <= MIN_SPEED_TPS) {
+            return MIN_DUTY_CYCLE;
+        }
+
+        return MIN_DUTY_CYCLE + (1 - MIN_DUTY_CYCLE) * (tps - MIN_SPEED_TPS) / (FULL_SPEED_TPS - MIN_SPEED_TPS);
+    }
+
+    /**
+     * Gets the number of threads that should compress at once
+     * @return the number of threads, at least 1
+     */
+    public int getWorkerLimit() {
+        return Math.max(1, (int) Math.ceil(maxWorkers * getDutyCycle()));
+    }
+
+    /**
+     * Waits until another thread is allowed to compress, then counts the current thread as compressing
+     * @throws InterruptedException
+     */
+    public synchronized void acquireWorker() throws InterruptedException {
+        while (activeWorkers >= getWorkerLimit()) {
+            // The limit changes with the ticks per second, not only when a thread stops compressing
+            wait(100);
+        }
+
+        activeWorkers++;
+    }
+
+    /**
+     * Stops counting the current thread as compressing
+     */
+    public synchronized void releaseWorker() {
+        activeWorkers--;
+        notifyAll();
+    }
+
+    /**
+     * Rests after compressing for the specified time, so the share of time spent compressing matches the duty cycle
+     * @param busyTime the time spent compressing, in nanoseconds
+     */
+    public void rest(long busyTime) {
+        double dutyCycle = getDutyCycle();
+        if (dutyCycle >= 1) {
+            return;
+        }
+
+        long restTime = Math.min((long) (busyTime * (1 - dutyCycle) / dutyCycle), MAX_REST);
+
+        try {
+            Thread.sleep(restTime / 1_000_000, (int) (restTime % 1_000_000));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Rests if the thread writing the backup has been compressing for long enough since it last rested
+     * <p>
+     * Only to be called by a single thread, as often as convenient
+     */
+    public void pace() {
+        long busyTime = System.nanoTime() - sliceStart;
+        if (busyTime < SLICE) {
+            return;
+        }
+
+        rest(busyTime);
+        sliceStart = System.nanoTime();
+    }
+}
@@ -0,0 +1,110 @@
+package ratismal.drivebackup.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides whether files are worth compressing when adding them to a zip file
+ * <p>
+ * Files with the extension of a compressed format are stored as they are. Other files are sampled, and stored
+ * if the bytes in the sample are so evenly distributed that deflate can't shrink them, which catches compressed
+ * files with other extensions, such as gzipped NBT {@code .dat} files.
+ */
+public class CompressionPolicy {
+    /**
+     * Extensions of files that are already compressed, including Minecraft region files, whose chunks are compressed with zlib
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+        ".mca", ".mcc", ".mca.delta",
+        ".zip", ".jar", ".gz", ".tgz", ".bz2", ".xz", ".zst", ".lz4", ".7z", ".rar",
+        ".png", ".jpg", ".jpeg", ".gif", ".webp",
+        ".ogg", ".mp3", ".mp4", ".webm"
+    ));
+
+    /**
+     * Number of bytes sampled to estimate the entropy of a file
+     */
+    public static final int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * Samples smaller than this are too small to estimate the entropy from, but are cheap to compress anyway
+     */
+    private static final int MIN_SAMPLE_SIZE = 4 * 1024;
+
+    /**
+     * Entropy, in bits per byte, above which deflate saves almost nothing
+     */
+    private static final double MAX_COMPRESSIBLE_ENTROPY = 7.5;
+
+    private final boolean enabled;
+
+    /**
+     * Creates a compression policy
+     * @param enabled whether to store incompressible files, or compress every file
+     */
+    public CompressionPolicy(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Gets whether the file with the specified name and contents should be compressed
+     * @param entryName the name of the file
+     * @param sample the start of the contents of the file
+     * @param length the number of bytes in the sample
+     * @return whether to compress the file
+     */
+    public boolean shouldCompress(String entryName, byte[] sample, int length) {
+        if (!enabled) {
+            return true;
+        }
+
+        if (hasCompressedExtension(entryName)) {
+            return false;
+        }
+
+        if (length < MIN_SAMPLE_SIZE) {
+            return true;
+        }
+
+        return getEntropy(sample, Math.min(length, SAMPLE_SIZE)) <= MAX_COMPRESSIBLE_ENTROPY;
+    }
+
+    private static boolean hasCompressedExtension(String entryName) {
+        String name = entryName.toLowerCase(Locale.ROOT);
+
+        for (String extension : COMPRESSED_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Calculates the Shannon entropy of the specified bytes
+     * @param bytes the bytes
+     * @param length the number of bytes to include
+     * @return the entropy, in bits per byte, from 0 to 8
+     */
+    private static double getEntropy(byte[] bytes, int length) {
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[bytes[i] & 0xFF]++;
+        }
+
+        double entropy = 0;
+        for (int count : counts) {
+            if (count == 0) {
+                continue;
+            }
+
+            double probability = (double) count / length;
+            entropy -= probability * Math.log(probability);
+        }
+
+        return entropy / Math.log(2);
+    }
+}
@@ -0,0 +1,112 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how fast the files of a backup set are read, so backing up doesn't starve the server of the disk it loads and
+ * saves chunks on
+ * <p>
+ * Reading takes as many bytes from a token bucket as were read, and opening a file or listing a folder takes one from
+ * another, waiting while either of them is in debt. The folders of a backup set backed up at once share its limits.
+ * The rates the files are read at are measured, so they can be shown in the status of the backup.
+ */
+public class DiskGovernor {
+    private final long readLimit;
+    private final long fileOpenLimit;
+
+    private final TokenBucket readBucket = new TokenBucket();
+    private final TokenBucket fileOpenBucket = new TokenBucket();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong filesOpened = new AtomicLong();
+    private final long startTime = System.nanoTime();
+
+    /**
+     * Creates a disk governor
+     * @param readLimit the most bytes read per second, or 0 for no limit
+     * @param fileOpenLimit the most files opened and folders listed per second, or 0 for no limit
+     */
+    public DiskGovernor(long readLimit, long fileOpenLimit) {
+        this.readLimit = readLimit;
+        this.fileOpenLimit = fileOpenLimit;
+    }
+
+    /**
+     * Creates a disk governor which only measures how fast files are read
+     * @return the disk governor
+     */
+    public static DiskGovernor unlimited() {
+        return new DiskGovernor(0, 0);
+    }
+
+    /**
+     * Waits until another file can be opened, or folder listed
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void openFile() throws InterruptedIOException {
+        filesOpened.incrementAndGet();
+        fileOpenBucket.take(1, fileOpenLimit);
+    }
+
+    /**
+     * Waits until the specified number of bytes, which were just read, are within the limit
+     * @param bytes the number of bytes
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void read(long bytes) throws InterruptedIOException {
+        bytesRead.addAndGet(bytes);
+        readBucket.take(bytes, readLimit);
+    }
+
+    /**
+     * Opens the specified file, as fast as the limits allow
+     * @param file the file
+     * @return a stream reading the file, as fast as the limits allow
+     * @throws IOException
+     */
+    public InputStream open(File file) throws IOException {
+        openFile();
+
+        return new ThrottledInputStream(new FileInputStream(file), this::read);
+    }
+
+    /**
+     * Gets the limit on how fast files are read
+     * @return the limit in bytes per second, or 0 for no limit
+     */
+    public long getReadLimit() {
+        return readLimit;
+    }
+
+    /**
+     * Gets the limit on how fast files are opened
+     * @return the limit in files per second, or 0 for no limit
+     */
+    public long getFileOpenLimit() {
+        return fileOpenLimit;
+    }
+
+    /**
+     * Gets the average rate files were read at since the backup set started
+     * @return the rate in bytes per second
+     */
+    public double getReadRate() {
+        return bytesRead.get() / getElapsedSeconds();
+    }
+
+    /**
+     * Gets the average rate files were opened at since the backup set started
+     * @return the rate in files per second
+     */
+    public double getFileOpenRate() {
+        return filesOpened.get() / getElapsedSeconds();
+    }
+
+    private double getElapsedSeconds() {
+        return Math.max(1, (System.nanoTime() - startTime) / 1e9);
+    }
+}
@@ -0,0 +1,148 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ratismal.drivebackup.uploaders.Uploader;
+
+/**
+ * Uploads a backup file to several backup methods at once, so uploading takes as long as the slowest backup method
+ * rather than all of them combined
+ * <p>
+ * If sharing reads is enabled and more than one backup method supports streaming, the file is read once and passed
+ * to those backup methods through a {@code StreamingUpload}. Every other backup method uploads the file on its own
+ * thread. A backup method failing or throwing doesn't affect the uploads to the others.
+ */
+public class FanOutUpload {
+    private final List<Uploader> uploaders;
+    private final String type;
+    private final boolean shareReads;
+    private final int threadPriority;
+
+    private final Map<Uploader, Timer> timers = new HashMap<>();
+    private final Set<Uploader> failedUploaders = Collections.synchronizedSet(new HashSet<>());
+
+    /**
+     * Creates an upload to the specified backup methods
+     * @param uploaders the backup methods
+     * @param type the type of file (ex. plugins, world)
+     * @param shareReads whether backup methods which support streaming share a single read of the file
+     * @param threadPriority the priority of the upload threads
+     */
+    public FanOutUpload(List<Uploader> uploaders, String type, boolean shareReads, int threadPriority) {
+        this.uploaders = uploaders;
+        this.type = type;
+        this.shareReads = shareReads;
+        this.threadPriority = threadPriority;
+    }
+
+    /**
+     * Uploads the specified file to every backup method, and waits for all of them to finish
+     * @param file the backup file
+     * @throws InterruptedException
+     */
+    public void upload(File file) throws InterruptedException {
+        List<Uploader> streamingUploaders = new ArrayList<>();
+        if (shareReads) {
+            for (Uploader uploader : uploaders) {
+                if (uploader.supportsStreaming()) {
+                    streamingUploaders.add(uploader);
+                }
+            }
+        }
+
+        // A single backup method reads the file once anyway, and knows its size when uploading it as a file
+        if (streamingUploaders.size() < 2) {
+            streamingUploaders.clear();
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        for (Uploader uploader : uploaders) {
+            if (streamingUploaders.contains(uploader)) {
+                continue;
+            }
+
+            Timer timer = new Timer();
+            timers.put(uploader, timer);
+
+            Thread thread = new Thread(() -> {
+                timer.start();
+
+                try {
+                    uploader.uploadFile(file, type);
+                } catch (Exception exception) {
+                    failedUploaders.add(uploader);
+                    MessageUtil.sendConsoleException(exception);
+                }
+
+                timer.end();
+            }, "DriveBackup-Upload-" + uploader.getName());
+
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+            thread.start();
+            threads.add(thread);
+        }
+
+        if (!streamingUploaders.isEmpty()) {
+            streamFile(file, streamingUploaders);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Gets whether the upload to the specified backup method failed
+     * @param uploader the backup method
+     * @return whether the upload failed
+     */
+    public boolean isFailed(Uploader uploader) {
+        return failedUploaders.contains(uploader) || uploader.isErrorWhileUploading();
+    }
+
+    /**
+     * Gets the timer of the upload to the specified backup method
+     * @param uploader the backup method
+     * @return the timer, ended once the upload is finished
+     */
+    public Timer getTimer(Uploader uploader) {
+        return timers.get(uploader);
+    }
+
+    /**
+     * Reads the specified file once on this thread, passing it to each of the specified backup methods as it is read
+     * @param file the backup file
+     * @param streamingUploaders the backup methods, which must all support streaming
+     * @throws InterruptedException
+     */
+    private void streamFile(File file, List<Uploader> streamingUploaders) throws InterruptedException {
+        StreamingUpload streamingUpload = new StreamingUpload(streamingUploaders, type, false, threadPriority);
+
+        try (OutputStream outputStream = streamingUpload.open(file)) {
+            Files.copy(file.toPath(), outputStream);
+        } catch (IOException exception) {
+            MessageUtil.sendConsoleException(exception);
+            streamingUpload.abort();
+            failedUploaders.addAll(streamingUploaders);
+
+            return;
+        }
+
+        streamingUpload.finish();
+
+        for (Uploader uploader : streamingUploaders) {
+            timers.put(uploader, streamingUpload.getTimer(uploader));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A request body containing part of a file, read from the file as the request is sent rather than held in memory
+ * <p>
+ * The part is copied through okio's pool of reusable segments, so sending it doesn't allocate a buffer its size.
+ */
+public class FileRegionBody extends RequestBody {
+    private final File file;
+    private final long offset;
+    private final long length;
+    private final MediaType contentType;
+
+    /**
+     * Creates a request body containing the specified part of a file
+     * @param file the file
+     * @param offset the index of the first byte of the part
+     * @param length the number of bytes in the part
+     * @param contentType the media type of the file
+     */
+    public FileRegionBody(File file, long offset, long length, MediaType contentType) {
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        this.contentType = contentType;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            channel.position(offset);
+
+            // Throws an EOFException if the file was truncated since the request was created
+            try (Source source = Okio.source(Channels.newInputStream(channel))) {
+                sink.write(source, length);
+            }
+        }
+    }
+}
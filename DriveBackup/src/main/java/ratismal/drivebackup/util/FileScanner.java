@@ -0,0 +1,418 @@
+package ratismal.drivebackup.util;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists the files to back up in a folder, along with their sizes and modification times
+ * <p>
+ * Symbolic links are followed, skipping any that loop back to a parent folder. The folder used for backups is skipped
+ * without listing its contents. With more than one thread, folders are listed in parallel on a fork-join pool.
+ * <p>
+ * Folders blacklisted as a whole are also skipped, only counting the files in them for the blacklist report. A folder
+ * whose link count shows it has no subfolders is counted from its listing alone, without reading the attributes of
+ * each file.
+ * <p>
+ * Listing a folder counts as opening a file for the disk governor, so scanning stays within its file open rate.
+ */
+public class FileScanner {
+    private final Path root;
+    private final BlacklistMatcher blacklist;
+    private final Path excludedFolder;
+    private final Object excludedFolderKey;
+    private final int threads;
+    private final DiskGovernor diskGovernor;
+
+    private final Set<Object> visitedFolders = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger excludedFolders = new AtomicInteger();
+
+    /**
+     * Creates a scanner for the specified folder
+     * @param root the folder to scan
+     * @param blacklist the blacklisted files, matched against the path of each file and folder relative to the folder
+     * @param excludedFolder the folder used for backups, which isn't scanned
+     * @param threads the number of threads to scan on
+     * @param diskGovernor the governor limiting how fast folders are listed
+     * @throws IOException
+     */
+    public FileScanner(Path root, List<BlacklistEntry> blacklist, Path excludedFolder, int threads, DiskGovernor diskGovernor) throws IOException {
+        this.root = root;
+        this.blacklist = new BlacklistMatcher(blacklist);
+        this.threads = threads;
+        this.diskGovernor = diskGovernor;
+
+        if (Files.isDirectory(excludedFolder)) {
+            this.excludedFolder = excludedFolder.toRealPath();
+            this.excludedFolderKey = Files.readAttributes(excludedFolder, BasicFileAttributes.class).fileKey();
+        } else {
+            this.excludedFolder = null;
+            this.excludedFolderKey = null;
+        }
+    }
+
+    /**
+     * Scans the folder
+     * @return the files in the folder that aren't blacklisted
+     * @throws IOException
+     */
+    public FileList scan() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return new FileList();
+        }
+
+        if (threads <= 1) {
+            return walk();
+        }
+
+        BasicFileAttributes attributes = Files.readAttributes(root, BasicFileAttributes.class);
+        if (isExcluded(root, attributes)) {
+            excludedFolders.incrementAndGet();
+
+            return new FileList();
+        }
+
+        if (attributes.fileKey() != null) {
+            visitedFolders.add(attributes.fileKey());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new ScanTask(root));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Gets whether the folder used for backups was found, and skipped, while scanning
+     * @return whether the folder was skipped
+     */
+    public boolean isExcludedFolderSkipped() {
+        return excludedFolders.get() > 0;
+    }
+
+    private FileList walk() throws IOException {
+        FileList fileList = new FileList();
+
+        Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path folder, BasicFileAttributes attributes) throws IOException {
+                if (isExcluded(folder, attributes)) {
+                    excludedFolders.incrementAndGet();
+
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                if (!folder.equals(root) && isBlacklisted(folder)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                diskGovernor.openFile();
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) {
+                    addFile(fileList, file, attributes);
+                }
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exception) {
+                // Unreadable files and symbolic link loops are left out of the backup
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        return fileList;
+    }
+
+    /**
+     * Gets whether the specified folder is the folder used for backups
+     * @param folder the folder
+     * @param attributes the attributes of the folder
+     * @return whether the folder is excluded
+     * @throws IOException
+     */
+    private boolean isExcluded(Path folder, BasicFileAttributes attributes) throws IOException {
+        if (excludedFolder == null) {
+            return false;
+        }
+
+        if (excludedFolderKey != null) {
+            return excludedFolderKey.equals(attributes.fileKey());
+        }
+
+        return folder.toRealPath().equals(excludedFolder);
+    }
+
+    /**
+     * Gets whether every file in the specified folder is blacklisted, counting the files if so
+     * @param folder the folder
+     * @return whether the folder is blacklisted
+     */
+    private boolean isBlacklisted(Path folder) {
+        if (!blacklist.hasFolderRules()) {
+            return false;
+        }
+
+        BlacklistEntry blacklistEntry = blacklist.matchFolder(root.relativize(folder));
+        if (blacklistEntry == null) {
+            return false;
+        }
+
+        countFiles(folder, blacklistEntry);
+
+        return true;
+    }
+
+    /**
+     * Counts the files in the specified blacklisted folder and its subfolders towards the blacklist entries that match them
+     * @param folder the folder
+     * @param folderEntry the entry blacklisting the folder
+     */
+    private void countFiles(Path folder, BlacklistEntry folderEntry) {
+        boolean matchFiles = blacklist.hasEntriesBefore(folderEntry);
+
+        try {
+            Files.walkFileTree(folder, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path subfolder, BasicFileAttributes attributes) throws IOException {
+                    if (hasSubfolders(subfolder)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    try (DirectoryStream<Path> stream = Files.newDirectoryStream(subfolder)) {
+                        for (Path file : stream) {
+                            countFile(file);
+                        }
+                    }
+
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        countFile(file);
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exception) {
+                    return FileVisitResult.CONTINUE;
+                }
+
+                private void countFile(Path file) {
+                    if (matchFiles) {
+                        blacklist.matchInFolder(root.relativize(file), folderEntry).incrementBlacklistedFiles();
+                    } else {
+                        folderEntry.incrementBlacklistedFiles();
+                    }
+                }
+            });
+        } catch (IOException exception) {
+            // Only the files counted before the failure are reported
+        }
+    }
+
+    /**
+     * Gets whether the specified folder is known to have no subfolders
+     * <p>
+     * On Unix file systems which count links to folders, a folder has a link from its parent, itself and each subfolder
+     * @param folder the folder
+     * @return {@code false} if the folder has no subfolders, or {@code true} if it has or it isn't known
+     */
+    private static boolean hasSubfolders(Path folder) {
+        try {
+            return !Integer.valueOf(2).equals(Files.getAttribute(folder, "unix:nlink"));
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException exception) {
+            return true;
+        }
+    }
+
+    private void addFile(FileList fileList, Path file, BasicFileAttributes attributes) {
+        Path relativePath = root.relativize(file);
+
+        BlacklistEntry blacklistEntry = blacklist.match(relativePath);
+        if (blacklistEntry != null) {
+            blacklistEntry.incrementBlacklistedFiles();
+
+            return;
+        }
+
+        fileList.add(relativePath.toString(), attributes.size(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Scans a folder, forking a task for each of its subfolders
+     */
+    private class ScanTask extends RecursiveTask<FileList> {
+        private static final long serialVersionUID = 1L;
+
+        private final Path folder;
+
+        private ScanTask(Path folder) {
+            this.folder = folder;
+        }
+
+        @Override
+        protected FileList compute() {
+            FileList fileList = new FileList();
+            List<ScanTask> subfolders = new ArrayList<>();
+
+            try {
+                diskGovernor.openFile();
+            } catch (IOException exception) {
+                // Interrupted, so the folder is left out of the backup
+                return fileList;
+            }
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+                for (Path path : stream) {
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    } catch (IOException exception) {
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        if (isExcluded(path, attributes)) {
+                            excludedFolders.incrementAndGet();
+
+                            continue;
+                        }
+
+                        if (isBlacklisted(path)) {
+                            continue;
+                        }
+
+                        Object key = attributes.fileKey();
+                        if (key != null && !visitedFolders.add(key)) {
+                            continue;
+                        }
+
+                        ScanTask subfolder = new ScanTask(path);
+                        subfolder.fork();
+                        subfolders.add(subfolder);
+                    } else if (attributes.isRegularFile()) {
+                        addFile(fileList, path, attributes);
+                    }
+                }
+            } catch (IOException exception) {
+                // Unreadable folders are left out of the backup
+            }
+
+            for (ScanTask subfolder : subfolders) {
+                fileList.addAll(subfolder.join());
+            }
+
+            return fileList;
+        }
+    }
+
+    /**
+     * A list of files, with their sizes and modification times stored in arrays rather than an object per file
+     */
+    public static class FileList {
+        private String[] paths = new String[16];
+        private long[] sizes = new long[16];
+        private long[] lastModified = new long[16];
+        private int size = 0;
+
+        private void add(String path, long fileSize, long fileLastModified) {
+            ensureCapacity(size + 1);
+
+            paths[size] = path;
+            sizes[size] = fileSize;
+            lastModified[size] = fileLastModified;
+            size++;
+        }
+
+        private void addAll(FileList fileList) {
+            ensureCapacity(size + fileList.size);
+
+            System.arraycopy(fileList.paths, 0, paths, size, fileList.size);
+            System.arraycopy(fileList.sizes, 0, sizes, size, fileList.size);
+            System.arraycopy(fileList.lastModified, 0, lastModified, size, fileList.size);
+            size += fileList.size;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity <= paths.length) {
+                return;
+            }
+
+            int newCapacity = Math.max(capacity, paths.length * 2);
+            paths = Arrays.copyOf(paths, newCapacity);
+            sizes = Arrays.copyOf(sizes, newCapacity);
+            lastModified = Arrays.copyOf(lastModified, newCapacity);
+        }
+
+        /**
+         * Gets the number of files in the list
+         * @return the number of files
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Gets the relative path of the file at the specified index
+         * @param index the index
+         * @return the path
+         */
+        public String getPath(int index) {
+            return paths[index];
+        }
+
+        /**
+         * Gets the size of the file at the specified index, at the time of the scan
+         * @param index the index
+         * @return the size, in bytes
+         */
+        public long getSize(int index) {
+            return sizes[index];
+        }
+
+        /**
+         * Gets the modification time of the file at the specified index, at the time of the scan
+         * @param index the index
+         * @return the modification time, in milliseconds since the epoch
+         */
+        public long getLastModified(int index) {
+            return lastModified[index];
+        }
+
+        /**
+         * Gets the relative paths of the files in the list
+         * @return the paths
+         */
+        public List<String> getPaths() {
+            return Collections.unmodifiableList(Arrays.asList(paths).subList(0, size));
+        }
+    }
+}
@@ -2,86 +2,272 @@ package ratismal.drivebackup.util;
 
 import ratismal.drivebackup.config.ConfigParser;
 import ratismal.drivebackup.config.ConfigParser.Config;
+import ratismal.drivebackup.config.configSections.BackupStorage;
+import ratismal.drivebackup.util.BackupManifest.BackupChain;
+import ratismal.drivebackup.util.BackupManifest.FileState;
+import ratismal.drivebackup.util.FileScanner.FileList;
+import ratismal.drivebackup.util.RegionDelta.Delta;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystems;
-import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
 import java.nio.file.Paths;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Ratismal on 2016-01-20.
  */
 
 public class FileUtil {
-    private static final TreeMap<Long, File> backupList = new TreeMap<>();
-    private static final List<String> fileList = new ArrayList<>();
-    private static List<BlacklistEntry> blacklist = new ArrayList<>();
-    private static int backupFiles = 0;
+    /**
+     * The name of the entry in incremental backups listing the files deleted since the previous backup
+     */
+    public static final String DELETED_FILES_ENTRY_NAME = "deleted-files.txt";
+
+    /**
+     * The name of the folder within the local backups folder that snapshots of the files to back up are staged in
+     */
+    public static final String STAGING_FOLDER_NAME = ".staging";
+
+    private static final Map<String, File> stagedFolders = new ConcurrentHashMap<>();
 
     /**
      * Gets the most recent backup of the specified backup type
      * @param type the type of back up (world, plugin, etc)
      * @param formatter the format of the file name
-     * @return The file to upload
+     * @return The file to upload, or {@code null} if there are no backups
+     * @throws IOException
+     */
+    public static File getNewestBackup(String type, LocalDateTimeFormatter formatter) throws IOException {
+        BackupCatalog.Entry newest = getCatalog(type, formatter).getNewest();
+
+        return newest != null ? newest.getFile() : null;
+    }
+
+    /**
+     * Gets the catalog of the local backups of the specified backup type
+     * @param type the type of back up (world, plugin, etc)
+     * @param formatter the format of the file name
+     * @return the catalog
      */
-    public static File getNewestBackup(String type, LocalDateTimeFormatter formatter) {
+    private static BackupCatalog getCatalog(String type, LocalDateTimeFormatter formatter) {
         type = type.replace("../", "");
 
-        backupList.clear();
-        String path = new File(ConfigParser.getConfig().backupStorage.localDirectory).getAbsolutePath() + "/" + type;
-        File[] files = new File(path).listFiles();
+        return BackupCatalog.open(new File(ConfigParser.getConfig().backupStorage.localDirectory, type), formatter);
+    }
+
+    /**
+     * Creates a local backup file for the specified backup type
+     * <p>
+     * If incremental, only the files that changed since the last backup of the type are included, along with a list of the
+     * files that were deleted, unless a full backup is due
+     * @param type what to back up (world, plugin, etc)
+     * @param formatter the format of the file name
+     * @param blacklistGlobs a list of glob patterns of files/folders to not include in the backup
+     * @param incremental whether to create an incremental backup
+     * @param fullBackupInterval the maximum number of backups in a chain of incremental backups, including the full backup
+     * @param regionAware whether incremental backups only include the chunks of region files that changed
+     * @param format the container and codec of the backup file
+     * @param compressionThreads the number of threads to compress the backup file with
+     * @param diskGovernor the governor limiting how fast the files to back up are listed and read
+     * @param streamingUpload the upload to stream the backup file to while it is created, or {@code null} to only create it locally
+     * @throws Exception
+     */
+    public static void makeBackup(String type, LocalDateTimeFormatter formatter, List<String> blacklistGlobs, boolean incremental, int fullBackupInterval, boolean regionAware, ArchiveFormat format, int compressionThreads, DiskGovernor diskGovernor, StreamingUpload streamingUpload) throws Exception {
+        Config config = ConfigParser.getConfig();
+
+        ZonedDateTime now = ZonedDateTime.now(config.advanced.dateTimezone);
+        String fileName = formatter.format(now);
 
-        for (File file : files) {
-            if (file.getName().endsWith(".zip")) {
+        PreparedBackup preparedBackup = prepareBackup(type, blacklistGlobs, diskGovernor);
+        File path = preparedBackup.folder;
+        List<String> fileList = preparedBackup.fileList;
+        FileList scannedFiles = preparedBackup.scannedFiles;
+        String sourceFolderPath = getSourceFolder(type);
+
+        File outputFile = new File(path, fileName);
+        // Hashed as it is written, so the backup doesn't have to be read back to be cataloged
+        MessageDigest digest = HashingFileOutputStream.newDigest();
+        OutputStream outputStream;
+        if (streamingUpload != null) {
+            outputStream = new DigestOutputStream(streamingUpload.open(outputFile), digest);
+        } else {
+            // Not buffered here, as the writers buffer it, and the parallel zip writer copies stored files straight to the file
+            outputStream = new HashingFileOutputStream(outputFile, digest);
+        }
 
-                String dateString = file.getName();
+        if (!incremental) {
+            archiveIt(type, sourceFolderPath, fileList, outputStream, format, compressionThreads, diskGovernor, null, null);
+            addToCatalog(path, formatter, outputFile, now, digest);
 
-                try {
-                    ZonedDateTime date = formatter.parse(dateString);
-                    backupList.put(date.toEpochSecond(), file);
-                } catch (Exception e) {
-                    backupList.put(0L, file);
-                    MessageUtil.Builder().text("Unable to parse date format of stored backup \"" + dateString + "\", this can be due to the date format being updated in the config.yml").send();
-                    MessageUtil.Builder().text("Backup will be deleted first").send();
-                }
+            return;
+        }
+
+        BackupManifest manifest = BackupManifest.load(path);
+        boolean fullBackup = manifest.isFullBackupDue(fullBackupInterval);
+
+        Map<String, FileState> currentStates = new HashMap<>();
+        for (int i = 0; i < scannedFiles.size(); i++) {
+            currentStates.put(scannedFiles.getPath(i), new FileState(scannedFiles.getSize(i), scannedFiles.getLastModified(i)));
+        }
+
+        List<String> deletedFiles = null;
+        if (!fullBackup) {
+            deletedFiles = manifest.getDeletedFiles(fileList);
+            fileList.removeIf(file -> !manifest.hasChanged(file, new File(sourceFolderPath, file), currentStates.get(file)));
+
+            MessageUtil.Builder().text("Creating an incremental backup of " + fileList.size() + " changed file(s), " + deletedFiles.size() + " file(s) were deleted").toConsole(true).send();
+        } else {
+            MessageUtil.Builder().text("Creating a full backup, incremental backups will be based on it").toConsole(true).send();
+        }
+
+        RegionDelta regionDelta = null;
+        if (regionAware) {
+            regionDelta = new RegionDelta(fullBackup ? new HashMap<>() : manifest.getRegionTimestamps());
+        }
+
+        Map<String, Long> archivedCrcs = archiveIt(type, sourceFolderPath, fileList, outputStream, format, compressionThreads, diskGovernor, deletedFiles, regionDelta);
+        addToCatalog(path, formatter, outputFile, now, digest);
+
+        manifest.update(fileName, fullBackup, currentStates, archivedCrcs, regionDelta != null ? regionDelta.getTimestamps() : new HashMap<>());
+
+        BackupStorage backupStorage = config.backupStorage;
+        BackupChain chain = manifest.getChain();
+        if (backupStorage.keepCount != -1 && backupStorage.localKeepCount != -1) {
+            chain.trim(Math.max(chain.getKeepCount(backupStorage.keepCount), chain.getKeepCount(backupStorage.localKeepCount)));
+        }
+
+        manifest.save();
+    }
+
+    /**
+     * Records the specified backup file in the catalog of the backups in the specified folder, unless it was only streamed
+     * @param path the folder containing the backups
+     * @param formatter the format of the file name
+     * @param outputFile the backup file
+     * @param date when the backup was created
+     * @param digest the hash updated with everything written to the backup file
+     * @throws IOException
+     */
+    private static void addToCatalog(File path, LocalDateTimeFormatter formatter, File outputFile, ZonedDateTime date, MessageDigest digest) throws IOException {
+        if (outputFile.exists()) {
+            BackupCatalog.open(path, formatter).add(outputFile, date, HashingFileOutputStream.toHex(digest));
+        }
+    }
+
+    /**
+     * Creates a deduplicated backup of the specified backup type, stored as a snapshot in the chunk store of the type
+     * <p>
+     * Only the chunks of files that aren't already in the store are added to it
+     * @param type what to back up (world, plugin, etc)
+     * @param formatter the format of the snapshot name
+     * @param blacklistGlobs a list of glob patterns of files/folders to not include in the backup
+     * @param diskGovernor the governor limiting how fast the files to back up are listed and read
+     * @return the chunk store
+     * @throws Exception
+     */
+    public static ChunkStore makeDeduplicatedBackup(String type, LocalDateTimeFormatter formatter, List<String> blacklistGlobs, DiskGovernor diskGovernor) throws Exception {
+        Config config = ConfigParser.getConfig();
+
+        ZonedDateTime now = ZonedDateTime.now(config.advanced.dateTimezone);
+        String snapshotName = formatter.format(now);
+
+        PreparedBackup preparedBackup = prepareBackup(type, blacklistGlobs, diskGovernor);
+
+        ChunkStore chunkStore = ChunkStore.open(preparedBackup.folder);
+        chunkStore.createSnapshot(snapshotName, getSourceFolder(type), preparedBackup.fileList, config.backupStorage.zipCompression, diskGovernor);
+        chunkStore.save();
+
+        return chunkStore;
+    }
+
+    /**
+     * Copies the files to back up for the specified backup type into a snapshot in the staging folder, which later backups
+     * of the type are created from instead, until {@link #deleteStagedBackups()} is called
+     * <p>
+     * Files which are always replaced as a whole are hard linked rather than copied, if the file system supports it
+     * @param type what to back up (world, plugin, etc)
+     * @param blacklistGlobs a list of glob patterns of files/folders to not include in the backup
+     * @throws Exception
+     */
+    public static void stageBackup(String type, List<String> blacklistGlobs) throws Exception {
+        Config config = ConfigParser.getConfig();
+
+        // Not limited, as saving is disabled until every backup set is staged
+        List<String> fileList = prepareBackup(type, blacklistGlobs, DiskGovernor.unlimited()).fileList;
+
+        String subfolderName = type;
+        if (isBaseFolder(subfolderName)) {
+            subfolderName = "root";
+        }
+
+        File stagingFolder = new File((config.backupStorage.localDirectory + "/" + STAGING_FOLDER_NAME + "/" + subfolderName).replace("../", ""));
+        deleteFolder(stagingFolder);
+
+        SnapshotStager stager = new SnapshotStager();
+        for (String file : fileList) {
+            try {
+                stager.stageFile(Paths.get(type, file), stagingFolder.toPath().resolve(file));
+            } catch (NoSuchFileException exception) {
+                // The file was deleted since the folder was scanned, so it isn't in the snapshot
+            } catch (IOException exception) {
+                sendFileLockedWarning(type, file);
             }
         }
 
-        return backupList.descendingMap().firstEntry().getValue();
+        stagedFolders.put(type, stagingFolder);
+
+        MessageUtil.Builder().text("Staged " + fileList.size() + " file(s) for backup, copied " + stager.getCopiedFiles() + " file(s) (" + stager.getCopiedBytes() / 1024 / 1024 + " MB) and hard linked " + stager.getLinkedFiles()).toConsole(true).send();
+    }
+
+    /**
+     * Deletes the snapshots in the staging folder, so backups are created from the files being backed up again
+     */
+    public static void deleteStagedBackups() {
+        stagedFolders.clear();
+
+        deleteFolder(new File(ConfigParser.getConfig().backupStorage.localDirectory, STAGING_FOLDER_NAME));
+    }
+
+    /**
+     * Gets the folder to read the files to back up for the specified backup type from
+     * @param type what to back up (world, plugin, etc)
+     * @return the path of the staged snapshot of the files, if any, otherwise the path of the files
+     */
+    private static String getSourceFolder(String type) {
+        File stagingFolder = stagedFolders.get(type);
+        if (stagingFolder != null) {
+            return stagingFolder.getPath();
+        }
+
+        return type;
     }
 
     /**
-     * Creates a local backup zip file for the specified backup type
+     * Generates the list of files to back up for the specified backup type, and creates the folder to store its backups in
      * @param type what to back up (world, plugin, etc)
-     * @param formatter the format of the file name
      * @param blacklistGlobs a list of glob patterns of files/folders to not include in the backup
+     * @param diskGovernor the governor limiting how fast folders are listed
+     * @return the files to back up, and the folder to store the backups in
      * @throws Exception
      */
-    public static void makeBackup(String type, LocalDateTimeFormatter formatter, List<String> blacklistGlobs) throws Exception {
+    private static PreparedBackup prepareBackup(String type, List<String> blacklistGlobs, DiskGovernor diskGovernor) throws Exception {
         Config config = ConfigParser.getConfig();
 
         if (type.charAt(0) == '/') {
             throw new IllegalArgumentException(); 
         }
 
-        fileList.clear();
-
-        ZonedDateTime now = ZonedDateTime.now(config.advanced.dateTimezone);
-        String fileName = formatter.format(now);
-
-        blacklist.clear();
-        backupFiles = 0;
+        // Created for each backup, so the blacklisted file counts of backups created at the same time aren't mixed up
+        List<BlacklistEntry> blacklist = new ArrayList<>();
         for (String blacklistGlob : blacklistGlobs) {
             BlacklistEntry blacklistEntry = new BlacklistEntry(
                 blacklistGlob, 
@@ -101,22 +287,30 @@ public class FileUtil {
             path.mkdirs();
         }
 
-        generateFileList(type);
+        FileScanner scanner = new FileScanner(
+            Paths.get(getSourceFolder(type)), 
+            blacklist, 
+            Paths.get(config.backupStorage.localDirectory), 
+            config.backupStorage.scanThreads,
+            diskGovernor);
+
+        FileList scannedFiles = scanner.scan();
+        List<String> fileList = new ArrayList<>(scannedFiles.getPaths());
 
         for (BlacklistEntry blacklistEntry : blacklist) {
             String globPattern = blacklistEntry.getGlobPattern();
             int blacklistedFiles = blacklistEntry.getBlacklistedFiles();
 
             if (blacklistedFiles > 0) {
-                MessageUtil.Builder().text("Didn't include " + blacklistedFiles + " file(s) in the backup, as they are blacklisted by \"" + globPattern + "\"").toConsole(true).send();
+                MessageUtil.Builder().text("Didn't include " + blacklistedFiles + " file(s) in the backup of \"" + type + "\", as they are blacklisted by \"" + globPattern + "\"").toConsole(true).send();
             }
         }
 
-        if (backupFiles > 0) {
-            MessageUtil.Builder().text("Didn't include " + backupFiles + " file(s) in the backup, as they are in the folder used for backups").toConsole(true).send();
+        if (scanner.isExcludedFolderSkipped()) {
+            MessageUtil.Builder().text("Didn't include the folder used for backups in the backup").toConsole(true).send();
         }
 
-        zipIt(type, path.getPath() + "/" + fileName);
+        return new PreparedBackup(path, scannedFiles, fileList);
     }
 
     /**
@@ -131,24 +325,34 @@ public class FileUtil {
         int localKeepCount = ConfigParser.getConfig().backupStorage.localKeepCount;
         type = type.replace("../", "");
 
+        if (localKeepCount > 0) {
+            localKeepCount = getKeepCount(type, localKeepCount);
+        }
+
         if (localKeepCount != -1) {
             try {
-                getNewestBackup(type, formatter);
+                BackupCatalog catalog = getCatalog(type, formatter);
+                int backupCount = catalog.size();
 
-                if (backupList.size() > localKeepCount) {
-                    MessageUtil.Builder().text("There are " + backupList.size() + " file(s) which exceeds the local limit of " + localKeepCount + ", deleting oldest").toConsole(true).send();
+                if (backupCount > localKeepCount) {
+                    MessageUtil.Builder().text("There are " + backupCount + " file(s) which exceeds the local limit of " + localKeepCount + ", deleting oldest").toConsole(true).send();
                 }
-                
 
-                while (backupList.size() > localKeepCount) {
-                    File fileToDelete = backupList.descendingMap().lastEntry().getValue();
-                    long dateOfFile = backupList.descendingMap().lastKey();
+                for (BackupCatalog.Entry entry : catalog.getEntries()) {
+                    if (backupCount <= localKeepCount) {
+                        break;
+                    }
+
+                    File fileToDelete = entry.getFile();
 
-                    if (!fileToDelete.delete()) {
+                    if (fileToDelete.delete() || !fileToDelete.exists()) {
+                        catalog.remove(entry);
+                    } else {
+                        // Kept in the catalog, so deleting it is tried again after the next backup
                         MessageUtil.Builder().text("Failed to delete local backup \"" + fileToDelete.getName() + "\"").toConsole(true).send();
                     }
-                    
-                    backupList.remove(dateOfFile);
+
+                    backupCount--;
                 }
             } catch (Exception e) {
                 MessageUtil.sendConsoleException(e);
@@ -158,114 +362,149 @@ public class FileUtil {
     }
 
     /**
-     * Zips files in the specified folder into the specified file location
-     * @param inputFolderPath the path of the zip file to create
-     * @param outputFilePath the path of the folder to put it in
+     * Gets the number of the newest backups of the specified backup type to keep, so that no incremental backup is kept without the backups it depends on
+     * @param type the type of file (ex. plugins, world)
+     * @param keepCount the number of backups to keep, as specified by the user in the {@code config.yml}
+     * @return the number of backups to keep, or -1 to keep all
      */
-    private static void zipIt(String inputFolderPath, String outputFilePath) throws Exception {
-        byte[] buffer = new byte[1024];
-        FileOutputStream fileOutputStream;
-        ZipOutputStream zipOutputStream = null;
+    public static int getKeepCount(String type, int keepCount) {
+        type = type.replace("../", "");
 
-        String formattedInputFolderPath = new File(inputFolderPath).getName();
-        if (isBaseFolder(inputFolderPath)) {
-            formattedInputFolderPath = "root";
-        }
+        return BackupChain.load(new File(ConfigParser.getConfig().backupStorage.localDirectory, type)).getKeepCount(keepCount);
+    }
+
+    /**
+     * Archives files in the specified folder into the specified stream, in the specified format
+     * <p>
+     * Zip files are compressed in parallel using a {@code ParallelZipWriter} if more than one compression thread is configured,
+     * and Zstandard compressed tar files use the compression threads as Zstandard workers
+     * @param inputFolderPath the path of the folder to create the backup from
+     * @param sourceFolderPath the path of the folder to read the files from, either the folder to create the backup from or a staged snapshot of it
+     * @param fileList the relative paths of the files to archive
+     * @param outputStream the stream to write the backup to, which is closed once done
+     * @param format the container and codec of the backup
+     * @param compressionThreads the number of threads to compress the backup with
+     * @param diskGovernor the governor limiting how fast the files are read
+     * @param deletedFiles the relative paths of the files deleted since the last backup to list in the backup, or {@code null} if not an incremental backup
+     * @param regionDelta the capture of the changed chunks of region files, or {@code null} to include region files as they are
+     * @return the CRC-32 checksums of the files that were successfully archived
+     */
+    private static Map<String, Long> archiveIt(String inputFolderPath, String sourceFolderPath, List<String> fileList, OutputStream outputStream, ArchiveFormat format, int compressionThreads, DiskGovernor diskGovernor, List<String> deletedFiles, RegionDelta regionDelta) throws Exception {
+        Map<String, Long> crcs = new HashMap<>();
 
-        try {
-            fileOutputStream = new FileOutputStream(outputFilePath);
-            zipOutputStream = new ZipOutputStream(fileOutputStream);
-            zipOutputStream.setLevel(ConfigParser.getConfig().backupStorage.zipCompression);
+        String formattedInputFolderPath = getZipFolderName(inputFolderPath);
 
+        try (ArchiveWriter archiveWriter = createArchiveWriter(outputStream, format, compressionThreads, diskGovernor)) {
             for (String file : fileList) {
-                zipOutputStream.putNextEntry(new ZipEntry(formattedInputFolderPath + "/" + file));
+                try {
+                    if (regionDelta != null && regionDelta.canCapture(file)) {
+                        Delta delta = regionDelta.createDelta(file, new File(sourceFolderPath, file));
 
-                try (FileInputStream fileInputStream = new FileInputStream(inputFolderPath + "/" + file)) {
-                    
-                    int len;
-                    while ((len = fileInputStream.read(buffer)) > 0) {
-                        zipOutputStream.write(buffer, 0, len);
+                        if (delta != null) {
+                            archiveWriter.putBytes(formattedInputFolderPath + "/" + file + RegionDelta.DELTA_EXTENSION, delta.bytes);
+                            crcs.put(file, delta.crc);
+
+                            continue;
+                        }
                     }
-                } catch (Exception e) {
-                    String filePath = new File(inputFolderPath, file).getPath();
 
-                    if (!filePath.endsWith(".lock")) { // Don't send warning for .lock files, they will always be locked
-                        MessageUtil.Builder().text("Failed to include \"" + filePath + "\" in the backup, is it locked?").toConsole(true).send();
+                    crcs.put(file, archiveWriter.putFile(formattedInputFolderPath + "/" + file, new File(sourceFolderPath, file)));
+
+                    if (regionDelta != null) {
+                        regionDelta.recordTimestamps(file, new File(sourceFolderPath, file));
                     }
+                } catch (IOException e) {
+                    sendFileLockedWarning(sourceFolderPath, file);
                 }
-
-                zipOutputStream.closeEntry();
-            }
-            
-            zipOutputStream.close();
-        } catch (Exception exception) {
-            if (zipOutputStream != null) {
-                zipOutputStream.close();
             }
 
-            throw exception; 
+            if (deletedFiles != null) {
+                archiveWriter.putBytes(DELETED_FILES_ENTRY_NAME, getDeletedFilesList(formattedInputFolderPath, deletedFiles));
+            }
         }
+
+        return crcs;
     }
 
     /**
-     * Generates a list of files to put in the zip created from the specified folder
-     * @param inputFolderPath The path of the folder to create the zip from
-     * @throws Exception
+     * Creates a writer for backups in the specified format, using the compression settings in the {@code config.yml}
+     * @param outputStream the stream to write the backup to
+     * @param format the container and codec of the backup
+     * @param compressionThreads the number of threads to compress the backup with
+     * @param diskGovernor the governor limiting how fast the files are read
+     * @return the writer
+     * @throws IOException
      */
-    private static void generateFileList(String inputFolderPath) throws Exception {
-        generateFileList(new File(inputFolderPath), inputFolderPath);
+    private static ArchiveWriter createArchiveWriter(OutputStream outputStream, ArchiveFormat format, int compressionThreads, DiskGovernor diskGovernor) throws IOException {
+        BackupStorage backupStorage = ConfigParser.getConfig().backupStorage;
+        CompressionGovernor governor = new CompressionGovernor(backupStorage.throttleCompression, compressionThreads);
+
+        if (format != ArchiveFormat.ZIP) {
+            return new TarArchiveWriter(outputStream, format, backupStorage.zipCompression, compressionThreads, governor, diskGovernor);
+        }
+
+        CompressionPolicy compressionPolicy = new CompressionPolicy(backupStorage.storeCompressedFiles);
+
+        if (compressionThreads > 1) {
+            return new ParallelZipWriter(outputStream, backupStorage.zipCompression, compressionPolicy, compressionThreads, backupStorage.threadPriority, governor, diskGovernor);
+        }
+
+        return new ZipArchiveWriter(outputStream, backupStorage.zipCompression, compressionPolicy, governor, diskGovernor);
     }
 
     /**
-     * Adds the specified file or folder to the generated list of files to put in the zip created from the specified folder
-     * @param file the file or folder to add
-     * @param inputFolderPath the path of the folder to create the zip from
-     * @throws Exception
+     * Creates the list of deleted files stored in incremental backups
+     * @param formattedInputFolderPath the name of the folder inside the zip file
+     * @param deletedFiles the relative paths of the deleted files
+     * @return the list, one path inside the zip file per line
      */
-    private static void generateFileList(File file, String inputFolderPath) throws Exception {
+    private static byte[] getDeletedFilesList(String formattedInputFolderPath, List<String> deletedFiles) {
+        StringBuilder deletedFilesList = new StringBuilder();
 
-        if (file.isFile()) {
-            // Verify not backing up previous backups
-            if (file.getCanonicalPath().startsWith(new File(ConfigParser.getConfig().backupStorage.localDirectory).getCanonicalPath())) {
-                backupFiles++;
+        for (String deletedFile : deletedFiles) {
+            deletedFilesList.append(formattedInputFolderPath).append("/").append(deletedFile).append("\n");
+        }
 
-                return;
-            }
+        return deletedFilesList.toString().getBytes(StandardCharsets.UTF_8);
+    }
 
-            Path relativePath = Paths.get(inputFolderPath).relativize(file.toPath());
+    /**
+     * Gets the name of the folder inside the zip file created from the specified folder
+     * @param inputFolderPath the path of the folder to create the zip from
+     * @return the folder name
+     * @throws Exception
+     */
+    private static String getZipFolderName(String inputFolderPath) throws Exception {
+        if (isBaseFolder(inputFolderPath)) {
+            return "root";
+        }
 
-            for (BlacklistEntry blacklistEntry : blacklist) {
-                if (blacklistEntry.getPathMatcher().matches(relativePath)) {
-                    blacklistEntry.incrementBlacklistedFiles();
+        return new File(inputFolderPath).getName();
+    }
 
-                    return;
-                }
-            }
-            fileList.add(relativePath.toString());
-        }
+    /**
+     * Warns that the specified file couldn't be included in the backup
+     * @param inputFolderPath the path of the folder to create the zip from
+     * @param file the relative path of the file
+     */
+    private static void sendFileLockedWarning(String inputFolderPath, String file) {
+        String filePath = new File(inputFolderPath, file).getPath();
 
-        if (file.isDirectory()) {
-            for (String filename : file.list()) {
-                generateFileList(new File(file, filename), inputFolderPath);
-            }
+        if (!filePath.endsWith(".lock")) { // Don't send warning for .lock files, they will always be locked
+            MessageUtil.Builder().text("Failed to include \"" + filePath + "\" in the backup, is it locked?").toConsole(true).send();
         }
     }
 
     /**
      * Finds all folders that match a glob
+     * <p>
+     * Only the folders a match can be in are searched, and the folders found are reused until the folders searched change
      * @param glob the glob to search
      * @param rootPath the path to start searching from
      * @return List of all folders that match this glob under rootPath
      */
     public static List<Path> generateGlobFolderList(String glob, String rootPath) {
-        PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:./" + glob);
-        List<Path> list = new ArrayList<Path>();
-        try (Stream<Path> walk = Files.walk(Paths.get(rootPath))) {
-            list = walk.filter(pathMatcher::matches).filter(Files::isDirectory).collect(Collectors.toList());
-        } catch (IOException exception) {
-            return list;
-        }
-        return list;
+        return GlobResolver.resolve(glob, rootPath);
     }
 
     /**
@@ -274,9 +513,8 @@ public class FileUtil {
      * In other words, whether the folder is the folder containing the server jar
      * @param folderPath the path of the folder
      * @return whether the folder is the base folder
-     * @throws Exception
      */
-    public static boolean isBaseFolder(String folderPath) throws Exception {
+    public static boolean isBaseFolder(String folderPath) {
         return new File(folderPath).getPath().equals(".");
     }
 
@@ -294,4 +532,19 @@ public class FileUtil {
         }
         return folder.delete();
     }
+
+    /**
+     * The files to back up for a backup type, found when preparing a backup of it
+     */
+    private static class PreparedBackup {
+        private final File folder;
+        private final FileList scannedFiles;
+        private final List<String> fileList;
+
+        private PreparedBackup(File folder, FileList scannedFiles, List<String> fileList) {
+            this.folder = folder;
+            this.scannedFiles = scannedFiles;
+            this.fileList = fileList;
+        }
+    }
 }
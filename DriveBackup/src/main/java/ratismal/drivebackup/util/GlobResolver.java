@@ -0,0 +1,264 @@
+package ratismal.drivebackup.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds the folders matching a glob, only listing the folders a match can be in
+ * <p>
+ * The glob is split into its folders. Folders without wildcards are looked up directly, folders with wildcards are
+ * matched against the subfolders of the folders matched so far, and only the rest of the tree under a {@code **} is
+ * walked. The folders that were looked in are remembered along with their modification times, which change whenever a
+ * subfolder is created, deleted or renamed in them, so the folders matching the glob are only found again once one of
+ * them changed.
+ */
+public class GlobResolver {
+    private static final String GLOB_CHARACTERS = "*?[]{}\\";
+
+    /**
+     * File systems store modification times this coarsely at worst, so a folder changed this recently may change again
+     * without its modification time changing
+     */
+    private static final long MODIFIED_TIME_GRANULARITY = 2000;
+
+    private static final Map<String, Resolution> cache = new ConcurrentHashMap<>();
+
+    private GlobResolver() {
+    }
+
+    /**
+     * Finds all folders that match a glob
+     * @param glob the glob, relative to the root folder
+     * @param rootPath the path to start searching from
+     * @return the folders, sorted by path, each starting with the root path
+     */
+    public static List<Path> resolve(String glob, String rootPath) {
+        String key = rootPath + "\0" + glob;
+
+        Resolution resolution = cache.get(key);
+        if (resolution == null || !resolution.isValid()) {
+            resolution = new Resolution(glob);
+            resolution.resolve(Paths.get(rootPath));
+
+            cache.put(key, resolution);
+        }
+
+        return new ArrayList<>(resolution.folders);
+    }
+
+    /**
+     * Splits the specified glob into its folders, unless a group of alternatives contains a separator
+     * @param glob the glob
+     * @return the folders, or {@code null} if the glob can't be split
+     */
+    private static List<String> splitGlob(String glob) {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        int groupDepth = 0;
+
+        for (int i = 0; i < glob.length(); i++) {
+            char character = glob.charAt(i);
+
+            if (character == '\\' && i + 1 < glob.length()) {
+                segment.append(character).append(glob.charAt(++i));
+
+                continue;
+            }
+
+            if (character == '{') {
+                groupDepth++;
+            } else if (character == '}') {
+                groupDepth--;
+            } else if (character == '/') {
+                if (groupDepth > 0) {
+                    return null;
+                }
+
+                segments.add(segment.toString());
+                segment.setLength(0);
+
+                continue;
+            }
+
+            segment.append(character);
+        }
+
+        segments.add(segment.toString());
+
+        return segments;
+    }
+
+    private static boolean containsGlobCharacter(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(text.charAt(i)) != -1) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The folders matching a glob, and the folders looked in to find them
+     */
+    private static class Resolution {
+        private final String glob;
+        private final PathMatcher pathMatcher;
+        private final List<Path> folders = new ArrayList<>();
+        private final Map<Path, Long> modifiedTimes = new HashMap<>();
+        private long resolvedTime;
+
+        private Resolution(String glob) {
+            this.glob = glob;
+            this.pathMatcher = FileSystems.getDefault().getPathMatcher("glob:./" + glob);
+        }
+
+        private void resolve(Path root) {
+            resolvedTime = System.currentTimeMillis();
+
+            List<String> segments = splitGlob(glob);
+            if (segments == null) {
+                walk(root);
+            } else {
+                descend(root, segments, 0);
+            }
+
+            folders.sort(Comparator.comparing(Path::toString));
+        }
+
+        /**
+         * Finds the folders in the specified folder matching the rest of the glob
+         * @param folder the folder, which matches the glob up to the specified folder of it
+         * @param segments the folders of the glob
+         * @param index the index of the next folder of the glob to match
+         */
+        private void descend(Path folder, List<String> segments, int index) {
+            if (index == segments.size()) {
+                if (pathMatcher.matches(folder)) {
+                    folders.add(folder);
+                }
+
+                return;
+            }
+
+            String segment = segments.get(index);
+            boolean last = index == segments.size() - 1;
+
+            if (segment.contains("**")) {
+                walk(folder);
+
+                return;
+            }
+
+            recordModifiedTime(folder);
+
+            if (!containsGlobCharacter(segment)) {
+                Path child = folder.resolve(segment);
+
+                if (isFolder(child, last)) {
+                    descend(child, segments, index + 1);
+                }
+
+                return;
+            }
+
+            PathMatcher segmentMatcher = FileSystems.getDefault().getPathMatcher("glob:" + segment);
+
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(folder)) {
+                for (Path child : children) {
+                    if (segmentMatcher.matches(child.getFileName()) && isFolder(child, last)) {
+                        descend(child, segments, index + 1);
+                    }
+                }
+            } catch (IOException exception) {
+                // Not a folder that can be listed, so nothing in it matches
+            }
+        }
+
+        /**
+         * Finds the folders in the specified folder matching the glob by walking every folder in it
+         * @param folder the folder
+         */
+        private void walk(Path folder) {
+            try (Stream<Path> walk = Files.walk(folder)) {
+                List<Path> walked = walk.filter(Files::isDirectory).collect(Collectors.toList());
+
+                for (Path path : walked) {
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        recordModifiedTime(path);
+                    }
+
+                    if (pathMatcher.matches(path)) {
+                        folders.add(path);
+                    }
+                }
+            } catch (IOException | UncheckedIOException exception) {
+                // The folder can't be walked, so it is looked in again next time
+                modifiedTimes.put(folder, Long.MIN_VALUE);
+            }
+        }
+
+        private void recordModifiedTime(Path folder) {
+            modifiedTimes.put(folder, getModifiedTime(folder));
+        }
+
+        /**
+         * Gets whether none of the folders looked in changed since the folders matching the glob were found
+         * @return whether the folders matching the glob are still the same
+         */
+        private boolean isValid() {
+            for (Map.Entry<Path, Long> folder : modifiedTimes.entrySet()) {
+                long modifiedTime = folder.getValue();
+
+                if (modifiedTime == Long.MIN_VALUE || modifiedTime >= resolvedTime - MODIFIED_TIME_GRANULARITY) {
+                    return false;
+                }
+
+                if (getModifiedTime(folder.getKey()) != modifiedTime) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Gets whether the specified path is a folder to descend into, as walking the tree would
+         * <p>
+         * Links to folders can match the glob, but aren't followed
+         * @param path the path
+         * @param last whether the path is matched against the last folder of the glob
+         * @return whether the path is a folder
+         */
+        private static boolean isFolder(Path path, boolean last) {
+            if (last) {
+                return Files.isDirectory(path);
+            }
+
+            return Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+        }
+
+        private static long getModifiedTime(Path folder) {
+            try {
+                return Files.getLastModifiedTime(folder).toMillis();
+            } catch (IOException exception) {
+                return Long.MIN_VALUE;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Writes to a file, updating a hash with everything written to it, so the file doesn't have to be read back to be
+ * hashed once written
+ * <p>
+ * Parts of other files can be copied into the file with {@link #transferFrom(FileChannel, long, long)}, which
+ * hashes them on the way, unlike copying them to the channel of the file.
+ */
+public class HashingFileOutputStream extends FileOutputStream {
+    private static final int TRANSFER_BUFFER_SIZE = 1024 * 1024;
+
+    private final MessageDigest digest;
+    private ByteBuffer transferBuffer;
+
+    /**
+     * Creates an instance of the {@code HashingFileOutputStream} object
+     * @param file the file to write to
+     * @param digest the hash to update with everything written to the file
+     * @throws FileNotFoundException
+     */
+    public HashingFileOutputStream(File file, MessageDigest digest) throws FileNotFoundException {
+        super(file);
+        this.digest = digest;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        super.write(b);
+        digest.update((byte) b);
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        super.write(bytes, offset, length);
+        digest.update(bytes, offset, length);
+    }
+
+    /**
+     * Copies part of the specified file to the end of this file, hashing it on the way
+     * <p>
+     * The part is copied through a reused direct buffer, so it's only read from the disk once, but unlike
+     * {@code FileChannel.transferTo} it passes through the process to be hashed
+     * @param source the channel of the file to copy from
+     * @param position the position in the file to copy from
+     * @param count the number of bytes to copy
+     * @return the number of bytes copied, which is less than {@code count} only if the file ends first
+     * @throws IOException
+     */
+    public long transferFrom(FileChannel source, long position, long count) throws IOException {
+        if (transferBuffer == null) {
+            transferBuffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+        }
+
+        FileChannel channel = getChannel();
+        long copied = 0;
+        while (copied < count) {
+            transferBuffer.clear();
+            transferBuffer.limit((int) Math.min(TRANSFER_BUFFER_SIZE, count - copied));
+
+            int length = source.read(transferBuffer, position + copied);
+            if (length <= 0) {
+                break;
+            }
+
+            transferBuffer.flip();
+            digest.update(transferBuffer);
+            transferBuffer.rewind();
+            while (transferBuffer.hasRemaining()) {
+                channel.write(transferBuffer);
+            }
+
+            copied += length;
+        }
+
+        return copied;
+    }
+
+    /**
+     * Creates a new SHA-256 hash, which every Java platform supports
+     * @return the hash
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    /**
+     * Completes the specified hash, and formats it in hexadecimal
+     * @param digest the hash
+     * @return the hash, in hexadecimal
+     */
+    public static String toHex(MessageDigest digest) {
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+
+        return hash.toString();
+    }
+}
@@ -0,0 +1,93 @@
+package ratismal.drivebackup.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The HTTP client shared by the whole plugin
+ * <p>
+ * Every client the plugin uses is derived from the same one, so they share a pool of connections and the threads
+ * running asynchronous calls. A connection opened to a host by one client, such as when the connection is prewarmed,
+ * is reused by any other sending to that host. Connections use HTTP/2 wherever the host supports it.
+ */
+public class HttpUtil {
+    private static final ConnectionPool connectionPool = new ConnectionPool(8, 5, TimeUnit.MINUTES);
+    private static final Dispatcher dispatcher = new Dispatcher();
+
+    private static final OkHttpClient httpClient = new OkHttpClient.Builder()
+        .connectionPool(connectionPool)
+        .dispatcher(dispatcher)
+        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .connectTimeout(30, TimeUnit.SECONDS)
+        .writeTimeout(1, TimeUnit.MINUTES)
+        .readTimeout(1, TimeUnit.MINUTES)
+        .build();
+
+    private HttpUtil() {
+    }
+
+    /**
+     * Gets the shared HTTP client, for requests which aren't uploads
+     * @return the HTTP client
+     */
+    public static OkHttpClient getClient() {
+        return httpClient;
+    }
+
+    /**
+     * Creates a builder for the HTTP client of the specified backup method, sharing the connections of every other
+     * client, and throttled to the bandwidth limits of the backup method
+     * <p>
+     * The backup method sets its own timeouts on the builder, as how long its API takes to respond varies.
+     * @param method the name of the section of the backup method in the config (ex. googledrive, ftp)
+     * @return the builder
+     */
+    public static OkHttpClient.Builder newUploadClient(String method) {
+        return httpClient.newBuilder()
+            .addInterceptor(new BandwidthInterceptor(BandwidthLimiter.forMethod(method)));
+    }
+
+    /**
+     * Opens a connection to the host of the specified URL in the background, so the first request sent to it later
+     * doesn't have to wait for the connection to be set up
+     * @param client the HTTP client which will send the requests
+     * @param url the URL
+     */
+    public static void prewarm(OkHttpClient client, String url) {
+        Request request = new Request.Builder()
+            .url(url)
+            .head()
+            .build();
+
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException exception) {
+                // Connecting again is left to the request needing the connection, which reports any failure
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+    }
+
+    /**
+     * Cancels the calls still running and closes the idle connections, once the plugin is disabled
+     */
+    public static void shutdown() {
+        dispatcher.cancelAll();
+        dispatcher.executorService().shutdown();
+        connectionPool.evictAll();
+    }
+}
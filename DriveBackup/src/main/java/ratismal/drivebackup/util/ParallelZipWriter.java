@@ -0,0 +1,880 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a standard zip file, compressing the entries on a pool of worker threads
+ * <p>
+ * Each file is split into blocks which are deflated independently, using the end of the previous block
+ * as the preset dictionary, then joined back together in order. This is the same approach as pigz, and
+ * produces a regular deflate stream that any zip reader can extract.
+ * <p>
+ * Files are read through a {@code FileChannel} into arrays that are reused once their block is written.
+ * <p>
+ * Files the {@code CompressionPolicy} considers incompressible are stored without compression. As the checksum of
+ * a stored entry must be known before it is written, it is calculated first. When writing to a
+ * {@code HashingFileOutputStream}, stored files are then read a second time as they are copied to it through a reused
+ * direct buffer, which hashes them on the way, otherwise they are held in memory if they are small enough. Larger
+ * incompressible files are deflated at level 0, which only wraps the data in uncompressed deflate blocks.
+ */
+public class ParallelZipWriter implements ArchiveWriter {
+    /**
+     * Size of the blocks files are split into before being compressed
+     */
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Size of the deflate sliding window, and therefore the largest useful preset dictionary
+     */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    /**
+     * Size of the largest incompressible file which is held in memory to be stored when not writing to a
+     * {@code HashingFileOutputStream}, rather than deflated at level 0
+     */
+    private static final int MAX_STORED_SIZE = 16 * 1024 * 1024;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final Block EMPTY_BLOCK = new Block(new byte[0], 0, false);
+
+    private final OutputStream out;
+    private final HashingFileOutputStream hashingOut;
+    private final int level;
+    private final CompressionPolicy compressionPolicy;
+    private final CompressionGovernor governor;
+    private final DiskGovernor diskGovernor;
+    private final int maxPendingBlocks;
+    private final long dosTime;
+    private final ExecutorService executor;
+
+    private final ArrayDeque<PendingWrite> pendingWrites = new ArrayDeque<>();
+    private final List<EntryRecord> entries = new ArrayList<>();
+    private final ArrayDeque<byte[]> blockPool = new ArrayDeque<>();
+    private ByteBuffer checksumBuffer;
+    private int pendingBlocks = 0;
+    private long written = 0;
+    private boolean closed = false;
+
+    /**
+     * Creates an instance of the {@code ParallelZipWriter} object
+     * @param out the stream to write the zip file to, which is buffered by the writer. If it is a {@code HashingFileOutputStream},
+     * stored entries are copied straight from their files to it
+     * @param level the deflate compression level
+     * @param compressionPolicy the policy deciding which files are compressed
+     * @param threads the number of threads to compress blocks on
+     * @param threadPriority the priority of the compression threads
+     * @param governor the governor limiting how many of the threads compress at once, and how much of the time, while the server is struggling
+     * @param diskGovernor the governor limiting how fast files are read
+     */
+    public ParallelZipWriter(OutputStream out, int level, CompressionPolicy compressionPolicy, int threads, int threadPriority, CompressionGovernor governor, DiskGovernor diskGovernor) {
+        this.out = new BufferedOutputStream(out, BLOCK_SIZE);
+        this.hashingOut = out instanceof HashingFileOutputStream ? (HashingFileOutputStream) out : null;
+        this.level = level;
+        this.compressionPolicy = compressionPolicy;
+        this.governor = governor;
+        this.diskGovernor = diskGovernor;
+        this.maxPendingBlocks = threads * 4;
+        this.dosTime = toDosTime(LocalDateTime.now());
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "DriveBackup-Compression-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Adds the specified file to the zip file
+     * <p>
+     * If the file can't be read after its compression method is chosen, a compressed entry is still added with
+     * whatever was read before the failure, then the exception is rethrown. A stored entry is only added once its
+     * checksum is known, up to the size of the file when it was opened.
+     * @param entryName the path of the entry within the zip file
+     * @param file the file to add
+     * @return the CRC-32 checksum of the file
+     * @throws IOException
+     */
+    public long putFile(String entryName, File file) throws IOException {
+        diskGovernor.openFile();
+
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        boolean transferred = false;
+
+        try {
+            long size = channel.size();
+            Block firstBlock = readBlock(channel, BLOCK_SIZE);
+
+            boolean compress = firstBlock == null || compressionPolicy.shouldCompress(entryName, firstBlock.bytes, firstBlock.length);
+            if (!compress && hashingOut != null) {
+                // The channel is closed once the file has been copied to the zip file
+                transferred = true;
+
+                return putTransferred(entryName, channel, firstBlock, size);
+            }
+
+            if (!compress && size <= MAX_STORED_SIZE) {
+                return putStored(entryName, readStoredBlocks(channel, firstBlock, size));
+            }
+
+            EntryRecord entry = startEntry(entryName, compress ? level : Deflater.NO_COMPRESSION);
+
+            try {
+                queueBlocks(entry, firstBlock, channel);
+            } finally {
+                finishEntry(entry);
+            }
+
+            return entry.crc;
+        } finally {
+            if (!transferred) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Adds an entry containing the specified bytes to the zip file
+     * @param entryName the path of the entry within the zip file
+     * @param bytes the contents of the entry
+     * @return the CRC-32 checksum of the contents
+     * @throws IOException
+     */
+    public long putBytes(String entryName, byte[] bytes) throws IOException {
+        boolean compress = compressionPolicy.shouldCompress(entryName, bytes, bytes.length);
+        if (!compress && bytes.length <= MAX_STORED_SIZE) {
+            return putStored(entryName, Collections.singletonList(new Block(bytes, bytes.length, false)));
+        }
+
+        EntryRecord entry = startEntry(entryName, compress ? level : Deflater.NO_COMPRESSION);
+
+        try (ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(bytes))) {
+            queueBlocks(entry, readBlock(channel, BLOCK_SIZE), channel);
+        } finally {
+            finishEntry(entry);
+        }
+
+        return entry.crc;
+    }
+
+    private EntryRecord startEntry(String entryName, int entryLevel) throws IOException {
+        EntryRecord entry = new EntryRecord(entryName, METHOD_DEFLATED, entryLevel);
+        queue(new PendingWrite(entry, WriteType.HEADER));
+
+        return entry;
+    }
+
+    /**
+     * Splits the contents of the specified channel into blocks, and queues them to be compressed
+     * @param entry the entry the contents belong to
+     * @param firstBlock the first block, already read from the channel, or {@code null} if the channel is empty
+     * @param channel the channel
+     * @throws IOException
+     */
+    private void queueBlocks(EntryRecord entry, Block firstBlock, ReadableByteChannel channel) throws IOException {
+        byte[] dictionary = null;
+
+        Block block = firstBlock;
+        while (block != null) {
+            entry.checksum.update(block.bytes, 0, block.length);
+            entry.size += block.length;
+
+            // The dictionary is copied before the block is queued, as the block is reused once it is written
+            byte[] nextDictionary = getDictionary(block);
+            queueBlock(entry, block, dictionary, false);
+            dictionary = nextDictionary;
+
+            block = readBlock(channel, BLOCK_SIZE);
+        }
+    }
+
+    private void finishEntry(EntryRecord entry) throws IOException {
+        queueBlock(entry, EMPTY_BLOCK, null, true);
+
+        entry.crc = entry.checksum.getValue();
+        queue(new PendingWrite(entry, WriteType.END));
+    }
+
+    /**
+     * Adds an entry containing the specified blocks to the zip file, without compressing them
+     * @param entryName the path of the entry within the zip file
+     * @param blocks the contents of the entry
+     * @return the CRC-32 checksum of the contents
+     * @throws IOException
+     */
+    private long putStored(String entryName, List<Block> blocks) throws IOException {
+        EntryRecord entry = new EntryRecord(entryName, METHOD_STORED, Deflater.NO_COMPRESSION);
+
+        for (Block block : blocks) {
+            entry.checksum.update(block.bytes, 0, block.length);
+            entry.size += block.length;
+        }
+        entry.crc = entry.checksum.getValue();
+
+        queue(new PendingWrite(entry, WriteType.HEADER));
+
+        for (Block block : blocks) {
+            PendingWrite pendingWrite = new PendingWrite(entry, WriteType.STORED_BLOCK);
+            pendingWrite.block = block;
+
+            pendingBlocks++;
+            queue(pendingWrite);
+        }
+
+        queue(new PendingWrite(entry, WriteType.END));
+
+        return entry.crc;
+    }
+
+    /**
+     * Adds the specified file to the zip file without compressing it, copying it straight from the file to the zip file
+     * <p>
+     * The checksum is calculated by reading the rest of the file into a direct buffer, so its contents are never copied
+     * onto the heap. The file is then read a second time as it is copied, as its header, which holds the checksum, must
+     * be written before it.
+     * @param entryName the path of the entry within the zip file
+     * @param channel the channel of the file, which is closed once the file is copied
+     * @param firstBlock the first block, already read from the channel
+     * @param size the size of the file when it was opened
+     * @return the CRC-32 checksum of the file
+     * @throws IOException
+     */
+    private long putTransferred(String entryName, FileChannel channel, Block firstBlock, long size) throws IOException {
+        EntryRecord entry = new EntryRecord(entryName, METHOD_STORED, Deflater.NO_COMPRESSION);
+
+        entry.checksum.update(firstBlock.bytes, 0, firstBlock.length);
+        entry.size = firstBlock.length;
+        releaseBlock(firstBlock);
+
+        try {
+            if (checksumBuffer == null) {
+                checksumBuffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            }
+
+            while (entry.size < size) {
+                checksumBuffer.clear();
+                checksumBuffer.limit((int) Math.min(checksumBuffer.capacity(), size - entry.size));
+
+                int length = channel.read(checksumBuffer, entry.size);
+                if (length == -1) {
+                    break;
+                }
+
+                checksumBuffer.flip();
+                entry.checksum.update(checksumBuffer);
+                entry.size += length;
+
+                diskGovernor.read(length);
+            }
+            entry.crc = entry.checksum.getValue();
+        } catch (IOException exception) {
+            channel.close();
+
+            throw exception;
+        }
+
+        PendingWrite pendingWrite = new PendingWrite(entry, WriteType.TRANSFER);
+        pendingWrite.channel = channel;
+
+        queue(new PendingWrite(entry, WriteType.HEADER));
+        pendingBlocks++;
+        queue(pendingWrite);
+        queue(new PendingWrite(entry, WriteType.END));
+
+        return entry.crc;
+    }
+
+    /**
+     * Reads the rest of a file to be stored, up to the size it had when it was opened
+     * @param channel the channel of the file
+     * @param firstBlock the first block, already read from the channel
+     * @param size the size of the file when it was opened
+     * @return the blocks of the file
+     * @throws IOException
+     */
+    private List<Block> readStoredBlocks(ReadableByteChannel channel, Block firstBlock, long size) throws IOException {
+        List<Block> blocks = new ArrayList<>();
+        blocks.add(firstBlock);
+
+        long remaining = size - firstBlock.length;
+        while (remaining > 0) {
+            Block block = readBlock(channel, (int) Math.min(BLOCK_SIZE, remaining));
+            if (block == null) {
+                break;
+            }
+
+            blocks.add(block);
+            remaining -= block.length;
+        }
+
+        return blocks;
+    }
+
+    /**
+     * Waits for the remaining blocks to be compressed, then writes the central directory and closes the stream
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            while (!pendingWrites.isEmpty()) {
+                writeNext();
+            }
+
+            writeCentralDirectory();
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+
+            for (PendingWrite pendingWrite : pendingWrites) {
+                if (pendingWrite.channel != null) {
+                    pendingWrite.channel.close();
+                }
+            }
+
+            out.close();
+        }
+    }
+
+    /**
+     * Queues the specified block to be compressed on the worker threads
+     * @param entry the entry the block belongs to
+     * @param block the uncompressed bytes
+     * @param dictionary the preset dictionary, or {@code null} if this is the first block
+     * @param finish whether this is the last block of the entry
+     * @throws IOException
+     */
+    private void queueBlock(EntryRecord entry, Block block, byte[] dictionary, boolean finish) throws IOException {
+        PendingWrite pendingWrite = new PendingWrite(entry, WriteType.BLOCK);
+        pendingWrite.block = block;
+        pendingWrite.data = executor.submit(() -> {
+            governor.acquireWorker();
+            long startTime = System.nanoTime();
+
+            try {
+                return deflateBlock(block, dictionary, finish, entry.level);
+            } finally {
+                governor.releaseWorker();
+                governor.rest(System.nanoTime() - startTime);
+            }
+        });
+
+        pendingBlocks++;
+        queue(pendingWrite);
+    }
+
+    /**
+     * Queues the specified write, writing out the oldest writes if too many blocks are waiting
+     * @param pendingWrite the write
+     * @throws IOException
+     */
+    private void queue(PendingWrite pendingWrite) throws IOException {
+        pendingWrites.add(pendingWrite);
+
+        while (pendingBlocks > maxPendingBlocks) {
+            writeNext();
+        }
+    }
+
+    /**
+     * Writes the oldest queued write to the stream, waiting for it to be compressed if necessary
+     * @throws IOException
+     */
+    private void writeNext() throws IOException {
+        PendingWrite pendingWrite = pendingWrites.poll();
+        EntryRecord entry = pendingWrite.entry;
+
+        switch (pendingWrite.type) {
+            case HEADER:
+                entry.offset = written;
+                writeLocalHeader(entry);
+                break;
+            case BLOCK:
+                byte[] compressed = getResult(pendingWrite.data);
+                write(compressed, compressed.length);
+                entry.compressedSize += compressed.length;
+                releaseBlock(pendingWrite.block);
+                pendingBlocks--;
+                break;
+            case STORED_BLOCK:
+                write(pendingWrite.block.bytes, pendingWrite.block.length);
+                entry.compressedSize += pendingWrite.block.length;
+                releaseBlock(pendingWrite.block);
+                pendingBlocks--;
+                break;
+            case TRANSFER:
+                try (FileChannel channel = pendingWrite.channel) {
+                    transfer(channel, entry.size);
+                }
+
+                entry.compressedSize += entry.size;
+                pendingBlocks--;
+                break;
+            case END:
+                if (entry.method == METHOD_DEFLATED) {
+                    writeDataDescriptor(entry);
+                }
+
+                entries.add(entry);
+                break;
+        }
+    }
+
+    /**
+     * Deflates the specified block
+     * @param block the uncompressed bytes
+     * @param dictionary the preset dictionary, or {@code null} if none
+     * @param finish whether to end the deflate stream after this block
+     * @param blockLevel the deflate compression level
+     * @return the compressed bytes
+     */
+    private static byte[] deflateBlock(Block block, byte[] dictionary, boolean finish, int blockLevel) {
+        Deflater deflater = new Deflater(blockLevel, true);
+
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+
+            deflater.setInput(block.bytes, 0, block.length);
+
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(block.length / 2, 64));
+            byte[] buffer = new byte[64 * 1024];
+
+            if (finish) {
+                deflater.finish();
+
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, length);
+                }
+            } else {
+                // Sync flush ends the block on a byte boundary, so the next block can be appended directly
+                int length;
+                do {
+                    length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    compressed.write(buffer, 0, length);
+                } while (length == buffer.length || !deflater.needsInput());
+            }
+
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeLocalHeader(EntryRecord entry) throws IOException {
+        // Only stored entries have their sizes in the local header, the sizes of the rest are in the data descriptor
+        boolean zip64 = entry.method == METHOD_STORED && entry.size >= ZIP64_MAGIC;
+        int extraLength = zip64 ? 20 : 0;
+
+        ZipBuffer header = new ZipBuffer(30 + entry.name.length + extraLength);
+        header.writeInt(LOCAL_HEADER_SIGNATURE);
+        header.writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        header.writeShort(getFlags(entry));
+        header.writeShort(entry.method);
+        header.writeInt(dosTime);
+
+        if (entry.method == METHOD_STORED) {
+            header.writeInt(entry.crc);
+            header.writeInt(Math.min(entry.size, ZIP64_MAGIC));
+            header.writeInt(Math.min(entry.size, ZIP64_MAGIC));
+        } else {
+            header.writeInt(0); // CRC, size and compressed size are written in the data descriptor
+            header.writeInt(0);
+            header.writeInt(0);
+        }
+
+        header.writeShort(entry.name.length);
+        header.writeShort(extraLength);
+        header.write(entry.name);
+
+        if (zip64) {
+            // The local zip64 extra field has both sizes, unlike the central one which only has those that overflowed
+            header.writeShort(0x0001);
+            header.writeShort(extraLength - 4);
+            header.writeLong(entry.size);
+            header.writeLong(entry.size);
+        }
+
+        write(header.toByteArray());
+    }
+
+    private void writeDataDescriptor(EntryRecord entry) throws IOException {
+        ZipBuffer descriptor = new ZipBuffer(24);
+        descriptor.writeInt(DATA_DESCRIPTOR_SIGNATURE);
+        descriptor.writeInt(entry.crc);
+
+        if (entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC) {
+            descriptor.writeLong(entry.compressedSize);
+            descriptor.writeLong(entry.size);
+        } else {
+            descriptor.writeInt(entry.compressedSize);
+            descriptor.writeInt(entry.size);
+        }
+
+        write(descriptor.toByteArray());
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long centralDirectoryOffset = written;
+
+        for (EntryRecord entry : entries) {
+            writeCentralHeader(entry);
+        }
+
+        long centralDirectorySize = written - centralDirectoryOffset;
+        int entryCount = entries.size();
+
+        boolean zip64 =
+            entryCount >= ZIP64_MAGIC_COUNT ||
+            centralDirectoryOffset >= ZIP64_MAGIC ||
+            centralDirectorySize >= ZIP64_MAGIC;
+
+        if (zip64) {
+            long zip64EndOffset = written;
+
+            ZipBuffer zip64End = new ZipBuffer(76);
+            zip64End.writeInt(ZIP64_END_SIGNATURE);
+            zip64End.writeLong(44); // Size of the remainder of this record
+            zip64End.writeShort(VERSION_ZIP64);
+            zip64End.writeShort(VERSION_ZIP64);
+            zip64End.writeInt(0);
+            zip64End.writeInt(0);
+            zip64End.writeLong(entryCount);
+            zip64End.writeLong(entryCount);
+            zip64End.writeLong(centralDirectorySize);
+            zip64End.writeLong(centralDirectoryOffset);
+
+            zip64End.writeInt(ZIP64_LOCATOR_SIGNATURE);
+            zip64End.writeInt(0);
+            zip64End.writeLong(zip64EndOffset);
+            zip64End.writeInt(1);
+
+            write(zip64End.toByteArray());
+        }
+
+        ZipBuffer end = new ZipBuffer(22);
+        end.writeInt(END_SIGNATURE);
+        end.writeShort(0);
+        end.writeShort(0);
+        end.writeShort(Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        end.writeShort(Math.min(entryCount, ZIP64_MAGIC_COUNT));
+        end.writeInt(Math.min(centralDirectorySize, ZIP64_MAGIC));
+        end.writeInt(Math.min(centralDirectoryOffset, ZIP64_MAGIC));
+        end.writeShort(0);
+
+        write(end.toByteArray());
+    }
+
+    private void writeCentralHeader(EntryRecord entry) throws IOException {
+        boolean sizeZip64 = entry.size >= ZIP64_MAGIC;
+        boolean compressedSizeZip64 = entry.compressedSize >= ZIP64_MAGIC;
+        boolean offsetZip64 = entry.offset >= ZIP64_MAGIC;
+
+        int extraLength = 0;
+        if (sizeZip64) extraLength += 8;
+        if (compressedSizeZip64) extraLength += 8;
+        if (offsetZip64) extraLength += 8;
+
+        boolean zip64 = extraLength > 0;
+        if (zip64) extraLength += 4;
+
+        int version = zip64 ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+        ZipBuffer header = new ZipBuffer(46 + entry.name.length + extraLength);
+        header.writeInt(CENTRAL_HEADER_SIGNATURE);
+        header.writeShort(version);
+        header.writeShort(version);
+        header.writeShort(getFlags(entry));
+        header.writeShort(entry.method);
+        header.writeInt(dosTime);
+        header.writeInt(entry.crc);
+        header.writeInt(Math.min(entry.compressedSize, ZIP64_MAGIC));
+        header.writeInt(Math.min(entry.size, ZIP64_MAGIC));
+        header.writeShort(entry.name.length);
+        header.writeShort(extraLength);
+        header.writeShort(0); // Comment length
+        header.writeShort(0); // Disk number
+        header.writeShort(0); // Internal attributes
+        header.writeInt(0); // External attributes
+        header.writeInt(Math.min(entry.offset, ZIP64_MAGIC));
+        header.write(entry.name);
+
+        if (zip64) {
+            header.writeShort(0x0001);
+            header.writeShort(extraLength - 4);
+            if (sizeZip64) header.writeLong(entry.size);
+            if (compressedSizeZip64) header.writeLong(entry.compressedSize);
+            if (offsetZip64) header.writeLong(entry.offset);
+        }
+
+        write(header.toByteArray());
+    }
+
+    private static int getFlags(EntryRecord entry) {
+        if (entry.method == METHOD_STORED) {
+            return FLAG_UTF8;
+        }
+
+        return FLAG_DATA_DESCRIPTOR | FLAG_UTF8;
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, bytes.length);
+    }
+
+    private void write(byte[] bytes, int length) throws IOException {
+        out.write(bytes, 0, length);
+        written += length;
+    }
+
+    /**
+     * Copies the specified file to the zip file without it passing through the heap, through a direct buffer of the
+     * stream of the zip file, which hashes it on the way
+     * <p>
+     * If the file was truncated since its checksum was calculated, the rest of the entry is filled with zeros, so the
+     * entry keeps the size in its header
+     * @param channel the channel of the file
+     * @param size the size of the entry
+     * @throws IOException
+     */
+    private void transfer(FileChannel channel, long size) throws IOException {
+        out.flush();
+
+        long position = 0;
+        while (position < size) {
+            // Copied a block at a time, so the file is read as fast as the disk governor allows
+            long count = Math.min(size - position, BLOCK_SIZE);
+            long length = hashingOut.transferFrom(channel, position, count);
+            if (length <= 0) {
+                break;
+            }
+
+            position += length;
+            diskGovernor.read(length);
+        }
+
+        byte[] zeros = new byte[DICTIONARY_SIZE];
+        while (position < size) {
+            int length = (int) Math.min(zeros.length, size - position);
+            out.write(zeros, 0, length);
+            position += length;
+        }
+
+        written += size;
+    }
+
+    /**
+     * Reads the next block from the specified channel, into a reused array
+     * @param channel the channel
+     * @param blockSize the maximum size of the block
+     * @return the block, or {@code null} if the end of the channel was reached
+     * @throws IOException
+     */
+    private Block readBlock(ReadableByteChannel channel, int blockSize) throws IOException {
+        byte[] bytes = blockPool.poll();
+        if (bytes == null) {
+            bytes = new byte[BLOCK_SIZE];
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, blockSize);
+        while (buffer.hasRemaining() && channel.read(buffer) != -1);
+
+        // Entries added from bytes in memory are read through a channel too, but not from the disk
+        if (channel instanceof FileChannel) {
+            diskGovernor.read(buffer.position());
+        }
+
+        if (buffer.position() == 0) {
+            blockPool.push(bytes);
+
+            return null;
+        }
+
+        return new Block(bytes, buffer.position(), true);
+    }
+
+    /**
+     * Returns the array of the specified block to be reused, once it has been written
+     * @param block the block
+     */
+    private void releaseBlock(Block block) {
+        if (block.pooled && blockPool.size() < maxPendingBlocks) {
+            blockPool.push(block.bytes);
+        }
+    }
+
+    /**
+     * Gets the preset dictionary to compress the block after the specified block with
+     * @param previousBlock the block before
+     * @return the dictionary
+     */
+    private static byte[] getDictionary(Block previousBlock) {
+        return Arrays.copyOfRange(previousBlock.bytes, Math.max(0, previousBlock.length - DICTIONARY_SIZE), previousBlock.length);
+    }
+
+    private static byte[] getResult(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            throw new IOException("Interrupted while compressing", exception);
+        } catch (ExecutionException exception) {
+            throw new IOException("Failed to compress block", exception.getCause());
+        }
+    }
+
+    /**
+     * Converts the specified date/time to the MS-DOS format used in zip files
+     * @param dateTime the date/time
+     * @return the MS-DOS date/time
+     */
+    private static long toDosTime(LocalDateTime dateTime) {
+        if (dateTime.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (dateTime.getYear() - 1980) << 25
+            | dateTime.getMonthValue() << 21
+            | dateTime.getDayOfMonth() << 16
+            | dateTime.getHour() << 11
+            | dateTime.getMinute() << 5
+            | dateTime.getSecond() >> 1;
+    }
+
+    private enum WriteType {
+        HEADER,
+        BLOCK,
+        STORED_BLOCK,
+        TRANSFER,
+        END
+    }
+
+    /**
+     * A write to the zip file that is waiting for the writes before it
+     */
+    private static class PendingWrite {
+        private final EntryRecord entry;
+        private final WriteType type;
+        private Block block;
+        private Future<byte[]> data;
+        private FileChannel channel;
+
+        private PendingWrite(EntryRecord entry, WriteType type) {
+            this.entry = entry;
+            this.type = type;
+        }
+    }
+
+    /**
+     * Part of the contents of an entry, in an array which may be longer than the block
+     */
+    private static class Block {
+        private final byte[] bytes;
+        private final int length;
+        private final boolean pooled;
+
+        private Block(byte[] bytes, int length, boolean pooled) {
+            this.bytes = bytes;
+            this.length = length;
+            this.pooled = pooled;
+        }
+    }
+
+    /**
+     * The information about an entry needed to write its central directory header
+     */
+    private static class EntryRecord {
+        private final byte[] name;
+        private final int method;
+        private final int level;
+        private final CRC32 checksum = new CRC32();
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+
+        private EntryRecord(String name, int method, int level) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.level = level;
+        }
+    }
+
+    /**
+     * A little-endian byte buffer for building zip records
+     */
+    private static class ZipBuffer extends ByteArrayOutputStream {
+        private ZipBuffer(int size) {
+            super(size);
+        }
+
+        private void writeShort(int value) {
+            write(value & 0xFF);
+            write((value >>> 8) & 0xFF);
+        }
+
+        private void writeInt(long value) {
+            writeShort((int) (value & 0xFFFF));
+            writeShort((int) ((value >>> 16) & 0xFFFF));
+        }
+
+        private void writeLong(long value) {
+            writeInt(value & ZIP64_MAGIC);
+            writeInt(value >>> 32);
+        }
+
+        @Override
+        public void write(byte[] bytes) {
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+package ratismal.drivebackup.util;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Captures only the chunks of Minecraft region files that changed since the last backup, and rebuilds the region files from them
+ * <p>
+ * A region file starts with a table of the location of each of its 1024 chunks, followed by a table of the time each chunk was
+ * last saved. A delta is itself laid out like a region file: its timestamp table is the full table of the region at the time of
+ * the backup, but only the chunks saved since the previous backup have a location and data. A chunk with a timestamp but no
+ * location is unchanged, and a chunk without a timestamp doesn't exist.
+ * <p>
+ * To restore, extract the full backup, then each incremental backup in order, running {@link #applyDeltas(File)} on the
+ * extracted folder after each one. This can be done without the server running with
+ * {@code java -cp DriveBackupV2.jar ratismal.drivebackup.util.RegionDelta <folder>}.
+ */
+public class RegionDelta {
+    public static final String REGION_EXTENSION = ".mca";
+    public static final String DELTA_EXTENSION = ".delta";
+
+    private static final int SECTOR_SIZE = 4096;
+    private static final int CHUNK_COUNT = 1024;
+    private static final int HEADER_SIZE = SECTOR_SIZE * 2;
+
+    private final Map<String, int[]> previousTimestamps;
+    private final Map<String, int[]> timestamps = new HashMap<>();
+
+    /**
+     * Creates a region delta capture
+     * @param previousTimestamps the chunk timestamps of the region files at the time of the previous backup, by relative path
+     */
+    public RegionDelta(Map<String, int[]> previousTimestamps) {
+        this.previousTimestamps = previousTimestamps;
+    }
+
+    /**
+     * Gets whether the specified file is a region file whose chunks were captured in the previous backup, so only its changed
+     * chunks need to be included
+     * @param path the relative path of the file
+     * @return whether a delta can be created
+     */
+    public boolean canCapture(String path) {
+        return isRegionFile(path) && previousTimestamps.containsKey(path);
+    }
+
+    /**
+     * Creates a delta of the specified region file, containing the chunks that changed since the previous backup
+     * @param path the relative path of the region file
+     * @param file the region file
+     * @return the delta, or {@code null} if the file isn't a valid region file and should be included as it is
+     * @throws IOException
+     */
+    public Delta createDelta(String path, File file) throws IOException {
+        byte[] region = Files.readAllBytes(file.toPath());
+
+        CRC32 crc = new CRC32();
+        crc.update(region);
+
+        if (region.length < HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer regionBuffer = ByteBuffer.wrap(region);
+        int[] previous = previousTimestamps.get(path);
+        int[] current = new int[CHUNK_COUNT];
+        int[] locations = new int[CHUNK_COUNT];
+
+        int sectors = 2;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            int location = regionBuffer.getInt(i * 4);
+            int offset = location >>> 8;
+            int count = location & 0xFF;
+
+            if (location == 0) {
+                continue;
+            }
+
+            if (offset < 2 || (long) (offset + count) * SECTOR_SIZE > region.length) {
+                return null;
+            }
+
+            current[i] = regionBuffer.getInt(SECTOR_SIZE + i * 4);
+
+            if (current[i] == 0 || current[i] != previous[i]) {
+                locations[i] = location;
+                sectors += count;
+            }
+        }
+
+        byte[] delta = new byte[sectors * SECTOR_SIZE];
+        ByteBuffer deltaBuffer = ByteBuffer.wrap(delta);
+
+        int nextSector = 2;
+        for (int i = 0; i < CHUNK_COUNT; i++) {
+            deltaBuffer.putInt(SECTOR_SIZE + i * 4, current[i]);
+
+            if (locations[i] == 0) {
+                continue;
+            }
+
+            int offset = locations[i] >>> 8;
+            int count = locations[i] & 0xFF;
+
+            System.arraycopy(region, offset * SECTOR_SIZE, delta, nextSector * SECTOR_SIZE, count * SECTOR_SIZE);
+            deltaBuffer.putInt(i * 4, nextSector << 8 | count);
+
+            nextSector += count;
+        }
+
+        timestamps.put(path, current);
+
+        return new Delta(delta, crc.getValue());
+    }
+
+    /**
+     * Records the chunk timestamps of the specified region file, after it was included in the backup as it is
+     * @param path the relative path of the file
+     * @param file the file
+     */
+    public void recordTimestamps(String path, File file) {
+        if (!isRegionFile(path)) {
+            return;
+        }
+
+        try {
+            timestamps.put(path, readTimestamps(file));
+        } catch (IOException exception) {
+            // The whole region file will be included in the next backup
+        }
+    }
+
+    /**
+     * Gets the chunk timestamps of the region files included in the backup
+     * @return the timestamps, by relative path
+     */
+    public Map<String, int[]> getTimestamps() {
+        return timestamps;
+    }
+
+    /**
+     * Gets whether the specified file is a region file
+     * @param path the path of the file
+     * @return whether the file is a region file
+     */
+    public static boolean isRegionFile(String path) {
+        return path.endsWith(REGION_EXTENSION);
+    }
+
+    /**
+     * Reads the chunk timestamp table of the specified region file
+     * <p>
+     * Chunks which don't exist have a timestamp of 0
+     * @param file the region file
+     * @return the timestamps
+     * @throws IOException
+     */
+    private static int[] readTimestamps(File file) throws IOException {
+        int[] timestamps = new int[CHUNK_COUNT];
+
+        try (DataInputStream inputStream = new DataInputStream(new FileInputStream(file))) {
+            int[] locations = new int[CHUNK_COUNT];
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                locations[i] = inputStream.readInt();
+            }
+
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                int timestamp = inputStream.readInt();
+
+                if (locations[i] != 0) {
+                    timestamps[i] = timestamp;
+                }
+            }
+        }
+
+        return timestamps;
+    }
+
+    /**
+     * Merges every delta in the specified folder into the region file next to it, then deletes the delta
+     * @param folder the folder
+     * @return the number of region files rebuilt
+     * @throws IOException
+     */
+    public static int applyDeltas(File folder) throws IOException {
+        List<File> deltaFiles = new ArrayList<>();
+        findDeltas(folder, deltaFiles);
+
+        for (File deltaFile : deltaFiles) {
+            String deltaPath = deltaFile.getPath();
+            File regionFile = new File(deltaPath.substring(0, deltaPath.length() - DELTA_EXTENSION.length()));
+
+            applyDelta(regionFile, deltaFile);
+            Files.delete(deltaFile.toPath());
+        }
+
+        return deltaFiles.size();
+    }
+
+    /**
+     * Rebuilds the specified region file with the chunks in the specified delta
+     * @param regionFile the region file, as of the backup the delta is based on
+     * @param deltaFile the delta
+     * @throws IOException
+     */
+    public static void applyDelta(File regionFile, File deltaFile) throws IOException {
+        ByteBuffer delta = ByteBuffer.wrap(Files.readAllBytes(deltaFile.toPath()));
+        ByteBuffer region = ByteBuffer.allocate(HEADER_SIZE);
+        if (regionFile.exists()) {
+            region = ByteBuffer.wrap(Files.readAllBytes(regionFile.toPath()));
+        }
+
+        File tempFile = new File(regionFile.getPath() + ".tmp");
+        try (RandomAccessFile output = new RandomAccessFile(tempFile, "rw")) {
+            output.setLength(0);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            output.write(header.array());
+
+            int nextSector = 2;
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                int timestamp = delta.getInt(SECTOR_SIZE + i * 4);
+                if (timestamp == 0 && delta.getInt(i * 4) == 0) {
+                    continue;
+                }
+
+                ByteBuffer source = delta;
+                if (delta.getInt(i * 4) == 0) {
+                    source = region;
+                }
+
+                int location = source.getInt(i * 4);
+                int offset = location >>> 8;
+                int count = location & 0xFF;
+                if (location == 0 || (long) (offset + count) * SECTOR_SIZE > source.capacity()) {
+                    throw new IOException("Chunk " + i + " of \"" + regionFile.getPath() + "\" is missing from the previous backup");
+                }
+
+                output.write(source.array(), offset * SECTOR_SIZE, count * SECTOR_SIZE);
+                header.putInt(i * 4, nextSector << 8 | count);
+                header.putInt(SECTOR_SIZE + i * 4, timestamp);
+
+                nextSector += count;
+            }
+
+            output.seek(0);
+            output.write(header.array());
+        }
+
+        Files.move(tempFile.toPath(), regionFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void findDeltas(File file, List<File> deltaFiles) {
+        if (file.isFile() && file.getName().endsWith(REGION_EXTENSION + DELTA_EXTENSION)) {
+            deltaFiles.add(file);
+        }
+
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                findDeltas(child, deltaFiles);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the region files in an extracted backup
+     * @param args the folder the backup was extracted to
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.out.println("Usage: java -cp DriveBackupV2.jar ratismal.drivebackup.util.RegionDelta <folder>");
+
+            return;
+        }
+
+        System.out.println("Rebuilt " + applyDeltas(new File(args[0])) + " region file(s)");
+    }
+
+    /**
+     * A delta of a region file
+     */
+    public static class Delta {
+        /**
+         * The contents of the delta
+         */
+        public final byte[] bytes;
+
+        /**
+         * The CRC-32 checksum of the whole region file
+         */
+        public final long crc;
+
+        private Delta(byte[] bytes, long crc) {
+            this.bytes = bytes;
+            this.crc = crc;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.json.JSONObject;
+
+import ratismal.drivebackup.plugin.DriveBackup;
+
+/**
+ * Remembers the IDs of the folders backups are uploaded to in each backup method, so they don't have to be looked up
+ * folder by folder before every upload
+ * <p>
+ * The IDs are saved to a file in the plugin's data folder, so they're remembered across restarts. A backup method
+ * which finds a folder no longer exists, or is in the trash, forgets every folder it remembered, as the folder may
+ * have been moved or deleted along with the folders in it.
+ */
+public class RemoteFolderCache {
+    private static final String FILE_NAME = "folder-cache.json";
+
+    private static JSONObject folders;
+
+    private RemoteFolderCache() {
+    }
+
+    /**
+     * Gets the remembered ID of the folder at the specified path in the specified backup method
+     * @param method the name of the backup method
+     * @param path the path of the folder, separated by slashes
+     * @return the ID of the folder, or {@code null} if it isn't remembered
+     */
+    public static synchronized String get(String method, String path) {
+        JSONObject methodFolders = load().optJSONObject(method);
+        if (methodFolders == null) {
+            return null;
+        }
+
+        return methodFolders.optString(path, null);
+    }
+
+    /**
+     * Remembers the ID of the folder at the specified path in the specified backup method
+     * @param method the name of the backup method
+     * @param path the path of the folder, separated by slashes
+     * @param id the ID of the folder
+     */
+    public static synchronized void put(String method, String path, String id) {
+        JSONObject methodFolders = load().optJSONObject(method);
+        if (methodFolders == null) {
+            methodFolders = new JSONObject();
+            folders.put(method, methodFolders);
+        }
+
+        if (id.equals(methodFolders.optString(path, null))) {
+            return;
+        }
+
+        methodFolders.put(path, id);
+        save();
+    }
+
+    /**
+     * Forgets every folder remembered in the specified backup method, once one of them is found not to exist or the
+     * backup method is linked to another account
+     * @param method the name of the backup method
+     */
+    public static synchronized void clear(String method) {
+        if (load().remove(method) != null) {
+            save();
+        }
+    }
+
+    private static JSONObject load() {
+        if (folders != null) {
+            return folders;
+        }
+
+        File foldersFile = getFile();
+        if (foldersFile.exists()) {
+            try {
+                folders = new JSONObject(new String(Files.readAllBytes(foldersFile.toPath()), StandardCharsets.UTF_8));
+
+                return folders;
+            } catch (Exception exception) {
+                MessageUtil.Builder().text("Unable to read the remembered remote folders, they will be looked up again").toConsole(true).send();
+            }
+        }
+
+        folders = new JSONObject();
+
+        return folders;
+    }
+
+    private static void save() {
+        File foldersFile = getFile();
+        File tempFile = new File(foldersFile.getPath() + ".tmp");
+
+        try {
+            Files.write(tempFile.toPath(), folders.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile.toPath(), foldersFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            MessageUtil.Builder().text("Unable to save the remembered remote folders, they will be looked up again").toConsole(true).send();
+        }
+    }
+
+    private static File getFile() {
+        return new File(DriveBackup.getInstance().getDataFolder(), FILE_NAME);
+    }
+}
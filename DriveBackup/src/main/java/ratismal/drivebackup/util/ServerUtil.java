@@ -26,4 +26,18 @@ public class ServerUtil {
             }).get();
         } catch (Exception exception) { }
     }
+
+    /**
+     * Saves the worlds on the server, waiting for the chunks to be written to disk
+     */
+    public static void saveAll() {
+        try {
+            Bukkit.getScheduler().callSyncMethod(DriveBackup.getInstance(), new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return Bukkit.getServer().dispatchCommand(Bukkit.getConsoleSender(), "save-all flush");
+                }
+            }).get();
+        } catch (Exception exception) { }
+    }
 }
@@ -0,0 +1,96 @@
+package ratismal.drivebackup.util;
+
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Stages a snapshot of the files to back up, so they can be compressed and uploaded while the server saves again
+ * <p>
+ * A hard link shares its contents with the original file, so it is only a snapshot of files that are replaced
+ * rather than written to in place. Minecraft writes to region files in place, as do databases and logs, so only
+ * files with the extension of a format that is always written whole, such as plugin jars and archives, are
+ * linked. Every other file is copied, preserving its modification time. If the file system doesn't support hard
+ * links, every file is copied.
+ */
+public class SnapshotStager {
+    /**
+     * Extensions of files which are replaced as a whole rather than written to in place
+     */
+    private static final List<String> REPLACED_EXTENSIONS = Arrays.asList(
+        ".jar", ".zip", ".gz", ".tgz", ".bz2", ".xz", ".zst", ".7z",
+        ".png", ".jpg", ".jpeg", ".gif", ".ogg", ".mp3"
+    );
+
+    private boolean hardLinksSupported = true;
+    private int linkedFiles = 0;
+    private int copiedFiles = 0;
+    private long copiedBytes = 0;
+
+    /**
+     * Adds the specified file to the snapshot
+     * @param source the file
+     * @param target the path of the file in the snapshot
+     * @throws IOException
+     */
+    public void stageFile(Path source, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+
+        if (hardLinksSupported && isReplacedWhole(source)) {
+            try {
+                Files.createLink(target, source);
+                linkedFiles++;
+
+                return;
+            } catch (UnsupportedOperationException | FileSystemException exception) {
+                // Hard links aren't supported, or the snapshot is on a different file system than the file
+                hardLinksSupported = false;
+            }
+        }
+
+        Files.copy(source, target, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+        copiedFiles++;
+        copiedBytes += Files.size(target);
+    }
+
+    /**
+     * Gets the number of files added to the snapshot as hard links
+     * @return the number of files
+     */
+    public int getLinkedFiles() {
+        return linkedFiles;
+    }
+
+    /**
+     * Gets the number of files copied into the snapshot
+     * @return the number of files
+     */
+    public int getCopiedFiles() {
+        return copiedFiles;
+    }
+
+    /**
+     * Gets the total size of the files copied into the snapshot
+     * @return the size, in bytes
+     */
+    public long getCopiedBytes() {
+        return copiedBytes;
+    }
+
+    private static boolean isReplacedWhole(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+
+        for (String extension : REPLACED_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,309 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import ratismal.drivebackup.uploaders.Uploader;
+
+/**
+ * Uploads a backup to backup methods while it is being created, without reading it back from disk
+ * <p>
+ * The backup is split into blocks which are passed to a thread for each backup method through a bounded queue,
+ * so at most {@code PIPE_CAPACITY} blocks are held in memory per backup method. A backup method that falls behind
+ * slows down creating the backup rather than using more memory. The backup is only written to disk if a local
+ * copy is kept.
+ */
+public class StreamingUpload {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int PIPE_CAPACITY = 8;
+
+    /**
+     * Marks the end of the backup in a pipe
+     */
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    /**
+     * Marks that creating the backup failed in a pipe
+     */
+    private static final byte[] ABORTED = new byte[0];
+
+    private final List<Uploader> uploaders;
+    private final String type;
+    private final boolean keepLocalCopy;
+    private final int threadPriority;
+
+    private final List<Pipe> pipes = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<Timer> timers = new ArrayList<>();
+    private long bytesWritten = 0;
+
+    /**
+     * Creates a streaming upload to the specified backup methods
+     * @param uploaders the backup methods, which must all support streaming
+     * @param type the type of file (ex. plugins, world)
+     * @param keepLocalCopy whether to also write the backup to disk
+     * @param threadPriority the priority of the upload threads
+     */
+    public StreamingUpload(List<Uploader> uploaders, String type, boolean keepLocalCopy, int threadPriority) {
+        this.uploaders = uploaders;
+        this.type = type;
+        this.keepLocalCopy = keepLocalCopy;
+        this.threadPriority = threadPriority;
+    }
+
+    /**
+     * Starts uploading the specified backup file
+     * <p>
+     * Closing the returned stream doesn't complete the uploads, {@link #finish()} or {@link #abort()} must be called
+     * once the backup is created
+     * @param file the backup file, only written to if a local copy is kept
+     * @return the stream to write the backup to
+     * @throws IOException
+     */
+    public OutputStream open(File file) throws IOException {
+        OutputStream localCopy = null;
+        if (keepLocalCopy) {
+            localCopy = new BufferedOutputStream(new FileOutputStream(file));
+        }
+
+        for (Uploader uploader : uploaders) {
+            Pipe pipe = new Pipe();
+            pipes.add(pipe);
+            Timer timer = new Timer();
+            timers.add(timer);
+
+            Thread thread = new Thread(() -> {
+                timer.start();
+
+                try (InputStream inputStream = pipe.getInputStream()) {
+                    uploader.uploadStream(inputStream, file.getName(), type);
+                } catch (Exception exception) {
+                    MessageUtil.sendConsoleException(exception);
+                }
+
+                timer.end();
+            }, "DriveBackup-Upload-" + uploader.getName());
+
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+            thread.start();
+            threads.add(thread);
+        }
+
+        return new TeeOutputStream(localCopy);
+    }
+
+    /**
+     * Signals the end of the backup to the backup methods, and waits for them to finish uploading it
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        for (Pipe pipe : pipes) {
+            pipe.put(END_OF_STREAM);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Signals the backup methods that creating the backup failed, so they don't complete their uploads, and waits for them to stop
+     * @throws InterruptedException
+     */
+    public void abort() throws InterruptedException {
+        for (Pipe pipe : pipes) {
+            pipe.put(ABORTED);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Gets the backup methods being uploaded to
+     * @return the backup methods
+     */
+    public List<Uploader> getUploaders() {
+        return uploaders;
+    }
+
+    /**
+     * Gets the timer of the upload to the specified backup method
+     * @param uploader the backup method
+     * @return the timer, ended once the upload is finished
+     */
+    public Timer getTimer(Uploader uploader) {
+        return timers.get(uploaders.indexOf(uploader));
+    }
+
+    /**
+     * Gets the size of the backup, once finished
+     * @return the size, in bytes
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Writes to the local copy, if any, and splits the backup into blocks for the pipes
+     */
+    private class TeeOutputStream extends OutputStream {
+        private final OutputStream localCopy;
+        private byte[] block = new byte[BLOCK_SIZE];
+        private int blockLength = 0;
+
+        private TeeOutputStream(OutputStream localCopy) {
+            this.localCopy = localCopy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (localCopy != null) {
+                localCopy.write(bytes, offset, length);
+            }
+
+            bytesWritten += length;
+
+            while (length > 0) {
+                int copied = Math.min(length, block.length - blockLength);
+                System.arraycopy(bytes, offset, block, blockLength, copied);
+
+                blockLength += copied;
+                offset += copied;
+                length -= copied;
+
+                if (blockLength == block.length) {
+                    sendBlock();
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (blockLength > 0) {
+                byte[] lastBlock = new byte[blockLength];
+                System.arraycopy(block, 0, lastBlock, 0, blockLength);
+
+                block = lastBlock;
+                sendBlock();
+            }
+
+            if (localCopy != null) {
+                localCopy.close();
+            }
+        }
+
+        /**
+         * Passes the current block to every pipe, blocks are shared between pipes as they aren't modified once sent
+         * @throws IOException
+         */
+        private void sendBlock() throws IOException {
+            try {
+                for (Pipe pipe : pipes) {
+                    pipe.put(block);
+                }
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+
+                throw new IOException("Interrupted while uploading the backup", exception);
+            }
+
+            block = new byte[BLOCK_SIZE];
+            blockLength = 0;
+        }
+    }
+
+    /**
+     * A bounded queue of blocks between the thread creating the backup and an upload thread
+     */
+    private static class Pipe {
+        private final BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(PIPE_CAPACITY);
+        private volatile boolean closed = false;
+
+        /**
+         * Adds a block to the pipe, waiting while it is full, unless the upload thread stopped reading from it
+         * @param block the block
+         * @throws InterruptedException
+         */
+        private void put(byte[] block) throws InterruptedException {
+            while (!closed) {
+                if (blocks.offer(block, 1, TimeUnit.SECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        private InputStream getInputStream() {
+            return new InputStream() {
+                private byte[] block = new byte[0];
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] singleByte = new byte[1];
+
+                    if (read(singleByte, 0, 1) == -1) {
+                        return -1;
+                    }
+
+                    return singleByte[0] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+
+                    while (position == block.length) {
+                        if (block == END_OF_STREAM) {
+                            return -1;
+                        }
+
+                        if (block == ABORTED) {
+                            throw new IOException("Creating the backup failed, cancelling upload");
+                        }
+
+                        try {
+                            block = blocks.take();
+                        } catch (InterruptedException exception) {
+                            Thread.currentThread().interrupt();
+
+                            throw new IOException("Interrupted while uploading the backup", exception);
+                        }
+
+                        position = 0;
+                    }
+
+                    int copied = Math.min(length, block.length - position);
+                    System.arraycopy(block, position, bytes, offset, copied);
+                    position += copied;
+
+                    return copied;
+                }
+
+                @Override
+                public void close() {
+                    closed = true;
+                    blocks.clear();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * Writes a tar file, compressed as a whole with Zstandard or LZ4
+ * <p>
+ * Zstandard compresses on the specified number of threads, LZ4 is fast enough that it always uses one
+ */
+public class TarArchiveWriter implements ArchiveWriter {
+    private final TarArchiveOutputStream tarOutputStream;
+    private final CompressionGovernor governor;
+    private final DiskGovernor diskGovernor;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    /**
+     * Creates an instance of the {@code TarArchiveWriter} object
+     * @param out the stream to write the compressed tar file to, which is buffered by the writer
+     * @param format the format, either {@code TAR_ZSTD} or {@code TAR_LZ4}
+     * @param level the Zstandard compression level, ignored for LZ4
+     * @param threads the number of threads to compress on
+     * @param governor the governor slowing down compression while the server is struggling, by slowing down the thread
+     * feeding the compression threads
+     * @param diskGovernor the governor limiting how fast files are read
+     * @throws IOException
+     */
+    public TarArchiveWriter(OutputStream out, ArchiveFormat format, int level, int threads, CompressionGovernor governor, DiskGovernor diskGovernor) throws IOException {
+        this.governor = governor;
+        this.diskGovernor = diskGovernor;
+        out = new BufferedOutputStream(out);
+        OutputStream compressedOutputStream;
+
+        switch (format) {
+            case TAR_ZSTD:
+                ZstdOutputStream zstdOutputStream = new ZstdOutputStream(out, level);
+                if (threads > 1) {
+                    zstdOutputStream.setWorkers(threads);
+                }
+
+                compressedOutputStream = zstdOutputStream;
+                break;
+            case TAR_LZ4:
+                compressedOutputStream = new LZ4FrameOutputStream(out, LZ4FrameOutputStream.BLOCKSIZE.SIZE_4MB);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a tar format: " + format);
+        }
+
+        tarOutputStream = new TarArchiveOutputStream(compressedOutputStream, "UTF-8");
+        tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+    }
+
+    /**
+     * Adds the specified file to the tar file
+     * <p>
+     * The size of the entry is fixed when it starts, so if the file changes size while it is read, only
+     * up to the original size is included, or the rest of the entry is filled with zeros
+     */
+    @Override
+    public long putFile(String entryName, File file) throws IOException {
+        long size = file.length();
+        CRC32 crc = new CRC32();
+
+        TarArchiveEntry entry = new TarArchiveEntry(entryName);
+        entry.setSize(size);
+        entry.setModTime(file.lastModified());
+        tarOutputStream.putArchiveEntry(entry);
+
+        long remaining = size;
+        try (InputStream inputStream = diskGovernor.open(file)) {
+            int length;
+            while (remaining > 0 && (length = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                tarOutputStream.write(buffer, 0, length);
+                crc.update(buffer, 0, length);
+                remaining -= length;
+                governor.pace();
+            }
+
+            if (remaining > 0) {
+                throw new IOException("\"" + file.getPath() + "\" was truncated while being backed up");
+            }
+        } finally {
+            fillEntry(remaining);
+            tarOutputStream.closeArchiveEntry();
+        }
+
+        return crc.getValue();
+    }
+
+    @Override
+    public long putBytes(String entryName, byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        TarArchiveEntry entry = new TarArchiveEntry(entryName);
+        entry.setSize(bytes.length);
+        tarOutputStream.putArchiveEntry(entry);
+        tarOutputStream.write(bytes);
+        tarOutputStream.closeArchiveEntry();
+
+        return crc.getValue();
+    }
+
+    /**
+     * Fills the rest of the current entry with zeros
+     * @param remaining the number of bytes left in the entry
+     * @throws IOException
+     */
+    private void fillEntry(long remaining) throws IOException {
+        byte[] zeros = new byte[buffer.length];
+
+        while (remaining > 0) {
+            int length = (int) Math.min(zeros.length, remaining);
+            tarOutputStream.write(zeros, 0, length);
+            remaining -= length;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        tarOutputStream.close();
+    }
+}
@@ -0,0 +1,57 @@
+package ratismal.drivebackup.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * A stream which waits after each read until the throttle allows the bytes read, so whatever reads the stream stays
+ * within a rate limit
+ */
+public class ThrottledInputStream extends FilterInputStream {
+    /**
+     * The most bytes read at once, so reads are spread evenly over time rather than done in bursts
+     */
+    private static final int MAX_READ = 64 * 1024;
+
+    /**
+     * Waits until a number of bytes are allowed
+     */
+    public interface Throttle {
+        public void acquire(long bytes) throws InterruptedIOException;
+    }
+
+    private final Throttle throttle;
+
+    /**
+     * Creates a stream throttling the specified stream
+     * @param inputStream the stream
+     * @param throttle the throttle the bytes read are taken from
+     */
+    public ThrottledInputStream(InputStream inputStream, Throttle throttle) {
+        super(inputStream);
+
+        this.throttle = throttle;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = super.read();
+        if (read != -1) {
+            throttle.acquire(1);
+        }
+
+        return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, Math.min(length, MAX_READ));
+        if (read > 0) {
+            throttle.acquire(read);
+        }
+
+        return read;
+    }
+}
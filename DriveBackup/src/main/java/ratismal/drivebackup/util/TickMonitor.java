@@ -0,0 +1,99 @@
+package ratismal.drivebackup.util;
+
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import ratismal.drivebackup.plugin.DriveBackup;
+
+/**
+ * Measures how well the server is keeping up with its ticks while backups are created
+ * <p>
+ * A task runs on the main thread every tick, recording the time since the last tick. The server runs 20 ticks
+ * per second when it keeps up, so the average interval between ticks gives the ticks per second (TPS).
+ */
+public class TickMonitor {
+    private static final double TICKS_PER_SECOND = 20;
+    private static final double TICK_INTERVAL = 1000 / TICKS_PER_SECOND;
+
+    /**
+     * Weight of the latest interval in the average, which mostly reflects the last couple of seconds
+     */
+    private static final double AVERAGE_WEIGHT = 0.05;
+
+    private static volatile BukkitTask task;
+    private static volatile long lastTickTime;
+    private static volatile double averageInterval = TICK_INTERVAL;
+    private static volatile int onlinePlayers = 0;
+
+    private TickMonitor() {
+    }
+
+    /**
+     * Starts measuring the ticks of the server, if not already
+     */
+    public static synchronized void start() {
+        if (task != null) {
+            return;
+        }
+
+        lastTickTime = System.nanoTime();
+        averageInterval = TICK_INTERVAL;
+
+        try {
+            task = Bukkit.getScheduler().runTaskTimer(DriveBackup.getInstance(), TickMonitor::tick, 1, 1);
+        } catch (Exception exception) {
+            // The plugin is being disabled, so backups aren't throttled
+        }
+    }
+
+    /**
+     * Stops measuring the ticks of the server
+     */
+    public static synchronized void stop() {
+        if (task == null) {
+            return;
+        }
+
+        task.cancel();
+        task = null;
+    }
+
+    /**
+     * Gets whether the ticks of the server are being measured
+     * @return whether the ticks are measured
+     */
+    public static boolean isRunning() {
+        return task != null;
+    }
+
+    /**
+     * Gets the average number of ticks per second the server ran recently
+     * <p>
+     * If the current tick is taking longer than the average interval, it counts as the interval, so a server that
+     * stopped responding is seen straight away
+     * @return the ticks per second, at most 20
+     */
+    public static double getTps() {
+        double currentInterval = (System.nanoTime() - lastTickTime) / 1e6;
+        double interval = Math.max(averageInterval, currentInterval);
+
+        return Math.min(TICKS_PER_SECOND, 1000 / interval);
+    }
+
+    /**
+     * Gets the number of players online as of the last tick
+     * @return the number of players
+     */
+    public static int getOnlinePlayers() {
+        return onlinePlayers;
+    }
+
+    private static void tick() {
+        long now = System.nanoTime();
+        double interval = (now - lastTickTime) / 1e6;
+        lastTickTime = now;
+
+        averageInterval += (interval - averageInterval) * AVERAGE_WEIGHT;
+        onlinePlayers = Bukkit.getOnlinePlayers().size();
+    }
+}
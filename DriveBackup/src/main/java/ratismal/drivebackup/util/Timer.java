@@ -44,12 +44,21 @@ public class Timer {
      * @return message
      */
     public String getUploadTimeMessage(File file) {
+        return getUploadTimeMessage(file.length());
+    }
+
+    /**
+     * Construct an upload message
+     * @param bytes the number of bytes that were uploaded
+     * @return message
+     */
+    public String getUploadTimeMessage(long bytes) {
         DecimalFormat df = new DecimalFormat("#.##");
         df.setDecimalFormatSymbols(DecimalFormatSymbols.getInstance(Locale.ENGLISH));
 
         double difference = getTime();
         double length = difference / 1000;
-        double speed = (file.length() / 1024) / length;
+        double speed = (bytes / 1024) / length;
         
         return "File uploaded in " + df.format(length) + " seconds (" + df.format(speed) + "KB/s)";
     }
@@ -0,0 +1,54 @@
+package ratismal.drivebackup.util;
+
+import java.io.InterruptedIOException;
+
+/**
+ * A token bucket which can go into debt, so a thread can take more than fits in the bucket, and the threads after it
+ * wait until the debt is paid off
+ * <p>
+ * The rate is passed in every time tokens are taken, so it can change at any time. The bucket holds at most a
+ * second's worth of tokens.
+ */
+public class TokenBucket {
+    private double tokens = 0;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * Takes the specified number of tokens, waiting until the bucket is no longer in debt
+     * @param amount the number of tokens
+     * @param rate the number of tokens the bucket fills with per second, or 0 for no limit
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public void take(long amount, long rate) throws InterruptedIOException {
+        long waitTime;
+
+        synchronized (this) {
+            long now = System.nanoTime();
+
+            if (rate == 0) {
+                tokens = 0;
+                lastRefill = now;
+
+                return;
+            }
+
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / 1e9);
+            lastRefill = now;
+            tokens -= amount;
+
+            if (tokens >= 0) {
+                return;
+            }
+
+            waitTime = (long) (-tokens * 1e9 / rate);
+        }
+
+        try {
+            Thread.sleep(waitTime / 1_000_000, (int) (waitTime % 1_000_000));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            throw new InterruptedIOException("Interrupted while waiting for tokens");
+        }
+    }
+}
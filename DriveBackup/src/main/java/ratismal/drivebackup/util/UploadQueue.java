@@ -0,0 +1,149 @@
+package ratismal.drivebackup.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Uploads backups on a separate thread while the next backups are created
+ * <p>
+ * Backups waiting to be uploaded take up disk space, so creating a backup waits while the backups in the queue exceed
+ * the disk budget, or the queue is full. A backup is always accepted if the queue is empty, however large. If the disk
+ * budget is 0, uploads run straight away on the thread that queues them, so backups are created and uploaded one
+ * after another.
+ */
+public class UploadQueue {
+    private static final int CAPACITY = 4;
+
+    private final long diskBudget;
+    private final int threadPriority;
+
+    private final Queue<Upload> uploads = new ArrayDeque<>();
+    private Thread thread;
+    private long queuedBytes = 0;
+    private boolean uploading = false;
+    private boolean finished = false;
+
+    /**
+     * Creates an upload queue
+     * @param diskBudget the total size of the backups that can be waiting to be uploaded, in bytes, or 0 to upload backups straight away
+     * @param threadPriority the priority of the upload thread
+     */
+    public UploadQueue(long diskBudget, int threadPriority) {
+        this.diskBudget = diskBudget;
+        this.threadPriority = threadPriority;
+    }
+
+    /**
+     * Queues the upload of a backup, waiting while the queue is full or over the disk budget
+     * @param size the disk space taken up by the backup until it is uploaded, in bytes
+     * @param upload uploads the backup
+     * @throws InterruptedException
+     */
+    public void put(long size, Runnable upload) throws InterruptedException {
+        if (diskBudget == 0) {
+            run(upload);
+
+            return;
+        }
+
+        synchronized (this) {
+            if (thread == null) {
+                thread = new Thread(this::drain, "DriveBackup-Upload-Queue");
+                thread.setDaemon(true);
+                thread.setPriority(threadPriority);
+                thread.start();
+            }
+
+            while (!uploads.isEmpty() && (uploads.size() >= CAPACITY || queuedBytes + size > diskBudget)) {
+                wait();
+            }
+
+            uploads.add(new Upload(size, upload));
+            queuedBytes += size;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits until every queued backup has been uploaded
+     * @throws InterruptedException
+     */
+    public synchronized void awaitIdle() throws InterruptedException {
+        while (!uploads.isEmpty() || uploading) {
+            wait();
+        }
+    }
+
+    /**
+     * Waits until every queued backup has been uploaded, then stops the upload thread
+     * @throws InterruptedException
+     */
+    public void finish() throws InterruptedException {
+        Thread uploadThread;
+
+        synchronized (this) {
+            finished = true;
+            notifyAll();
+
+            uploadThread = thread;
+        }
+
+        if (uploadThread != null) {
+            uploadThread.join();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Upload upload;
+
+            synchronized (this) {
+                while (uploads.isEmpty() && !finished) {
+                    try {
+                        wait();
+                    } catch (InterruptedException exception) {
+                        return;
+                    }
+                }
+
+                if (uploads.isEmpty()) {
+                    return;
+                }
+
+                upload = uploads.peek();
+                uploading = true;
+            }
+
+            run(upload.runnable);
+
+            synchronized (this) {
+                // Only removed once uploaded, as the backup takes up disk space until then
+                uploads.remove();
+                queuedBytes -= upload.size;
+                uploading = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private static void run(Runnable upload) {
+        try {
+            upload.run();
+        } catch (RuntimeException exception) {
+            MessageUtil.sendConsoleException(exception);
+        }
+    }
+
+    /**
+     * A backup waiting to be uploaded
+     */
+    private static class Upload {
+        private final long size;
+        private final Runnable runnable;
+
+        private Upload(long size, Runnable runnable) {
+            this.size = size;
+            this.runnable = runnable;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package ratismal.drivebackup.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import ratismal.drivebackup.plugin.DriveBackup;
+
+/**
+ * Remembers the upload sessions of backups being uploaded, so an upload interrupted by a restart or a network failure
+ * carries on from the last byte the backup method received, rather than starting over
+ * <p>
+ * Sessions are saved to a file in the plugin's data folder whenever they change. A session is only resumed for the
+ * same backup file, unchanged since the session started, and is dropped once it is older than backup methods keep
+ * upload sessions for. Interrupted uploads are listed by {@link #getInterrupted(String)}, so they can be resumed when
+ * the next backup runs.
+ */
+public class UploadSessionStore {
+    private static final String FILE_NAME = "upload-sessions.json";
+
+    /**
+     * Backup methods expire upload sessions after about a week
+     */
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(6);
+
+    private static JSONObject sessions;
+
+    private UploadSessionStore() {
+    }
+
+    /**
+     * Gets the saved upload session of the specified backup file
+     * @param method the name of the backup method
+     * @param file the backup file
+     * @param type the type of file (ex. plugins, world)
+     * @return the state of the session, specific to the backup method, or {@code null} if there is no session to resume
+     */
+    public static synchronized JSONObject get(String method, File file, String type) {
+        String key = getKey(method, file.getName(), type);
+
+        JSONObject session = load().optJSONObject(key);
+        if (session == null) {
+            return null;
+        }
+
+        boolean valid = session.optLong("size") == file.length()
+            && session.optLong("lastModified") == file.lastModified()
+            && System.currentTimeMillis() - session.optLong("created") < MAX_AGE;
+
+        if (!valid) {
+            sessions.remove(key);
+            save();
+
+            return null;
+        }
+
+        return session.getJSONObject("state");
+    }
+
+    /**
+     * Saves the upload session of the specified backup file, replacing any saved before
+     * @param method the name of the backup method
+     * @param file the backup file
+     * @param type the type of file (ex. plugins, world)
+     * @param state the state of the session, specific to the backup method
+     */
+    public static synchronized void put(String method, File file, String type, JSONObject state) {
+        String key = getKey(method, file.getName(), type);
+
+        JSONObject session = load().optJSONObject(key);
+        if (session == null) {
+            session = new JSONObject();
+            session.put("method", method);
+            session.put("path", file.getAbsolutePath());
+            session.put("type", type);
+            session.put("size", file.length());
+            session.put("lastModified", file.lastModified());
+            session.put("created", System.currentTimeMillis());
+
+            sessions.put(key, session);
+        }
+
+        session.put("state", state);
+        save();
+    }
+
+    /**
+     * Forgets the upload session of the specified backup file, once it is uploaded or can't be resumed
+     * @param method the name of the backup method
+     * @param file the backup file
+     * @param type the type of file (ex. plugins, world)
+     */
+    public static synchronized void remove(String method, File file, String type) {
+        if (load().remove(getKey(method, file.getName(), type)) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Gets the uploads to the specified backup method which were interrupted, and whose backup files still exist
+     * @param method the name of the backup method
+     * @return the interrupted uploads
+     */
+    public static synchronized List<InterruptedUpload> getInterrupted(String method) {
+        List<InterruptedUpload> uploads = new ArrayList<>();
+
+        for (String key : new ArrayList<>(load().keySet())) {
+            JSONObject session = sessions.getJSONObject(key);
+            if (!method.equals(session.optString("method"))) {
+                continue;
+            }
+
+            File file = new File(session.optString("path"));
+            if (!file.exists()) {
+                sessions.remove(key);
+
+                continue;
+            }
+
+            uploads.add(new InterruptedUpload(file, session.optString("type")));
+        }
+
+        save();
+
+        return uploads;
+    }
+
+    private static String getKey(String method, String fileName, String type) {
+        return method + "|" + type + "|" + fileName;
+    }
+
+    private static JSONObject load() {
+        if (sessions != null) {
+            return sessions;
+        }
+
+        File sessionsFile = getFile();
+        if (sessionsFile.exists()) {
+            try {
+                sessions = new JSONObject(new String(Files.readAllBytes(sessionsFile.toPath()), StandardCharsets.UTF_8));
+
+                return sessions;
+            } catch (Exception exception) {
+                MessageUtil.Builder().text("Unable to read the interrupted uploads, they will be started over").toConsole(true).send();
+            }
+        }
+
+        sessions = new JSONObject();
+
+        return sessions;
+    }
+
+    private static void save() {
+        File sessionsFile = getFile();
+        File tempFile = new File(sessionsFile.getPath() + ".tmp");
+
+        try {
+            Files.write(tempFile.toPath(), sessions.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile.toPath(), sessionsFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException exception) {
+            MessageUtil.Builder().text("Unable to save the upload sessions, interrupted uploads will be started over").toConsole(true).send();
+        }
+    }
+
+    private static File getFile() {
+        return new File(DriveBackup.getInstance().getDataFolder(), FILE_NAME);
+    }
+
+    /**
+     * An upload of a backup file which was interrupted
+     */
+    public static class InterruptedUpload {
+        private final File file;
+        private final String type;
+
+        private InterruptedUpload(File file, String type) {
+            this.file = file;
+            this.type = type;
+        }
+
+        /**
+         * Gets the backup file
+         * @return the file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Gets the type of the backup file
+         * @return the type of file (ex. plugins, world)
+         */
+        public String getType() {
+            return type;
+        }
+    }
+}
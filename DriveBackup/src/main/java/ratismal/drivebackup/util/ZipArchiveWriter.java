@@ -0,0 +1,153 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a zip file, compressing the entries on the current thread
+ * <p>
+ * Files the {@code CompressionPolicy} considers incompressible are stored without compression if they are
+ * small enough to hold in memory, otherwise they are deflated at level 0
+ */
+public class ZipArchiveWriter implements ArchiveWriter {
+    /**
+     * Size of the largest incompressible file which is stored, rather than deflated at level 0
+     */
+    private static final int MAX_STORED_SIZE = 16 * 1024 * 1024;
+
+    private final ZipOutputStream zipOutputStream;
+    private final int level;
+    private final CompressionPolicy compressionPolicy;
+    private final CompressionGovernor governor;
+    private final DiskGovernor diskGovernor;
+    private final byte[] buffer = new byte[CompressionPolicy.SAMPLE_SIZE];
+
+    /**
+     * Creates an instance of the {@code ZipArchiveWriter} object
+     * @param out the stream to write the zip file to, which is buffered by the writer
+     * @param level the deflate compression level
+     * @param compressionPolicy the policy deciding which files are compressed
+     * @param governor the governor slowing down compression while the server is struggling
+     * @param diskGovernor the governor limiting how fast files are read
+     */
+    public ZipArchiveWriter(OutputStream out, int level, CompressionPolicy compressionPolicy, CompressionGovernor governor, DiskGovernor diskGovernor) {
+        zipOutputStream = new ZipOutputStream(new BufferedOutputStream(out));
+        this.level = level;
+        this.compressionPolicy = compressionPolicy;
+        this.governor = governor;
+        this.diskGovernor = diskGovernor;
+    }
+
+    @Override
+    public long putFile(String entryName, File file) throws IOException {
+        try (InputStream inputStream = diskGovernor.open(file)) {
+            long size = file.length();
+            int sampleLength = readFully(inputStream, buffer, 0, buffer.length);
+
+            boolean compress = compressionPolicy.shouldCompress(entryName, buffer, sampleLength);
+            if (!compress && size <= MAX_STORED_SIZE) {
+                // The checksum of a stored entry is written before its contents, so the file is read into memory first
+                byte[] contents = new byte[(int) Math.max(size, sampleLength)];
+                System.arraycopy(buffer, 0, contents, 0, sampleLength);
+                int length = sampleLength + readFully(inputStream, contents, sampleLength, contents.length - sampleLength);
+
+                return putStored(entryName, contents, length);
+            }
+
+            ZipEntry zipEntry = new ZipEntry(entryName);
+            zipOutputStream.setLevel(compress ? level : Deflater.NO_COMPRESSION);
+            zipOutputStream.putNextEntry(zipEntry);
+
+            try {
+                zipOutputStream.write(buffer, 0, sampleLength);
+
+                int length;
+                while ((length = inputStream.read(buffer)) != -1) {
+                    zipOutputStream.write(buffer, 0, length);
+                    governor.pace();
+                }
+            } finally {
+                zipOutputStream.closeEntry();
+            }
+
+            return zipEntry.getCrc();
+        }
+    }
+
+    @Override
+    public long putBytes(String entryName, byte[] bytes) throws IOException {
+        boolean compress = compressionPolicy.shouldCompress(entryName, bytes, bytes.length);
+        if (!compress && bytes.length <= MAX_STORED_SIZE) {
+            return putStored(entryName, bytes, bytes.length);
+        }
+
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        zipOutputStream.setLevel(compress ? level : Deflater.NO_COMPRESSION);
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(bytes);
+        zipOutputStream.closeEntry();
+
+        return zipEntry.getCrc();
+    }
+
+    /**
+     * Adds an entry containing the specified bytes to the zip file, without compressing them
+     * @param entryName the path of the entry within the zip file
+     * @param bytes the contents of the entry
+     * @param length the number of bytes to include
+     * @return the CRC-32 checksum of the contents
+     * @throws IOException
+     */
+    private long putStored(String entryName, byte[] bytes, int length) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+
+        ZipEntry zipEntry = new ZipEntry(entryName);
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(length);
+        zipEntry.setCompressedSize(length);
+        zipEntry.setCrc(crc.getValue());
+
+        zipOutputStream.putNextEntry(zipEntry);
+        zipOutputStream.write(bytes, 0, length);
+        zipOutputStream.closeEntry();
+
+        return crc.getValue();
+    }
+
+    /**
+     * Reads from the specified stream until the specified number of bytes are read, or the end of the stream is reached
+     * @param inputStream the stream
+     * @param bytes the array to read into
+     * @param offset the index in the array to start at
+     * @param length the number of bytes to read
+     * @return the number of bytes read
+     * @throws IOException
+     */
+    private static int readFully(InputStream inputStream, byte[] bytes, int offset, int length) throws IOException {
+        int read = 0;
+
+        while (read < length) {
+            int readLength = inputStream.read(bytes, offset + read, length - read);
+            if (readLength == -1) {
+                break;
+            }
+
+            read += readLength;
+        }
+
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        zipOutputStream.close();
+    }
+}
@@ -0,0 +1,306 @@
+package ratismal.drivebackup.uploaders.googledrive;
+
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.FileContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how fast a file is uploaded in a resumable session, in chunks of different sizes, compared to uploading it
+ * with the {@code MediaHttpUploader} of the Google API client, which {@code files().insert} uploaded backups with before
+ * <p>
+ * Files are uploaded to a mock of the Google Drive upload API on this machine, which keeps what it receives the way
+ * Google Drive does, in multiples of 256 KB. The mock can drop the connection every so often, to measure how much
+ * has to be sent again when the network fails.
+ * <p>
+ * It isn't packaged into the plugin. Run it from the test classpath, passing the size of the file to upload in MB, and
+ * optionally how many MB the mock receives before dropping the connection:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ratismal.drivebackup.uploaders.googledrive.ResumableUploadBenchmark -Dexec.args="256 100"}
+ */
+public class ResumableUploadBenchmark {
+    private static final long MB = 1024 * 1024;
+    private static final long KEPT_MULTIPLE = 256 * 1024;
+    private static final int RUNS = 3;
+
+    private static final MediaType CONTENT_TYPE = MediaType.parse("application/zip");
+
+    private final HttpServer server;
+    private final String serverUrl;
+    private final Map<String, long[]> sessions = new ConcurrentHashMap<>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final long failEvery;
+    private long received;
+    private long receivedSinceFailure;
+
+    private ResumableUploadBenchmark(long failEvery) throws IOException {
+        this.failEvery = failEvery;
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/upload/", this::createSession);
+        server.createContext("/session/", this::receiveChunk);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        serverUrl = "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Starts an upload session, like Google Drive does when it's sent the metadata of a file
+     * @param exchange the request
+     * @throws IOException
+     */
+    private void createSession(HttpExchange exchange) throws IOException {
+        drain(exchange.getRequestBody());
+
+        String sessionId = String.valueOf(sessionCount.incrementAndGet());
+        sessions.put(sessionId, new long[] { 0 });
+
+        exchange.getResponseHeaders().set("Location", serverUrl + "/session/" + sessionId);
+        exchange.sendResponseHeaders(200, -1);
+        exchange.close();
+    }
+
+    /**
+     * Receives a chunk of a file, or responds with how much of it was received, formatted like Google Drive does
+     * <p>
+     * If the connection is to be dropped while the chunk is received, an exception is thrown, which closes it
+     * @param exchange the request
+     * @throws IOException
+     */
+    private void receiveChunk(HttpExchange exchange) throws IOException {
+        long[] session = sessions.get(exchange.getRequestURI().getPath().substring("/session/".length()));
+        if (session == null) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+
+        // Formatted like "bytes 0-41/42", or "bytes */42" when asked how much was received
+        String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+        String range = contentRange.substring("bytes ".length(), contentRange.indexOf('/'));
+        long size = Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1));
+
+        if (!range.equals("*")) {
+            long start = Long.parseLong(range.substring(0, range.indexOf('-')));
+            if (start == session[0]) {
+                receive(exchange.getRequestBody(), session);
+            } else {
+                // Resent from further back than the session has received, so what was already received is discarded
+                long discarded = drain(exchange.getRequestBody());
+                synchronized (this) {
+                    received += discarded;
+                }
+            }
+        }
+
+        if (session[0] == size) {
+            byte[] file = "{\"id\":\"benchmark\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, file.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(file);
+            }
+
+            return;
+        }
+
+        if (session[0] > 0) {
+            exchange.getResponseHeaders().set("Range", "bytes=0-" + (session[0] - 1));
+        }
+        exchange.sendResponseHeaders(308, -1);
+        exchange.close();
+    }
+
+    /**
+     * Reads the body of a chunk, dropping the connection partway through if it's due
+     * @param body the body
+     * @param session how much of the file the session has received, which the chunk starts from
+     * @throws IOException if the connection is dropped
+     */
+    private void receive(InputStream body, long[] session) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long length = 0;
+
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            length += read;
+
+            synchronized (this) {
+                received += read;
+                receivedSinceFailure += read;
+
+                if (failEvery > 0 && receivedSinceFailure >= failEvery) {
+                    receivedSinceFailure = 0;
+
+                    // Only whole multiples of 256 KB of what was received are kept
+                    session[0] = (session[0] + length) / KEPT_MULTIPLE * KEPT_MULTIPLE;
+
+                    throw new IOException("Dropping the connection");
+                }
+            }
+        }
+
+        session[0] += length;
+    }
+
+    private static long drain(InputStream body) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long length = 0;
+
+        int read;
+        while ((read = body.read(buffer)) != -1) {
+            length += read;
+        }
+
+        return length;
+    }
+
+    private synchronized long resetReceived() {
+        long bytes = received;
+        received = 0;
+        receivedSinceFailure = 0;
+
+        return bytes;
+    }
+
+    /**
+     * Uploads the specified file with the {@code MediaHttpUploader} of the Google API client, which uploads in a
+     * resumable session in chunks of 10 MB, but doesn't retry a chunk which fails
+     * @param file the file
+     * @throws IOException
+     */
+    private void uploadWithMediaHttpUploader(File file) throws IOException {
+        MediaHttpUploader uploader = new MediaHttpUploader(new FileContent(CONTENT_TYPE.toString(), file), new NetHttpTransport(), null);
+        uploader.setMetadata(new JsonHttpContent(new JacksonFactory(), Collections.singletonMap("title", file.getName())));
+
+        uploader.upload(new GenericUrl(serverUrl + "/upload/drive/v2/files?uploadType=resumable")).disconnect();
+    }
+
+    /**
+     * Uploads the specified file in a resumable session, the way {@code GoogleDriveUploader} does
+     * @param httpClient the HTTP client
+     * @param file the file
+     * @param chunkSize the size of the chunks, in bytes, or 0 to upload the file in one request
+     * @throws Exception
+     */
+    private void uploadResumable(OkHttpClient httpClient, File file, long chunkSize) throws Exception {
+        String sessionId = String.valueOf(sessionCount.incrementAndGet());
+        sessions.put(sessionId, new long[] { 0 });
+
+        new ResumableUpload(
+            httpClient,
+            serverUrl + "/session/" + sessionId,
+            file,
+            CONTENT_TYPE,
+            chunkSize,
+            3,
+            (input, placeholders) -> System.out.println("  " + input),
+            uploaded -> {})
+            .uploadFrom(0);
+    }
+
+    private interface Upload {
+        void run() throws Exception;
+    }
+
+    /**
+     * Uploads the file several times in the specified way, and prints how long it took
+     * @param name the name of the way the file is uploaded
+     * @param size the size of the file
+     * @param upload uploads the file
+     */
+    private void measure(String name, long size, Upload upload) {
+        long[] times = new long[RUNS];
+        long sent = 0;
+
+        for (int run = 0; run < RUNS; run++) {
+            resetReceived();
+            long start = System.nanoTime();
+
+            try {
+                upload.run();
+            } catch (Exception exception) {
+                System.out.printf("%-24s failed after %d MB were sent: %s%n", name, resetReceived() / MB, exception);
+                return;
+            }
+
+            times[run] = System.nanoTime() - start;
+            sent = resetReceived();
+        }
+
+        Arrays.sort(times);
+        double fastest = times[0] / 1e9;
+        double slowest = times[RUNS - 1] / 1e9;
+        System.out.printf("%-24s %.2f-%.2f s (%.0f-%.0f MB/s), %d MB sent%n",
+            name, fastest, slowest, size / MB / slowest, size / MB / fastest, sent / MB);
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args the size of the file to upload in MB, defaulting to 256, then how many MB the mock receives before
+     * dropping the connection, defaulting to never
+     */
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 256) * MB;
+        long failEvery = (args.length > 1 ? Long.parseLong(args[1]) : 0) * MB;
+
+        File file = File.createTempFile("drivebackup-benchmark", ".zip");
+        file.deleteOnExit();
+
+        // Random, like the compressed data of a backup
+        byte[] block = new byte[(int) MB];
+        new Random(0).nextBytes(block);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+
+        ResumableUploadBenchmark benchmark = new ResumableUploadBenchmark(failEvery);
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+            .connectTimeout(1, TimeUnit.MINUTES)
+            .writeTimeout(3, TimeUnit.MINUTES)
+            .readTimeout(3, TimeUnit.MINUTES)
+            .build();
+
+        System.out.println("Uploading " + size / MB + " MB to a mock of Google Drive at " + benchmark.serverUrl
+            + (failEvery > 0 ? ", dropping the connection every " + failEvery / MB + " MB" : ""));
+
+        try {
+            benchmark.measure("MediaHttpUploader", size, () -> benchmark.uploadWithMediaHttpUploader(file));
+            benchmark.measure("resumable, one request", size, () -> benchmark.uploadResumable(httpClient, file, 0));
+            for (long chunkSize : new long[] { 8 * MB, 32 * MB }) {
+                benchmark.measure("resumable, " + chunkSize / MB + " MB chunks", size, () -> benchmark.uploadResumable(httpClient, file, chunkSize));
+            }
+        } finally {
+            benchmark.server.stop(0);
+            ((ExecutorService) benchmark.server.getExecutor()).shutdownNow();
+            httpClient.dispatcher().executorService().shutdown();
+            httpClient.connectionPool().evictAll();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package ratismal.drivebackup.util;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures how fast a folder resembling a Minecraft server is zipped, by copying each file through a
+ * {@code FileInputStream} into a 1 KB array and compressing all of them, as backups were created before, compared to
+ * the {@code ParallelZipWriter} writing to a stream, where stored files are held in memory if they're small enough,
+ * and to a file hashed as it's written, where they're copied through a direct buffer
+ * <p>
+ * Three quarters of the folder are 4 MB region files, which are stored, a sixth are jars, which are also stored, and
+ * the rest are YAML files, which are compressed. Every way the folder is zipped is run once to warm up before being
+ * measured.
+ * <p>
+ * It isn't packaged into the plugin. Run it from the test classpath, passing the size of the folder in MB, the number
+ * of compression threads, and the compression level:
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=ratismal.drivebackup.util.ArchiveWriterBenchmark -Dexec.args="1024 4 1"}
+ */
+public class ArchiveWriterBenchmark {
+    private static final long MB = 1024 * 1024;
+    private static final int RUNS = 3;
+
+    private final File folder;
+    private final List<File> files = new ArrayList<>();
+    private final int threads;
+    private final int level;
+
+    private ArchiveWriterBenchmark(File folder, int threads, int level) {
+        this.folder = folder;
+        this.threads = threads;
+        this.level = level;
+    }
+
+    private interface Zipper {
+        void zip(File zipFile) throws IOException;
+    }
+
+    /**
+     * Creates the files to zip
+     * @param size the total size of the files, in bytes
+     * @throws IOException
+     */
+    private void createFiles(long size) throws IOException {
+        Random random = new Random(0);
+
+        byte[] region = new byte[(int) (4 * MB)];
+        for (long i = 0; i < size * 3 / 4 / region.length; i++) {
+            random.nextBytes(region);
+            createFile("world/region/r." + i + ".0.mca", region);
+        }
+
+        byte[] jar = new byte[(int) MB];
+        for (long i = 0; i < size / 6 / jar.length; i++) {
+            random.nextBytes(jar);
+            createFile("plugins/Plugin" + i + ".jar", jar);
+        }
+
+        StringBuilder yaml = new StringBuilder();
+        for (int line = 0; yaml.length() < 64 * 1024; line++) {
+            yaml.append("key-").append(line).append(": ").append(random.nextInt(1000)).append('\n');
+        }
+        byte[] yamlBytes = yaml.toString().getBytes(StandardCharsets.UTF_8);
+        for (long i = 0; i < size / 12 / yamlBytes.length; i++) {
+            createFile("plugins/Plugin" + i + "/config.yml", yamlBytes);
+        }
+    }
+
+    private void createFile(String path, byte[] contents) throws IOException {
+        File file = new File(folder, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), contents);
+
+        files.add(file);
+    }
+
+    private String getEntryName(File file) {
+        return folder.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Zips the files with a {@code ZipOutputStream}, copying each one through a 1 KB array and compressing it, as
+     * backups were created before
+     * @param zipFile the zip file
+     * @throws IOException
+     */
+    private void zipWithStreams(File zipFile) throws IOException {
+        byte[] buffer = new byte[1024];
+
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(new FileOutputStream(zipFile))) {
+            zipOutputStream.setLevel(level);
+
+            for (File file : files) {
+                zipOutputStream.putNextEntry(new ZipEntry(getEntryName(file)));
+
+                try (InputStream inputStream = new FileInputStream(file)) {
+                    int length;
+                    while ((length = inputStream.read(buffer)) > 0) {
+                        zipOutputStream.write(buffer, 0, length);
+                    }
+                }
+
+                zipOutputStream.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Zips the files with the {@code ParallelZipWriter}
+     * @param out the stream to write the zip file to
+     * @throws IOException
+     */
+    private void zipWithParallelZipWriter(OutputStream out) throws IOException {
+        CompressionGovernor governor = new CompressionGovernor(false, threads);
+
+        try (ParallelZipWriter writer = new ParallelZipWriter(out, level, new CompressionPolicy(true), threads, Thread.NORM_PRIORITY, governor, DiskGovernor.unlimited())) {
+            for (File file : files) {
+                writer.putFile(getEntryName(file), file);
+            }
+        }
+    }
+
+    /**
+     * Zips the files several times in the specified way, and prints how long it took
+     * @param name the name of the way the files are zipped
+     * @param zipper zips the files
+     * @throws IOException
+     */
+    private void measure(String name, Zipper zipper) throws IOException {
+        File zipFile = File.createTempFile("drivebackup-benchmark", ".zip");
+        zipFile.deleteOnExit();
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+
+        zipper.zip(zipFile);
+
+        long[] times = new long[RUNS];
+        long gcPauses = 0;
+        for (int run = 0; run < RUNS; run++) {
+            long gcCount = getGcCount();
+            long start = System.nanoTime();
+
+            zipper.zip(zipFile);
+
+            times[run] = System.nanoTime() - start;
+            gcPauses += getGcCount() - gcCount;
+        }
+
+        Arrays.sort(times);
+        double fastest = times[0] / 1e9;
+        double slowest = times[RUNS - 1] / 1e9;
+        System.out.printf("%-32s %.2f-%.2f s (%.0f-%.0f MB/s), %d GC pauses per run, %d MB zip file%n",
+            name, fastest, slowest, size / MB / slowest, size / MB / fastest, gcPauses / RUNS, zipFile.length() / MB);
+
+        zipFile.delete();
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(collector.getCollectionCount(), 0);
+        }
+
+        return count;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Runs the benchmark
+     * @param args the size of the folder to zip in MB, defaulting to 1024, the number of compression threads,
+     * defaulting to 4, and the compression level, defaulting to 1
+     */
+    public static void main(String[] args) throws IOException {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 1024) * MB;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int level = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        File folder = Files.createTempDirectory("drivebackup-benchmark").toFile();
+        ArchiveWriterBenchmark benchmark = new ArchiveWriterBenchmark(folder, threads, level);
+
+        try {
+            benchmark.createFiles(size);
+
+            System.out.println("Zipping " + benchmark.files.size() + " files (" + size / MB + " MB) with " + threads + " thread(s) at level " + level);
+
+            benchmark.measure("FileInputStream, 1 KB array", benchmark::zipWithStreams);
+            benchmark.measure("ParallelZipWriter, stream", zipFile -> benchmark.zipWithParallelZipWriter(new BufferedOutputStream(new FileOutputStream(zipFile))));
+            benchmark.measure("ParallelZipWriter, hashed copy", zipFile -> benchmark.zipWithParallelZipWriter(new HashingFileOutputStream(zipFile, HashingFileOutputStream.newDigest())));
+        } finally {
+            delete(folder);
+        }
+    }
+}